@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.rocketmq.common.message.Message;
+import org.springframework.messaging.converter.MessageConversionException;
+
+/**
+ * Codecs of the message bodies compressed by the binder. The codec of a compressed
+ * body is kept in the {@link RocketMQBinderConstants#ROCKET_COMPRESSION} user property
+ * so that consumers can decompress it without any configuration.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public enum PayloadCompression {
+
+	NONE, GZIP, DEFLATE;
+
+	/**
+	 * Compress the body of the message if it is at least threshold bytes long and gets
+	 * smaller, and mark the message with the codec.
+	 */
+	public void compress(Message message, int threshold) {
+		byte[] body = message.getBody();
+		if (this == NONE || body == null || body.length < threshold) {
+			return;
+		}
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2);
+		try (OutputStream out = this == GZIP ? new GZIPOutputStream(compressed)
+				: new DeflaterOutputStream(compressed)) {
+			out.write(body);
+		}
+		catch (IOException e) {
+			// not thrown by in-memory streams
+			throw new IllegalStateException(e);
+		}
+		if (compressed.size() < body.length) {
+			message.setBody(compressed.toByteArray());
+			message.putUserProperty(RocketMQBinderConstants.ROCKET_COMPRESSION,
+					name().toLowerCase(Locale.ROOT));
+		}
+	}
+
+	/**
+	 * Default limit of a decompressed body, the default maximum message size of the
+	 * broker.
+	 */
+	public static final int DEFAULT_MAX_DECOMPRESSED_BYTES = 4 * 1024 * 1024;
+
+	/**
+	 * @param maxBytes the most bytes the body may decompress to
+	 * @return the body of the message, decompressed if a codec is marked
+	 * @throws MessageConversionException if the codec is unknown, the body is not
+	 * valid for it or it decompresses to more than maxBytes
+	 */
+	public static byte[] decompress(Message message, int maxBytes) {
+		String codec = message.getUserProperty(RocketMQBinderConstants.ROCKET_COMPRESSION);
+		if (codec == null) {
+			return message.getBody();
+		}
+		PayloadCompression compression = forCodec(codec);
+		if (compression == NONE) {
+			return message.getBody();
+		}
+		ByteArrayInputStream body = new ByteArrayInputStream(message.getBody());
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream(
+				(int) Math.min((long) message.getBody().length * 4, maxBytes));
+		byte[] buffer = new byte[8192];
+		try (InputStream in = compression == GZIP ? new GZIPInputStream(body)
+				: new InflaterInputStream(body)) {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				if (read > maxBytes - decompressed.size()) {
+					throw new MessageConversionException(
+							"RocketMQ message body decompresses to more than "
+									+ maxBytes + " bytes");
+				}
+				decompressed.write(buffer, 0, read);
+			}
+		}
+		catch (IOException e) {
+			throw new MessageConversionException(
+					"RocketMQ message body can't be decompressed with " + codec, e);
+		}
+		return decompressed.toByteArray();
+	}
+
+	private static PayloadCompression forCodec(String codec) {
+		for (PayloadCompression compression : values()) {
+			if (compression.name().equalsIgnoreCase(codec)) {
+				return compression;
+			}
+		}
+		throw new MessageConversionException(
+				"RocketMQ message body is compressed with the unknown codec " + codec);
+	}
+}
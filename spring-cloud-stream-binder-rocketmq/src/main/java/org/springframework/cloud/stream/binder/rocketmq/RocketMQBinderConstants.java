@@ -34,8 +34,43 @@ public interface RocketMQBinderConstants {
 
 	String ROCKET_TRANSACTIONAL_ARG = "ROCKETMQ_TRANSACTIONAL_ARG";
 
+	String ROCKET_SEND_CALLBACK = "ROCKETMQ_SEND_CALLBACK";
+
 	String ACKNOWLEDGEMENT_KEY = "ACKNOWLEDGEMENT";
 
+	/**
+	 * User property holding the {@link PayloadCompression} of a compressed body
+	 */
+	String ROCKET_COMPRESSION = "ROCKETMQ_COMPRESSION";
+
+	/**
+	 * User property holding the types of the typed headers mapped by
+	 * {@link RocketMQHeaderMapper}
+	 */
+	String ROCKET_HEADER_TYPES = "ROCKETMQ_HEADER_TYPES";
+
+	/**
+	 * Header holding the CompletableFuture completed with the reply to a request
+	 */
+	String ROCKET_REPLY_FUTURE = "ROCKETMQ_REPLY_FUTURE";
+
+	/**
+	 * User property correlating a reply with its request
+	 */
+	String ROCKET_CORRELATION_ID = "ROCKETMQ_CORRELATION_ID";
+
+	/**
+	 * User property of a request holding the reply topic and tag, separated by ':'
+	 */
+	String ROCKET_REPLY_TO = "ROCKETMQ_REPLY_TO";
+
+	/**
+	 * Batch mode header keys
+	 */
+	String ACKNOWLEDGEMENTS_KEY = "ACKNOWLEDGEMENTS";
+
+	String ROCKET_BATCH_HEADERS = "ROCKETMQ_BATCH_HEADERS";
+
 	/**
 	 * Instrumentation
 	 */
@@ -48,6 +83,8 @@ public interface RocketMQBinderConstants {
 			String TOTAL_SENT_FAILURES = "totalSentFailures";
 			String SENT_PER_SECOND = "sentPerSecond";
 			String SENT_FAILURES_PER_SECOND = "sentFailuresPerSecond";
+			String SEND_LATENCY = "sendLatency";
+			String REPLY_LATENCY = "replyLatency";
 		}
 
 		interface Consumer {
@@ -57,6 +94,25 @@ public interface RocketMQBinderConstants {
 			String CONSUMED_PER_SECOND = "consumedPerSecond";
 			String TOTAL_CONSUMED_FAILURES = "totalConsumedFailures";
 			String CONSUMED_FAILURES_PER_SECOND = "consumedFailuresPerSecond";
+			String CONSUME_DURATION = "consumeDuration";
+			String RETRY_DURATION = "retryDuration";
+			String DELIVERY_DELAY = "deliveryDelay";
+			String CONCURRENCY = "concurrency";
+			String PULL_BATCH_SIZE = "pullBatchSize";
+			String PULL_THRESHOLD_FOR_QUEUE = "pullThresholdForQueue";
+			String LOCAL_BACKLOG = "localBacklog";
+			String CONSUME_LATENCY_MILLIS = "consumeLatencyMillis";
+			String LAG = "lag";
+			String OUTSTANDING = "outstanding";
+			String ACTIVE_TASKS = "activeTasks";
+			String QUEUED_TASKS = "queuedTasks";
+			String DRAIN_DURATION_MILLIS = "drainDurationMillis";
+			String ABANDONED_MESSAGES = "abandonedMessages";
+			String DEDUPLICATION_HITS = "deduplicationHits";
+			String DEDUPLICATION_MISSES = "deduplicationMisses";
+			String DEDUPLICATION_EVICTIONS = "deduplicationEvictions";
+			String PENDING_REQUESTS = "pendingRequests";
+			String REPLY_TIMEOUTS = "replyTimeouts";
 		}
 	}
 
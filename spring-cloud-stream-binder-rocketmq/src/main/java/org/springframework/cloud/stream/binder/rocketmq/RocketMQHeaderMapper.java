@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.springframework.integration.mapping.HeaderMapper;
+import org.springframework.messaging.MessageHeaders;
+
+/**
+ * Maps the headers of a Spring message to the user properties of a RocketMQ message and
+ * back. The header patterns are compiled once: {@code *} matches everything,
+ * {@code prefix*} and {@code *suffix} match by prefix and suffix, anything else
+ * matches exactly, and a leading {@code !} excludes the headers it matches. The first
+ * matching pattern decides. String headers are sent as they are, typed headers
+ * (numbers, booleans, characters and UUIDs) are sent as their string value with their
+ * type recorded in {@link RocketMQBinderConstants#ROCKET_HEADER_TYPES}.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQHeaderMapper implements HeaderMapper<Message> {
+
+	/**
+	 * maps every user property back, with its type when it was recorded
+	 */
+	public static final RocketMQHeaderMapper DEFAULT = new RocketMQHeaderMapper(
+			new String[] { "*" }, true);
+
+	/**
+	 * headers and user properties of the binder itself, the reply routing properties
+	 * are set by the request-reply support and never copied from one message to another
+	 */
+	private static final Set<String> EXCLUDED_HEADERS = new HashSet<>(Arrays.asList(
+			MessageHeaders.ID, MessageHeaders.TIMESTAMP, MessageHeaders.CONTENT_TYPE,
+			RocketMQBinderConstants.ORIGINAL_ROCKET_MESSAGE,
+			RocketMQBinderConstants.ROCKET_FLAG,
+			RocketMQBinderConstants.ROCKET_SEND_RESULT,
+			RocketMQBinderConstants.ROCKET_TRANSACTIONAL_ARG,
+			RocketMQBinderConstants.ROCKET_SEND_CALLBACK,
+			RocketMQBinderConstants.ACKNOWLEDGEMENT_KEY,
+			RocketMQBinderConstants.ACKNOWLEDGEMENTS_KEY,
+			RocketMQBinderConstants.ROCKET_BATCH_HEADERS,
+			RocketMQBinderConstants.ROCKET_COMPRESSION,
+			RocketMQBinderConstants.ROCKET_HEADER_TYPES,
+			RocketMQBinderConstants.ROCKET_REPLY_FUTURE,
+			RocketMQBinderConstants.ROCKET_CORRELATION_ID,
+			RocketMQBinderConstants.ROCKET_REPLY_TO));
+
+	private final List<HeaderPattern> patterns = new ArrayList<>();
+
+	private final boolean typedHeaders;
+
+	public RocketMQHeaderMapper(String[] patterns, boolean typedHeaders) {
+		for (String pattern : patterns) {
+			this.patterns.add(new HeaderPattern(pattern.trim()));
+		}
+		this.typedHeaders = typedHeaders;
+	}
+
+	/**
+	 * Put the matching headers straight into the user properties of the target.
+	 */
+	@Override
+	public void fromHeaders(MessageHeaders headers, Message target) {
+		StringBuilder types = null;
+		for (Map.Entry<String, Object> header : headers.entrySet()) {
+			String name = header.getKey();
+			Object value = header.getValue();
+			if (value == null || !isMapped(name)) {
+				continue;
+			}
+			String encoded;
+			if (value instanceof String) {
+				encoded = (String) value;
+			}
+			else {
+				char type = typedHeaders ? typeOf(value) : 0;
+				if (type == 0 || name.indexOf(':') >= 0 || name.indexOf(',') >= 0) {
+					continue;
+				}
+				encoded = value.toString();
+				types = (types == null ? new StringBuilder() : types.append(','))
+						.append(name).append(':').append(type);
+			}
+			// RocketMQ rejects blank property values
+			if (!encoded.trim().isEmpty()) {
+				target.putUserProperty(name, encoded);
+			}
+		}
+		if (types != null) {
+			target.putUserProperty(RocketMQBinderConstants.ROCKET_HEADER_TYPES,
+					types.toString());
+		}
+	}
+
+	/**
+	 * @return the matching user properties of the source, converted back to their
+	 * recorded type
+	 */
+	@Override
+	public Map<String, Object> toHeaders(Message source) {
+		Map<String, String> properties = source.getProperties();
+		if (properties == null || properties.isEmpty()) {
+			return new HashMap<>();
+		}
+		Map<String, Character> types = parseTypes(
+				properties.get(RocketMQBinderConstants.ROCKET_HEADER_TYPES));
+		Map<String, Object> headers = new HashMap<>();
+		for (Map.Entry<String, String> property : properties.entrySet()) {
+			String name = property.getKey();
+			if (MessageConst.STRING_HASH_SET.contains(name) || !isMapped(name)) {
+				continue;
+			}
+			Character type = types.get(name);
+			headers.put(name, type == null ? property.getValue()
+					: decode(type, property.getValue()));
+		}
+		return headers;
+	}
+
+	private boolean isMapped(String name) {
+		if (EXCLUDED_HEADERS.contains(name)
+				|| MessageConst.STRING_HASH_SET.contains(name)) {
+			return false;
+		}
+		for (HeaderPattern pattern : patterns) {
+			if (pattern.matches(name)) {
+				return !pattern.negated;
+			}
+		}
+		return false;
+	}
+
+	private static char typeOf(Object value) {
+		if (value instanceof Integer) {
+			return 'I';
+		}
+		if (value instanceof Long) {
+			return 'J';
+		}
+		if (value instanceof Boolean) {
+			return 'Z';
+		}
+		if (value instanceof Double) {
+			return 'D';
+		}
+		if (value instanceof Float) {
+			return 'F';
+		}
+		if (value instanceof Short) {
+			return 'S';
+		}
+		if (value instanceof Byte) {
+			return 'B';
+		}
+		if (value instanceof Character) {
+			return 'C';
+		}
+		if (value instanceof UUID) {
+			return 'U';
+		}
+		return 0;
+	}
+
+	private static Object decode(char type, String value) {
+		switch (type) {
+		case 'I':
+			return Integer.valueOf(value);
+		case 'J':
+			return Long.valueOf(value);
+		case 'Z':
+			return Boolean.valueOf(value);
+		case 'D':
+			return Double.valueOf(value);
+		case 'F':
+			return Float.valueOf(value);
+		case 'S':
+			return Short.valueOf(value);
+		case 'B':
+			return Byte.valueOf(value);
+		case 'C':
+			return value.charAt(0);
+		case 'U':
+			return UUID.fromString(value);
+		default:
+			return value;
+		}
+	}
+
+	private static Map<String, Character> parseTypes(String types) {
+		Map<String, Character> result = new HashMap<>();
+		if (types == null) {
+			return result;
+		}
+		for (String entry : types.split(",")) {
+			int separator = entry.lastIndexOf(':');
+			if (separator > 0 && separator == entry.length() - 2) {
+				result.put(entry.substring(0, separator), entry.charAt(separator + 1));
+			}
+		}
+		return result;
+	}
+
+	private static class HeaderPattern {
+
+		private final boolean negated;
+
+		private final String value;
+
+		private final boolean prefix;
+
+		private final boolean suffix;
+
+		HeaderPattern(String pattern) {
+			negated = pattern.startsWith("!");
+			String expression = negated ? pattern.substring(1) : pattern;
+			prefix = expression.endsWith("*");
+			suffix = !prefix && expression.startsWith("*");
+			value = prefix ? expression.substring(0, expression.length() - 1)
+					: suffix ? expression.substring(1) : expression;
+		}
+
+		boolean matches(String name) {
+			if (prefix) {
+				return name.startsWith(value);
+			}
+			if (suffix) {
+				return name.endsWith(value);
+			}
+			return name.equals(value);
+		}
+	}
+}
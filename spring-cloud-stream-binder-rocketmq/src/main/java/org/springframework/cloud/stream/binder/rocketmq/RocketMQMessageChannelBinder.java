@@ -28,7 +28,10 @@ import org.springframework.cloud.stream.binder.ExtendedPropertiesBinder;
 import org.springframework.cloud.stream.binder.rocketmq.consuming.ConsumersManager;
 import org.springframework.cloud.stream.binder.rocketmq.integration.RocketMQInboundChannelAdapter;
 import org.springframework.cloud.stream.binder.rocketmq.integration.RocketMQMessageHandler;
+import org.springframework.cloud.stream.binder.rocketmq.integration.RocketMQMessageSource;
+import org.springframework.cloud.stream.binder.rocketmq.integration.RocketMQRequestReplyManager;
 import org.springframework.cloud.stream.binder.rocketmq.metrics.InstrumentationManager;
+import org.springframework.cloud.stream.binder.rocketmq.producing.ProducersManager;
 import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQBinderConfigurationProperties;
 import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQConsumerProperties;
 import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQExtendedBindingProperties;
@@ -57,14 +60,20 @@ public class RocketMQMessageChannelBinder extends
 	private final RocketMQBinderConfigurationProperties rocketBinderConfigurationProperties;
 	private final InstrumentationManager instrumentationManager;
 	private final ConsumersManager consumersManager;
+	private final ProducersManager producersManager;
+	private final RocketMQRequestReplyManager requestReplyManager;
 
 	public RocketMQMessageChannelBinder(ConsumersManager consumersManager,
+			ProducersManager producersManager,
+			RocketMQRequestReplyManager requestReplyManager,
 			RocketMQExtendedBindingProperties extendedBindingProperties,
 			RocketMQTopicProvisioner provisioningProvider,
 			RocketMQBinderConfigurationProperties rocketBinderConfigurationProperties,
 			InstrumentationManager instrumentationManager) {
 		super(null, provisioningProvider);
 		this.consumersManager = consumersManager;
+		this.producersManager = producersManager;
+		this.requestReplyManager = requestReplyManager;
 		this.extendedBindingProperties = extendedBindingProperties;
 		this.rocketBinderConfigurationProperties = rocketBinderConfigurationProperties;
 		this.instrumentationManager = instrumentationManager;
@@ -78,6 +87,9 @@ public class RocketMQMessageChannelBinder extends
 			RocketMQMessageHandler messageHandler = new RocketMQMessageHandler(
 					destination.getName(), producerProperties,
 					rocketBinderConfigurationProperties, instrumentationManager);
+			messageHandler.setSendFailureChannel(errorChannel);
+			messageHandler.setProducersManager(producersManager);
+			messageHandler.setRequestReplyManager(requestReplyManager);
 			if (producerProperties.getExtension().getTransactional()) {
 				// transaction message check LocalTransactionExecuter
 				messageHandler.setLocalTransactionExecuter(
@@ -114,11 +126,15 @@ public class RocketMQMessageChannelBinder extends
 				consumersManager, consumerProperties, destination.getName(), group,
 				instrumentationManager);
 
+		rocketInboundChannelAdapter.setRequestReplyManager(requestReplyManager);
+
 		ErrorInfrastructure errorInfrastructure = registerErrorInfrastructure(destination,
 				group, consumerProperties);
 		if (consumerProperties.getMaxAttempts() > 1) {
-			rocketInboundChannelAdapter
-					.setRetryTemplate(buildRetryTemplate(consumerProperties));
+			if (!consumerProperties.getExtension().getNonBlockingRetry()) {
+				rocketInboundChannelAdapter
+						.setRetryTemplate(buildRetryTemplate(consumerProperties));
+			}
 			rocketInboundChannelAdapter
 					.setRecoveryCallback(errorInfrastructure.getRecoverer());
 		}
@@ -130,6 +146,22 @@ public class RocketMQMessageChannelBinder extends
 		return rocketInboundChannelAdapter;
 	}
 
+	@Override
+	protected PolledConsumerResources createPolledConsumerResources(String name,
+			String group, ConsumerDestination destination,
+			ExtendedConsumerProperties<RocketMQConsumerProperties> consumerProperties) {
+		if (group == null || "".equals(group)) {
+			throw new RuntimeException(
+					"'group must be configured for channel + " + destination.getName());
+		}
+
+		RocketMQMessageSource rocketMessageSource = new RocketMQMessageSource(
+				consumersManager, consumerProperties, destination.getName(), group,
+				instrumentationManager);
+		return new PolledConsumerResources(rocketMessageSource,
+				registerErrorInfrastructure(destination, group, consumerProperties));
+	}
+
 	@Override
 	public RocketMQConsumerProperties getExtendedConsumerProperties(String channelName) {
 		return extendedBindingProperties.getExtendedConsumerProperties(channelName);
@@ -16,15 +16,20 @@
 
 package org.springframework.cloud.stream.binder.rocketmq;
 
+import static org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.ACKNOWLEDGEMENTS_KEY;
 import static org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.ACKNOWLEDGEMENT_KEY;
+import static org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.ROCKET_BATCH_HEADERS;
 import static org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.ORIGINAL_ROCKET_MESSAGE;
 import static org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.ROCKET_FLAG;
+import static org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.ROCKET_SEND_CALLBACK;
 import static org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.ROCKET_SEND_RESULT;
 import static org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.ROCKET_TRANSACTIONAL_ARG;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.rocketmq.client.producer.SendCallback;
 import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.common.message.MessageConst;
 import org.apache.rocketmq.common.message.MessageExt;
@@ -58,6 +63,34 @@ public class RocketMQMessageHeaderAccessor extends MessageHeaderAccessor {
 		return this;
 	}
 
+	/**
+	 * acknowledgements of a batch mode message, in the same order as its payload
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Acknowledgement> getAcknowledgements(Message message) {
+		return message.getHeaders().get(ACKNOWLEDGEMENTS_KEY, List.class);
+	}
+
+	public RocketMQMessageHeaderAccessor withAcknowledgements(
+			List<Acknowledgement> acknowledgements) {
+		setHeader(ACKNOWLEDGEMENTS_KEY, acknowledgements);
+		return this;
+	}
+
+	/**
+	 * headers of each element of a batch mode message, in the same order as its payload
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Map<String, Object>> getBatchHeaders() {
+		return getMessageHeaders().get(ROCKET_BATCH_HEADERS, List.class);
+	}
+
+	public RocketMQMessageHeaderAccessor withBatchHeaders(
+			List<Map<String, Object>> batchHeaders) {
+		setHeader(ROCKET_BATCH_HEADERS, batchHeaders);
+		return this;
+	}
+
 	public String getTags() {
 		return (String) getMessageHeaders().getOrDefault(MessageConst.PROPERTY_TAGS, "");
 	}
@@ -113,10 +146,26 @@ public class RocketMQMessageHeaderAccessor extends MessageHeaderAccessor {
 		return this;
 	}
 
+	/**
+	 * result of a sync or transactional send, batched and async sends report theirs to
+	 * the {@link #getSendCallback() send callback} only
+	 */
 	public SendResult getSendResult() {
 		return getMessageHeaders().get(ROCKET_SEND_RESULT, SendResult.class);
 	}
 
+	/**
+	 * callback that is completed with the result of the send, in every send mode
+	 */
+	public SendCallback getSendCallback() {
+		return getMessageHeaders().get(ROCKET_SEND_CALLBACK, SendCallback.class);
+	}
+
+	public RocketMQMessageHeaderAccessor withSendCallback(SendCallback sendCallback) {
+		setHeader(ROCKET_SEND_CALLBACK, sendCallback);
+		return this;
+	}
+
 	public static void putSendResult(MutableMessage message, SendResult sendResult) {
 		message.getHeaders().put(ROCKET_SEND_RESULT, sendResult);
 	}
@@ -40,13 +40,14 @@ public class RocketMQBinderEndpoint {
 	public Map<String, Object> invoke() {
 		Map<String, Object> result = new HashMap<>();
 		if (instrumentationManager != null) {
-			result.put("metrics",
-					instrumentationManager.getMetricRegistry().getMetrics());
+			result.putAll(instrumentationManager.getStates());
+			result.put("metrics", instrumentationManager.getMetrics());
 			result.put("runtime", instrumentationManager.getRuntime());
+			result.put("offsets", instrumentationManager.getQueueOffsets());
 		}
 		else {
 			result.put("warning",
-					"please add metrics-core dependency, we use it for metrics");
+					"please add micrometer-core or metrics-core dependency, we use it for metrics");
 		}
 		return result;
 	}
@@ -53,7 +53,7 @@ public class RocketMQBinderHealthIndicator extends AbstractHealthIndicator {
 		else {
 			builder.down();
 			builder.withDetail("warning",
-					"please add metrics-core dependency, we use it for metrics");
+					"please add micrometer-core or metrics-core dependency, we use it for metrics");
 		}
 
 	}
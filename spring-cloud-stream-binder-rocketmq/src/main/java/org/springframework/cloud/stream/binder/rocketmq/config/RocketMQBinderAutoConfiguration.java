@@ -21,12 +21,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.stream.binder.rocketmq.RocketMQMessageChannelBinder;
 import org.springframework.cloud.stream.binder.rocketmq.consuming.ConsumersManager;
+import org.springframework.cloud.stream.binder.rocketmq.integration.RocketMQRequestReplyManager;
 import org.springframework.cloud.stream.binder.rocketmq.metrics.InstrumentationManager;
+import org.springframework.cloud.stream.binder.rocketmq.producing.ProducersManager;
 import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQBinderConfigurationProperties;
 import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQExtendedBindingProperties;
 import org.springframework.cloud.stream.binder.rocketmq.provisioning.RocketMQTopicProvisioner;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.util.StringUtils;
 
 /**
  * @author Timur Valiev
@@ -62,10 +66,13 @@ public class RocketMQBinderAutoConfiguration {
 	@Bean
 	public RocketMQMessageChannelBinder rocketMessageChannelBinder(
 			RocketMQTopicProvisioner provisioningProvider,
-			ConsumersManager consumersManager) {
+			ConsumersManager consumersManager, ProducersManager producersManager,
+			RocketMQRequestReplyManager requestReplyManager) {
 		RocketMQMessageChannelBinder binder = new RocketMQMessageChannelBinder(
-				consumersManager, extendedBindingProperties, provisioningProvider,
-				rocketBinderConfigurationProperties, instrumentationManager);
+				consumersManager, producersManager, requestReplyManager,
+				extendedBindingProperties,
+				provisioningProvider, rocketBinderConfigurationProperties,
+				instrumentationManager);
 		return binder;
 	}
 
@@ -75,4 +82,36 @@ public class RocketMQBinderAutoConfiguration {
 				rocketBinderConfigurationProperties);
 	}
 
+	/**
+	 * The binder runs in a child context, the managers' state reaches the endpoint
+	 * through the application's {@link InstrumentationManager}.
+	 */
+	@Bean
+	public ProducersManager producersManager() {
+		ProducersManager producersManager = new ProducersManager(
+				rocketBinderConfigurationProperties);
+		if (instrumentationManager != null) {
+			instrumentationManager.addState("sharedProducers",
+					producersManager::getProducers);
+			instrumentationManager.addState("spools", producersManager::getSpools);
+		}
+		return producersManager;
+	}
+
+	@Bean
+	public RocketMQRequestReplyManager requestReplyManager(Environment environment) {
+		String instanceId = rocketBinderConfigurationProperties.getReplyInstanceId();
+		if (StringUtils.isEmpty(instanceId)) {
+			instanceId = RocketMQRequestReplyManager
+					.defaultInstanceId(environment.getProperty("server.port", "8080"));
+		}
+		RocketMQRequestReplyManager requestReplyManager = new RocketMQRequestReplyManager(
+				rocketBinderConfigurationProperties, instrumentationManager, instanceId);
+		if (instrumentationManager != null) {
+			instrumentationManager.addState("pendingRequests",
+					requestReplyManager::getPendingRequests);
+		}
+		return requestReplyManager;
+	}
+
 }
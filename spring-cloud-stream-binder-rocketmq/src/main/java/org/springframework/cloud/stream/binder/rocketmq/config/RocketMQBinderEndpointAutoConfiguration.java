@@ -19,18 +19,24 @@ package org.springframework.cloud.stream.binder.rocketmq.config;
 import org.springframework.boot.actuate.autoconfigure.endpoint.EndpointAutoConfiguration;
 import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
 import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.cloud.stream.binder.rocketmq.actuator.RocketMQBinderEndpoint;
 import org.springframework.cloud.stream.binder.rocketmq.actuator.RocketMQBinderHealthIndicator;
 import org.springframework.cloud.stream.binder.rocketmq.metrics.InstrumentationManager;
+import org.springframework.cloud.stream.binder.rocketmq.metrics.MicrometerInstrumentationManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 /**
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
  */
 @Configuration
-@AutoConfigureAfter(EndpointAutoConfiguration.class)
+@AutoConfigureAfter(value = EndpointAutoConfiguration.class, name = {
+		"org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration" })
 @ConditionalOnClass(Endpoint.class)
 public class RocketMQBinderEndpointAutoConfiguration {
 
@@ -44,10 +50,34 @@ public class RocketMQBinderEndpointAutoConfiguration {
 		return new RocketMQBinderHealthIndicator();
 	}
 
-	@Bean
+	/**
+	 * Micrometer is preferred, the binder metrics are then exported with the rest of
+	 * the application metrics.
+	 */
+	@Configuration
+	@ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+	@ConditionalOnBean(type = "io.micrometer.core.instrument.MeterRegistry")
+	protected static class MicrometerInstrumentationConfiguration {
+
+		@Bean
+		@ConditionalOnMissingBean
+		public InstrumentationManager instrumentationManager(
+				MeterRegistry meterRegistry) {
+			return new MicrometerInstrumentationManager(meterRegistry);
+		}
+
+	}
+
+	@Configuration
 	@ConditionalOnClass(name = "com.codahale.metrics.Counter")
-	public InstrumentationManager instrumentationManager() {
-		return new InstrumentationManager();
+	protected static class DropwizardInstrumentationConfiguration {
+
+		@Bean
+		@ConditionalOnMissingBean
+		public InstrumentationManager instrumentationManager() {
+			return new InstrumentationManager();
+		}
+
 	}
 
 }
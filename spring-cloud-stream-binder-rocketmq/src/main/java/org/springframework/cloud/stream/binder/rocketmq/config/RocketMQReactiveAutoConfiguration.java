@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.binder.rocketmq.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQBinderConfigurationProperties;
+import org.springframework.cloud.stream.binder.rocketmq.reactive.RocketMQReactiveBindings;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * The bindings are beans of the application context, unlike the binder, so is their
+ * reactive support.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Configuration
+@ConditionalOnClass(name = "reactor.core.publisher.Flux")
+@EnableConfigurationProperties(RocketMQBinderConfigurationProperties.class)
+public class RocketMQReactiveAutoConfiguration {
+
+	@Bean
+	@ConditionalOnMissingBean
+	public RocketMQReactiveBindings rocketReactiveBindings(
+			RocketMQBinderConfigurationProperties rocketBinderConfigurationProperties) {
+		return new RocketMQReactiveBindings(Schedulers.elastic(),
+				rocketBinderConfigurationProperties.getReactiveIdleMillis());
+	}
+
+}
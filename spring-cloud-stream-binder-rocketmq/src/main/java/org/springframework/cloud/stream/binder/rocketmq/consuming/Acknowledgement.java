@@ -16,6 +16,9 @@
 
 package org.springframework.cloud.stream.binder.rocketmq.consuming;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
 import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyContext;
@@ -27,6 +30,14 @@ import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyStatus;
  */
 public class Acknowledgement {
 
+	/**
+	 * delays of the default broker messageDelayLevel "1s 5s 10s 30s 1m 2m 3m 4m 5m 6m
+	 * 7m 8m 9m 10m 20m 30m 1h 2h", level n is at index n - 1
+	 */
+	private static final long[] DELAY_LEVEL_MILLIS = { 1000, 5000, 10000, 30000,
+			60000, 120000, 180000, 240000, 300000, 360000, 420000, 480000, 540000,
+			600000, 1200000, 1800000, 3600000, 7200000 };
+
 	/**
 	 * for {@link ConsumeConcurrentlyContext} using
 	 */
@@ -45,6 +56,11 @@ public class Acknowledgement {
 	private ConsumeOrderlyStatus consumeOrderlyStatus = ConsumeOrderlyStatus.SUCCESS;
 	private Long consumeOrderlySuspendCurrentQueueTimeMill = -1L;
 
+	/**
+	 * created by {@link #defer()}, completed with true on success
+	 */
+	private volatile CompletableFuture<Boolean> completion;
+
 	public Acknowledgement setConsumeConcurrentlyStatus(
 			ConsumeConcurrentlyStatus consumeConcurrentlyStatus) {
 		this.consumeConcurrentlyStatus = consumeConcurrentlyStatus;
@@ -82,6 +98,82 @@ public class Acknowledgement {
 		this.consumeOrderlySuspendCurrentQueueTimeMill = consumeOrderlySuspendCurrentQueueTimeMill;
 	}
 
+	/**
+	 * Take the message out of the synchronous consume flow: the handler returns while
+	 * the message is still being processed and calls {@link #complete()} or
+	 * {@link #fail()} later, from any thread. Only concurrent consumers with
+	 * deferredAcknowledgement enabled support it, the offset of the queue isn't committed
+	 * past the message until it is completed.
+	 */
+	public synchronized Acknowledgement defer() {
+		if (completion == null) {
+			completion = new CompletableFuture<>();
+		}
+		return this;
+	}
+
+	/**
+	 * Defer the message until the stage completes, successfully or not.
+	 */
+	public Acknowledgement completeWith(CompletionStage<?> stage) {
+		defer();
+		stage.whenComplete((result, throwable) -> {
+			if (throwable == null) {
+				complete();
+			}
+			else {
+				fail();
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Complete a deferred message successfully.
+	 */
+	public void complete() {
+		CompletableFuture<Boolean> completion = this.completion;
+		if (completion != null) {
+			completion.complete(true);
+		}
+	}
+
+	/**
+	 * Complete a deferred message as failed, it is given back to the broker with
+	 * {@link #getConsumeConcurrentlyDelayLevel()}.
+	 */
+	public void fail() {
+		CompletableFuture<Boolean> completion = this.completion;
+		if (completion != null) {
+			completion.complete(false);
+		}
+	}
+
+	public boolean isDeferred() {
+		return completion != null;
+	}
+
+	/**
+	 * @return completes with true or false once a deferred message is completed, null if
+	 * the message isn't deferred
+	 */
+	public CompletableFuture<Boolean> getCompletion() {
+		return completion;
+	}
+
+	/**
+	 * @return the first delay level of the default broker configuration whose delay is
+	 * at least delayMillis, the last level for longer delays
+	 */
+	public static int delayLevelFor(long delayMillis) {
+		for (int i = 0; i < DELAY_LEVEL_MILLIS.length; i++) {
+			if (DELAY_LEVEL_MILLIS[i] >= delayMillis) {
+				return i + 1;
+			}
+		}
+		return DELAY_LEVEL_MILLIS.length;
+	}
+
 	public static Acknowledgement buildOrderlyInstance() {
 		Acknowledgement acknowledgement = new Acknowledgement();
 		acknowledgement.setConsumeOrderlyStatus(ConsumeOrderlyStatus.SUCCESS);
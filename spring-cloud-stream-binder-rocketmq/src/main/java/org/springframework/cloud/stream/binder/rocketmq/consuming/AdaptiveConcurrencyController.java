@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.consuming;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.impl.consumer.ProcessQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.Metrics.Consumer;
+import org.springframework.cloud.stream.binder.rocketmq.metrics.ConsumerGroupInstrumentation;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQConsumerProperties;
+
+/**
+ * Resizes the consume thread pool of a push consumer. Every interval it looks at the
+ * messages waiting and at the time spent per message. The waiting messages are the
+ * broker lag of the group when the offsets are collected, the local backlog of the
+ * process queues otherwise, which only sees what was pulled already:
+ * <ul>
+ * <li>threads that are busy most of the time with messages still waiting: grow by
+ * half, unless the latency doubled since the last interval, which means the
+ * downstream is saturated and more threads won't help</li>
+ * <li>threads that are idle half of the time: shrink to what is needed (Little's law)
+ * plus headroom</li>
+ * </ul>
+ * The pull settings are tuned only if adaptivePull is enabled, from the local backlog
+ * since they bound the process queues.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class AdaptiveConcurrencyController {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(AdaptiveConcurrencyController.class);
+
+	private static final double SATURATED_UTILIZATION = 0.8;
+
+	private static final double IDLE_UTILIZATION = 0.5;
+
+	private static final double TARGET_UTILIZATION = 0.7;
+
+	private final String group;
+
+	private final DefaultMQPushConsumer consumer;
+
+	private final RocketMQConsumerProperties properties;
+
+	private final int initialPullThresholdForQueue;
+
+	private final LongAdder consumedMessages = new LongAdder();
+
+	private final LongAdder consumeNanos = new LongAdder();
+
+	private volatile LongSupplier brokerLag;
+
+	private volatile int concurrency;
+
+	private volatile long localBacklog;
+
+	private volatile double latencyMillis;
+
+	private long lastTimestamp = System.nanoTime();
+
+	public AdaptiveConcurrencyController(String group, DefaultMQPushConsumer consumer,
+			RocketMQConsumerProperties properties, int initialConcurrency) {
+		this.group = group;
+		this.consumer = consumer;
+		this.properties = properties;
+		this.initialPullThresholdForQueue = consumer.getPullThresholdForQueue();
+		this.concurrency = clamp(initialConcurrency, properties.getMinConcurrency(),
+				properties.getMaxConcurrency());
+	}
+
+	/**
+	 * @param maxConcurrency the largest pool the controller may ask for
+	 * @return the consumeThreadMax the consumer needs, RocketMQ only applies core pool
+	 * sizes below it
+	 */
+	public static int consumeThreadMax(int maxConcurrency) {
+		return maxConcurrency + 1;
+	}
+
+	public void recordConsumed(int messages, long nanos) {
+		consumedMessages.add(messages);
+		consumeNanos.add(nanos);
+	}
+
+	public void bindTo(ConsumerGroupInstrumentation instrumentation) {
+		instrumentation.gauge(Consumer.CONCURRENCY, () -> concurrency);
+		instrumentation.gauge(Consumer.PULL_BATCH_SIZE, consumer::getPullBatchSize);
+		instrumentation.gauge(Consumer.PULL_THRESHOLD_FOR_QUEUE,
+				consumer::getPullThresholdForQueue);
+		instrumentation.gauge(Consumer.LOCAL_BACKLOG, () -> localBacklog);
+		instrumentation.gauge(Consumer.CONSUME_LATENCY_MILLIS, () -> latencyMillis);
+	}
+
+	/**
+	 * Count the messages not pulled yet as waiting too.
+	 * @param brokerLag the last collected lag of the queues assigned to the consumer
+	 */
+	public void setBrokerLag(LongSupplier brokerLag) {
+		this.brokerLag = brokerLag;
+	}
+
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	public long getIntervalMillis() {
+		return properties.getAdaptiveIntervalMillis();
+	}
+
+	void adjust() {
+		long now = System.nanoTime();
+		double seconds = (now - lastTimestamp) / 1e9;
+		lastTimestamp = now;
+		long messages = consumedMessages.sumThenReset();
+		long nanos = consumeNanos.sumThenReset();
+		if (seconds <= 0) {
+			return;
+		}
+
+		long backlog = 0;
+		for (ProcessQueue processQueue : consumer.getDefaultMQPushConsumerImpl()
+				.getRebalanceImpl().getProcessQueueTable().values()) {
+			backlog += processQueue.getMsgCount().get();
+		}
+		LongSupplier brokerLag = this.brokerLag;
+		// the lag is collected less often than the backlog changes
+		long waiting = brokerLag == null ? backlog
+				: Math.max(backlog, brokerLag.getAsLong());
+		double previousLatencyMillis = latencyMillis;
+		double currentLatencyMillis = messages == 0 ? 0 : nanos / 1e6 / messages;
+		// average number of busy threads = arrival rate * time in the handler
+		double busy = nanos / 1e9 / seconds;
+		localBacklog = backlog;
+		latencyMillis = currentLatencyMillis;
+
+		int current = concurrency;
+		int target = current;
+		boolean saturated = busy >= current * SATURATED_UTILIZATION;
+		boolean downstreamSlower = previousLatencyMillis > 0
+				&& currentLatencyMillis > previousLatencyMillis * 2;
+		if (saturated && waiting > current && !downstreamSlower) {
+			target = current + Math.max(1, current / 2);
+		}
+		else if (busy < current * IDLE_UTILIZATION) {
+			target = (int) Math.ceil(busy / TARGET_UTILIZATION);
+		}
+		target = clamp(target, properties.getMinConcurrency(),
+				properties.getMaxConcurrency());
+		if (target != current) {
+			consumer.getDefaultMQPushConsumerImpl().getConsumeMessageService()
+					.updateCorePoolSize(target);
+			concurrency = target;
+			logger.info(
+					"RocketMQ consumer group {} concurrency {} -> {} (waiting {}, backlog {}, busy {}, latency {}ms)",
+					group, current, target, waiting, backlog, String.format("%.1f", busy),
+					String.format("%.1f", currentLatencyMillis));
+		}
+
+		if (properties.getAdaptivePull()) {
+			adjustPull(backlog, saturated, messages);
+		}
+	}
+
+	/**
+	 * Bound the heap while the handlers can't keep up, prefetch more while they are
+	 * starving.
+	 */
+	private void adjustPull(long backlog, boolean saturated, long messages) {
+		int queues = Math.max(1, consumer.getDefaultMQPushConsumerImpl()
+				.getRebalanceImpl().getProcessQueueTable().size());
+		int threshold = consumer.getPullThresholdForQueue();
+		int batchSize = consumer.getPullBatchSize();
+		if (saturated && concurrency >= properties.getMaxConcurrency()
+				&& backlog >= (long) threshold * queues * SATURATED_UTILIZATION) {
+			consumer.setPullThresholdForQueue(
+					Math.max(properties.getMinPullThresholdForQueue(), threshold / 2));
+		}
+		else if (backlog == 0 && messages > 0) {
+			consumer.setPullBatchSize(
+					Math.min(properties.getMaxPullBatchSize(), batchSize * 2));
+			consumer.setPullThresholdForQueue(
+					Math.min(initialPullThresholdForQueue, threshold * 2));
+		}
+	}
+
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+}
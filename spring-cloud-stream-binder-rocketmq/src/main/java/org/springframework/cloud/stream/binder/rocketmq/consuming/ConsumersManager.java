@@ -17,37 +17,75 @@
 package org.springframework.cloud.stream.binder.rocketmq.consuming;
 
 import java.util.AbstractMap;
-import java.util.HashMap;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.apache.rocketmq.client.consumer.DefaultMQPullConsumer;
 import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
 import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.impl.consumer.ProcessQueue;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.consumer.ConsumeFromWhere;
 import org.apache.rocketmq.common.protocol.heartbeat.MessageModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.Metrics.Consumer;
 import org.springframework.cloud.stream.binder.rocketmq.metrics.ConsumerGroupInstrumentation;
 import org.springframework.cloud.stream.binder.rocketmq.metrics.InstrumentationManager;
 import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQBinderConfigurationProperties;
 import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQConsumerProperties;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 /**
  * @author Timur Valiev
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
  */
-public class ConsumersManager {
+public class ConsumersManager implements ApplicationContextAware {
+
+	private static final long DRAIN_POLL_MILLIS = 100;
 
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-	private final Map<String, DefaultMQPushConsumer> consumerGroups = new HashMap<>();
-	private final Map<String, Boolean> started = new HashMap<>();
-	private final Map<Map.Entry<String, String>, ExtendedConsumerProperties<RocketMQConsumerProperties>> propertiesMap = new HashMap<>();
+	private final Map<String, DefaultMQPushConsumer> consumerGroups = new ConcurrentHashMap<>();
+	private final Map<String, DefaultMQPullConsumer> pullConsumerGroups = new ConcurrentHashMap<>();
+	private final Map<String, Boolean> started = new ConcurrentHashMap<>();
+	private final Set<String> pendingGroups = ConcurrentHashMap.newKeySet();
+	private final Map<String, AdaptiveConcurrencyController> concurrencyControllers = new ConcurrentHashMap<>();
+	private final Map<String, ScheduledFuture<?>> concurrencyTasks = new ConcurrentHashMap<>();
+	private final Map<String, ScheduledFuture<?>> offsetTasks = new ConcurrentHashMap<>();
+	private final Map<String, DeferredOffsetStore> deferredOffsetStores = new ConcurrentHashMap<>();
+	private final Map<String, VirtualThreadConsumeExecutor> consumeExecutors = new ConcurrentHashMap<>();
+	private final Map<String, DeduplicationStore> deduplicationStores = new ConcurrentHashMap<>();
+	private final Map<String, Integer> drainTimeouts = new ConcurrentHashMap<>();
+	private final Map<Map.Entry<String, String>, ExtendedConsumerProperties<RocketMQConsumerProperties>> propertiesMap = new ConcurrentHashMap<>();
 	private final RocketMQBinderConfigurationProperties rocketBinderConfigurationProperties;
 
 	private InstrumentationManager instrumentationManager;
 
+	private volatile ScheduledExecutorService scheduler;
+
+	private volatile boolean refreshed;
+
+	private volatile ConfigurableApplicationContext rootContext;
+
 	public ConsumersManager(InstrumentationManager instrumentationManager,
 			RocketMQBinderConfigurationProperties rocketBinderConfigurationProperties) {
 		this.instrumentationManager = instrumentationManager;
@@ -74,38 +112,389 @@ public class ConsumersManager {
 		consumer.setNamesrvAddr(rocketBinderConfigurationProperties.getNamesrvAddr());
 		consumerGroups.put(group, consumer);
 		started.put(group, false);
-		consumer.setConsumeThreadMax(consumerProperties.getConcurrency());
-		consumer.setConsumeThreadMin(consumerProperties.getConcurrency());
+		drainTimeouts.put(group,
+				consumerProperties.getExtension().getDrainTimeoutMillis());
+		if (consumerProperties.getExtension().getAdaptiveConcurrency()) {
+			AdaptiveConcurrencyController controller = new AdaptiveConcurrencyController(
+					group, consumer, consumerProperties.getExtension(),
+					consumerProperties.getConcurrency());
+			concurrencyControllers.put(group, controller);
+			consumer.setConsumeThreadMax(AdaptiveConcurrencyController
+					.consumeThreadMax(consumerProperties.getExtension()
+							.getMaxConcurrency()));
+			consumer.setConsumeThreadMin(controller.getConcurrency());
+		}
+		else {
+			consumer.setConsumeThreadMax(consumerProperties.getConcurrency());
+			consumer.setConsumeThreadMin(consumerProperties.getConcurrency());
+		}
+		consumer.setConsumeMessageBatchMaxSize(
+				consumeMessageBatchMaxSize(consumerProperties.getExtension()));
+		consumer.setPullBatchSize(consumerProperties.getExtension().getPullBatchSize());
+		if (consumerProperties.getExtension().getNonBlockingRetry()
+				&& !consumerProperties.getExtension().getOrderly()) {
+			// the broker must not dead letter a message before the binder recovers it,
+			// concurrent consumers default to 16 reconsume times
+			consumer.setMaxReconsumeTimes(
+					Math.max(16, consumerProperties.getMaxAttempts()));
+		}
 		if (consumerProperties.getExtension().getBroadcasting()) {
 			consumer.setMessageModel(MessageModel.BROADCASTING);
 		}
+		consumer.setConsumeFromWhere(
+				consumerProperties.getExtension().getConsumeFromWhere());
+		if (consumerProperties.getExtension().getConsumeTimestamp() != null) {
+			// fail the binding rather than the rebalance
+			consumeTimestampMillis(consumerProperties.getExtension());
+			consumer.setConsumeTimestamp(
+					consumerProperties.getExtension().getConsumeTimestamp());
+		}
+		if (consumerProperties.getExtension().getVirtualThreads()
+				&& !consumerProperties.getExtension().getOrderly()) {
+			VirtualThreadConsumeExecutor executor = VirtualThreadConsumeExecutor.create(
+					consumerProperties.getExtension().getVirtualThreadConcurrency());
+			if (executor == null) {
+				logger.warn("RocketMQ consumer group {} can't use virtual threads on "
+						+ "this JVM, it consumes on its thread pool", group);
+			}
+			else {
+				consumeExecutors.put(group, executor);
+			}
+		}
+		// virtual threads complete their messages through deferred acknowledgements
+		if ((consumerProperties.getExtension().getDeferredAcknowledgement()
+				|| consumeExecutors.containsKey(group))
+				&& !consumerProperties.getExtension().getOrderly()) {
+			DeferredOffsetStore offsetStore = new DeferredOffsetStore(consumer,
+					consumerProperties.getExtension().getMaxOutstanding(),
+					getScheduler());
+			consumer.setOffsetStore(offsetStore);
+			deferredOffsetStores.put(group, offsetStore);
+		}
+		// a restarted group keeps what it has consumed
+		if (consumerProperties.getExtension().getDeduplication()
+				&& !deduplicationStores.containsKey(group)) {
+			deduplicationStores.put(group, new DeduplicationStore(
+					consumerProperties.getExtension().getDeduplicationKey(),
+					consumerProperties.getExtension().getDeduplicationMaxEntries(),
+					consumerProperties.getExtension().getDeduplicationWindowMillis()));
+		}
 		logger.info("RocketMQ consuming for SCS group {} created", group);
 		return consumer;
 	}
 
-	public synchronized void startConsumers() throws MQClientException {
+	/**
+	 * Orderly lanes split the messages handed to the listener at once, with the default
+	 * of one message there is nothing to split, so lanes get up to a pull batch.
+	 */
+	static int consumeMessageBatchMaxSize(RocketMQConsumerProperties properties) {
+		int size = properties.getConsumeMessageBatchMaxSize();
+		if (properties.getOrderly() && properties.getOrderlyLanes() > 1
+				&& !properties.getBatchMode()) {
+			return Math.max(size, properties.getPullBatchSize());
+		}
+		return size;
+	}
+
+	/**
+	 * @return the start of {@link ConsumeFromWhere#CONSUME_FROM_TIMESTAMP}, half an
+	 * hour ago by default like RocketMQ
+	 * @throws IllegalArgumentException if the consumeTimestamp isn't yyyyMMddHHmmss
+	 */
+	public static long consumeTimestampMillis(RocketMQConsumerProperties properties) {
+		String timestamp = properties.getConsumeTimestamp();
+		if (timestamp == null) {
+			return System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(30);
+		}
+		Date date = UtilAll.parseDate(timestamp, UtilAll.YYYYMMDDHHMMSS);
+		if (date == null) {
+			throw new IllegalArgumentException("RocketMQ consumeTimestamp " + timestamp
+					+ " isn't formatted as " + UtilAll.YYYYMMDDHHMMSS);
+		}
+		return date.getTime();
+	}
+
+	/**
+	 * Pull consumers back pollable bindings. A group is either push or pull, RocketMQ
+	 * doesn't allow both kinds of consumer for the same group in one client.
+	 */
+	public synchronized DefaultMQPullConsumer getOrCreatePullConsumer(String group,
+			String topic,
+			ExtendedConsumerProperties<RocketMQConsumerProperties> consumerProperties) {
+		if (consumerGroups.containsKey(group)) {
+			throw new IllegalStateException("RocketMQ consumer group " + group
+					+ " is already used by a message driven binding");
+		}
+		propertiesMap.put(new AbstractMap.SimpleEntry<>(group, topic),
+				consumerProperties);
+
+		Optional.ofNullable(instrumentationManager).ifPresent(manager -> {
+			ConsumerGroupInstrumentation instrumentation = manager
+					.getConsumerGroupInstrumentation(group);
+			instrumentationManager.addHealthInstrumentation(instrumentation);
+		});
+
+		DefaultMQPullConsumer consumer = pullConsumerGroups.get(group);
+		if (consumer == null) {
+			consumer = new DefaultMQPullConsumer(group);
+			consumer.setNamesrvAddr(rocketBinderConfigurationProperties.getNamesrvAddr());
+			consumer.setRegisterTopics(new HashSet<>());
+			if (consumerProperties.getExtension().getBroadcasting()) {
+				consumer.setMessageModel(MessageModel.BROADCASTING);
+			}
+			pullConsumerGroups.put(group, consumer);
+			started.put(group, false);
+			logger.info("RocketMQ pull consuming for SCS group {} created", group);
+		}
+		// the registered topics are rebalanced once the consumer starts
+		consumer.getRegisterTopics().add(topic);
+		return consumer;
+	}
+
+	public void startConsumers() throws MQClientException {
 		for (String group : getConsumerGroups()) {
 			start(group);
 		}
 	}
 
-	public synchronized void startConsumer(String group) throws MQClientException {
+	/**
+	 * Start the consumer of the group. With parallelStartup, push consumers bound
+	 * while the application context is refreshing only start once it is refreshed, all
+	 * of them concurrently, so that every binding of a group has subscribed first.
+	 * Groups bound once it is refreshed start right away.
+	 */
+	public void startConsumer(String group) throws MQClientException {
+		synchronized (pendingGroups) {
+			if (rocketBinderConfigurationProperties.getParallelStartup()
+					&& !isRefreshed() && consumerGroups.containsKey(group)) {
+				pendingGroups.add(group);
+				return;
+			}
+		}
 		start(group);
 	}
 
-	public synchronized void stopConsumer(String group) {
+	/**
+	 * The binder context may be created after the root context has been refreshed, for
+	 * a binding bound late, and then never sees the refresh event.
+	 */
+	private boolean isRefreshed() {
+		ConfigurableApplicationContext root = rootContext;
+		return refreshed || (root != null && root.isActive() && root.isRunning());
+	}
+
+	public void stopConsumer(String group) {
+		pendingGroups.remove(group);
 		stop(group);
 	}
 
+	/**
+	 * Listen for the refresh of the root context, the binder runs in a child context
+	 * whose own refresh happens before the bindings are bound.
+	 */
+	@Override
+	public void setApplicationContext(ApplicationContext applicationContext) {
+		ApplicationContext root = applicationContext;
+		while (root.getParent() != null) {
+			root = root.getParent();
+		}
+		if (root instanceof ConfigurableApplicationContext) {
+			ApplicationContext context = root;
+			rootContext = (ConfigurableApplicationContext) root;
+			rootContext.addApplicationListener(event -> {
+				if (event instanceof ContextRefreshedEvent
+						&& ((ContextRefreshedEvent) event)
+								.getApplicationContext() == context) {
+					startPendingConsumers();
+				}
+			});
+		}
+		else {
+			refreshed = true;
+		}
+	}
+
+	/**
+	 * Start the pending groups concurrently and wait for them to be started, at most
+	 * awaitReadyTimeoutMillis if it is positive.
+	 * @throws IllegalStateException if a group failed to start or hasn't started in
+	 * time, which fails the refresh of the application context
+	 */
+	private void startPendingConsumers() {
+		Set<String> groups;
+		synchronized (pendingGroups) {
+			refreshed = true;
+			groups = new HashSet<>(pendingGroups);
+			pendingGroups.clear();
+		}
+		if (groups.isEmpty()) {
+			return;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(groups.size(),
+						rocketBinderConfigurationProperties.getStartupThreads()),
+				new CustomizableThreadFactory("RocketMQConsumerStartup_"));
+		Map<String, Future<?>> startups = new TreeMap<>();
+		for (String group : groups) {
+			startups.put(group, executor.submit(() -> {
+				start(group);
+				return null;
+			}));
+		}
+		executor.shutdown();
+		long timeout = rocketBinderConfigurationProperties.getAwaitReadyTimeoutMillis();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		Map<String, String> failures = new TreeMap<>();
+		for (Map.Entry<String, Future<?>> startup : startups.entrySet()) {
+			try {
+				if (timeout > 0) {
+					startup.getValue().get(deadline - System.nanoTime(),
+							TimeUnit.NANOSECONDS);
+				}
+				else {
+					startup.getValue().get();
+				}
+			}
+			catch (ExecutionException e) {
+				failures.put(startup.getKey(), String.valueOf(e.getCause().getMessage()));
+			}
+			catch (TimeoutException e) {
+				failures.put(startup.getKey(), "not started within " + timeout + "ms");
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(
+						"Interrupted while RocketMQ consumer groups " + groups + " start",
+						e);
+			}
+		}
+		if (!failures.isEmpty()) {
+			throw new IllegalStateException(
+					"RocketMQ consumer groups aren't ready: " + failures);
+		}
+		logger.info("RocketMQ consumer groups {} started in parallel", groups);
+	}
+
+	/**
+	 * @return the controller resizing the consume threads of the group, or null if
+	 * the group uses a fixed concurrency
+	 */
+	public AdaptiveConcurrencyController getConcurrencyController(
+			String group) {
+		return concurrencyControllers.get(group);
+	}
+
+	/**
+	 * @return the offset store holding back the offsets of deferred messages, or null if
+	 * the group doesn't defer acknowledgements
+	 */
+	public DeferredOffsetStore getDeferredOffsetStore(String group) {
+		return deferredOffsetStores.get(group);
+	}
+
+	/**
+	 * @return the virtual thread executor of the group, or null if it consumes on the
+	 * consume thread pool
+	 */
+	public VirtualThreadConsumeExecutor getConsumeExecutor(String group) {
+		return consumeExecutors.get(group);
+	}
+
+	/**
+	 * @return the store of the messages already consumed by the group, or null if it
+	 * doesn't drop duplicates
+	 */
+	public DeduplicationStore getDeduplicationStore(String group) {
+		return deduplicationStores.get(group);
+	}
+
 	private void stop(String group) {
+		ScheduledFuture<?> concurrencyTask = concurrencyTasks.remove(group);
+		if (concurrencyTask != null) {
+			concurrencyTask.cancel(false);
+		}
+		ScheduledFuture<?> offsetTask = offsetTasks.remove(group);
+		if (offsetTask != null) {
+			offsetTask.cancel(false);
+		}
 		if (consumerGroups.get(group) != null) {
-			consumerGroups.get(group).shutdown();
-			started.put(group, false);
+			DefaultMQPushConsumer consumer = consumerGroups.get(group);
+			int drainTimeout = drainTimeouts.getOrDefault(group, 0);
+			if (drainTimeout > 0 && Boolean.TRUE.equals(started.get(group))) {
+				drain(group, consumer, drainTimeout);
+			}
+			// shutdown persists the offsets of the drained messages
+			consumer.shutdown();
+		}
+		VirtualThreadConsumeExecutor consumeExecutor = consumeExecutors.remove(group);
+		if (consumeExecutor != null) {
+			consumeExecutor.shutdown();
+		}
+		if (pullConsumerGroups.get(group) != null) {
+			pullConsumerGroups.get(group).shutdown();
 		}
+		DeduplicationStore deduplicationStore = deduplicationStores.get(group);
+		if (deduplicationStore != null) {
+			deduplicationStore.releaseClaims();
+		}
+		// RocketMQ consumers can't be started again once shut down, the next binding
+		// of the group creates a new one with its executor and offset store
+		consumerGroups.remove(group);
+		pullConsumerGroups.remove(group);
+		concurrencyControllers.remove(group);
+		deferredOffsetStores.remove(group);
+		drainTimeouts.remove(group);
+		started.remove(group);
 	}
 
-	private synchronized void start(String group) throws MQClientException {
-		if (started.get(group)) {
+	/**
+	 * Suspend pulling and wait for the messages already pulled, and the deferred ones,
+	 * to be consumed. Whatever is left after the timeout is consumed again elsewhere.
+	 */
+	private void drain(String group, DefaultMQPushConsumer consumer, long timeoutMillis) {
+		long startTime = System.currentTimeMillis();
+		consumer.suspend();
+		long inFlight = getInFlight(group, consumer);
+		try {
+			while (inFlight > 0
+					&& System.currentTimeMillis() - startTime < timeoutMillis) {
+				Thread.sleep(DRAIN_POLL_MILLIS);
+				inFlight = getInFlight(group, consumer);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long duration = System.currentTimeMillis() - startTime;
+		if (inFlight > 0) {
+			logger.warn("RocketMQ consumer group {} abandoned {} messages after "
+					+ "draining for {}ms", group, inFlight, duration);
+		}
+		else {
+			logger.info("RocketMQ consumer group {} drained in {}ms", group, duration);
+		}
+		if (instrumentationManager != null) {
+			instrumentationManager.getConsumerGroupInstrumentation(group)
+					.markDrained(duration, inFlight);
+		}
+	}
+
+	private long getInFlight(String group, DefaultMQPushConsumer consumer) {
+		long inFlight = 0;
+		for (ProcessQueue processQueue : consumer.getDefaultMQPushConsumerImpl()
+				.getRebalanceImpl().getProcessQueueTable().values()) {
+			inFlight += processQueue.getMsgCount().get();
+		}
+		DeferredOffsetStore offsetStore = deferredOffsetStores.get(group);
+		if (offsetStore != null) {
+			inFlight += offsetStore.getOutstanding();
+		}
+		return inFlight;
+	}
+
+	private void start(String group) throws MQClientException {
+		// only one caller starts the group
+		if (!started.replace(group, false, true)) {
 			return;
 		}
 
@@ -117,12 +506,38 @@ public class ConsumersManager {
 		}
 
 		try {
-			consumerGroups.get(group).start();
-			started.put(group, true);
+			if (consumerGroups.containsKey(group)) {
+				consumerGroups.get(group).start();
+			}
+			else {
+				pullConsumerGroups.get(group).start();
+			}
 			Optional.ofNullable(groupInstrumentation)
 					.ifPresent(g -> g.markStartedSuccessfully());
+			DeferredOffsetStore offsetStore = deferredOffsetStores.get(group);
+			if (groupInstrumentation != null && offsetStore != null) {
+				groupInstrumentation.gauge(Consumer.OUTSTANDING,
+						offsetStore::getOutstanding);
+			}
+			if (groupInstrumentation != null && consumerGroups.containsKey(group)) {
+				groupInstrumentation.gauge(Consumer.DRAIN_DURATION_MILLIS,
+						groupInstrumentation::getDrainDurationMillis);
+				groupInstrumentation.gauge(Consumer.ABANDONED_MESSAGES,
+						groupInstrumentation::getAbandonedMessages);
+			}
+			VirtualThreadConsumeExecutor consumeExecutor = consumeExecutors.get(group);
+			if (groupInstrumentation != null && consumeExecutor != null) {
+				consumeExecutor.bindTo(groupInstrumentation);
+			}
+			DeduplicationStore deduplicationStore = deduplicationStores.get(group);
+			if (groupInstrumentation != null && deduplicationStore != null) {
+				deduplicationStore.bindTo(groupInstrumentation);
+			}
+			scheduleConcurrencyController(group, groupInstrumentation);
+			scheduleOffsetCollector(group, groupInstrumentation);
 		}
 		catch (MQClientException e) {
+			started.put(group, false);
 			Optional.ofNullable(groupInstrumentation)
 					.ifPresent(g -> g.markStartFailed(e));
 			logger.error("RocketMQ Consumer hasn't been started. Caused by "
@@ -131,7 +546,81 @@ public class ConsumersManager {
 		}
 	}
 
-	public synchronized Set<String> getConsumerGroups() {
-		return consumerGroups.keySet();
+	private void scheduleConcurrencyController(String group,
+			ConsumerGroupInstrumentation groupInstrumentation) {
+		AdaptiveConcurrencyController controller = concurrencyControllers.get(group);
+		if (controller == null) {
+			return;
+		}
+		if (groupInstrumentation != null) {
+			controller.bindTo(groupInstrumentation);
+			if (rocketBinderConfigurationProperties.getOffsetCollectIntervalMillis() > 0) {
+				controller.setBrokerLag(groupInstrumentation::getLag);
+			}
+		}
+		long interval = controller.getIntervalMillis();
+		concurrencyTasks.put(group, getScheduler().scheduleWithFixedDelay(() -> {
+			try {
+				controller.adjust();
+			}
+			catch (Exception e) {
+				logger.warn("RocketMQ consumer group " + group
+						+ " concurrency adjustment failed", e);
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS));
+	}
+
+	private void scheduleOffsetCollector(String group,
+			ConsumerGroupInstrumentation groupInstrumentation) {
+		long interval = rocketBinderConfigurationProperties
+				.getOffsetCollectIntervalMillis();
+		if (groupInstrumentation == null || interval <= 0) {
+			return;
+		}
+		QueueOffsetCollector collector;
+		if (consumerGroups.containsKey(group)) {
+			DefaultMQPushConsumer consumer = consumerGroups.get(group);
+			collector = new QueueOffsetCollector(group, consumer,
+					consumer.getDefaultMQPushConsumerImpl().getRebalanceImpl(),
+					consumer.getDefaultMQPushConsumerImpl().getOffsetStore(),
+					groupInstrumentation);
+		}
+		else {
+			DefaultMQPullConsumer consumer = pullConsumerGroups.get(group);
+			collector = new QueueOffsetCollector(group, consumer,
+					consumer.getDefaultMQPullConsumerImpl().getRebalanceImpl(),
+					consumer.getDefaultMQPullConsumerImpl().getOffsetStore(),
+					groupInstrumentation);
+		}
+		groupInstrumentation.gauge(Consumer.LAG, groupInstrumentation::getLag);
+		offsetTasks.put(group, getScheduler().scheduleWithFixedDelay(() -> {
+			try {
+				collector.run();
+			}
+			catch (Exception e) {
+				logger.warn("RocketMQ consumer group " + group
+						+ " offset collection failed", e);
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * One daemon thread runs the periodic work of all the groups.
+	 */
+	private synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "RocketMQConsumersManager");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return scheduler;
+	}
+
+	public Set<String> getConsumerGroups() {
+		Set<String> groups = new HashSet<>(consumerGroups.keySet());
+		groups.addAll(pullConsumerGroups.keySet());
+		return groups;
 	}
 }
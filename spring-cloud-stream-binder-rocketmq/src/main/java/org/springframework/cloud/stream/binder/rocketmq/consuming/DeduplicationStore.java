@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.binder.rocketmq.consuming;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.rocketmq.common.message.MessageExt;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.Metrics.Consumer;
+import org.springframework.cloud.stream.binder.rocketmq.metrics.ConsumerGroupInstrumentation;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQConsumerProperties.DeduplicationKey;
+
+/**
+ * Remembers the messages consumed during the last windowMillis, so that redeliveries
+ * of them can be dropped. Each message takes a 64 bit fingerprint of its key and the
+ * time it was claimed or recorded in an off-heap hash table, split in stripes with
+ * their own lock. A negative time marks a claim, a message being consumed. Expired
+ * entries are reused first, then the oldest entry of the probed slots is evicted, so
+ * the store never grows past maxEntries.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class DeduplicationStore {
+
+	private static final int SLOT_BYTES = 16;
+
+	private static final int MAX_PROBES = 8;
+
+	private static final int STRIPES = 64;
+
+	private static final int MAX_SLOTS = 1 << 26;
+
+	private final DeduplicationKey key;
+
+	private final long windowMillis;
+
+	private final ByteBuffer table;
+
+	private final int stripeSlots;
+
+	private final Object[] locks = new Object[STRIPES];
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	public DeduplicationStore(DeduplicationKey key, int maxEntries, long windowMillis) {
+		this.key = key;
+		this.windowMillis = windowMillis;
+		// twice as many slots as entries keeps the probe sequences short
+		int slots = Math.min(MAX_SLOTS, Integer.highestOneBit(
+				Math.max(2 * maxEntries, STRIPES * MAX_PROBES) - 1) << 1);
+		this.stripeSlots = slots / STRIPES;
+		this.table = ByteBuffer.allocateDirect(slots * SLOT_BYTES);
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * Check the message and claim it in one step, so that of two deliveries of one
+	 * message consumed at the same time only one is acquired. The claim lasts until the
+	 * message is recorded or released, or at most windowMillis.
+	 * @return {@link Claim#ACQUIRED} if the caller consumes the message and must record
+	 * or release it, messages without a key are always acquired
+	 */
+	public Claim claim(MessageExt msg) {
+		String value = keyOf(msg);
+		if (value == null) {
+			return Claim.ACQUIRED;
+		}
+		long fingerprint = fingerprint(value);
+		long now = System.currentTimeMillis();
+		int stripe = stripe(fingerprint);
+		synchronized (locks[stripe]) {
+			int free = -1;
+			int oldest = -1;
+			long oldestTime = Long.MAX_VALUE;
+			for (int i = 0; i < MAX_PROBES; i++) {
+				int position = position(stripe, fingerprint, i);
+				long stored = table.getLong(position);
+				long time = Math.abs(table.getLong(position + 8));
+				if (stored == fingerprint) {
+					if (now - time < windowMillis) {
+						hits.increment();
+						return table.getLong(position + 8) < 0 ? Claim.IN_PROGRESS
+								: Claim.DUPLICATE;
+					}
+					free = position;
+					break;
+				}
+				if (free < 0 && (stored == 0 || now - time >= windowMillis)) {
+					free = position;
+				}
+				if (stored == 0) {
+					// never used, the probe sequence ends here
+					break;
+				}
+				if (time < oldestTime) {
+					oldestTime = time;
+					oldest = position;
+				}
+			}
+			if (free < 0) {
+				free = oldest;
+				evictions.increment();
+			}
+			table.putLong(free, fingerprint);
+			table.putLong(free + 8, -now);
+		}
+		misses.increment();
+		return Claim.ACQUIRED;
+	}
+
+	/**
+	 * Record a claimed message that has been consumed successfully, its redeliveries are
+	 * duplicates for windowMillis.
+	 */
+	public void record(MessageExt msg) {
+		String value = keyOf(msg);
+		if (value == null) {
+			return;
+		}
+		long fingerprint = fingerprint(value);
+		long now = System.currentTimeMillis();
+		int stripe = stripe(fingerprint);
+		synchronized (locks[stripe]) {
+			int free = -1;
+			int oldest = -1;
+			long oldestTime = Long.MAX_VALUE;
+			for (int i = 0; i < MAX_PROBES; i++) {
+				int position = position(stripe, fingerprint, i);
+				long stored = table.getLong(position);
+				long time = Math.abs(table.getLong(position + 8));
+				if (stored == fingerprint) {
+					table.putLong(position + 8, now);
+					return;
+				}
+				if (free < 0 && (stored == 0 || now - time >= windowMillis)) {
+					free = position;
+				}
+				if (stored == 0) {
+					break;
+				}
+				if (time < oldestTime) {
+					oldestTime = time;
+					oldest = position;
+				}
+			}
+			if (free < 0) {
+				free = oldest;
+				evictions.increment();
+			}
+			table.putLong(free, fingerprint);
+			table.putLong(free + 8, now);
+		}
+	}
+
+	/**
+	 * Drop the claim of a message that wasn't consumed successfully, so that its next
+	 * delivery is acquired.
+	 */
+	public void release(MessageExt msg) {
+		String value = keyOf(msg);
+		if (value == null) {
+			return;
+		}
+		long fingerprint = fingerprint(value);
+		int stripe = stripe(fingerprint);
+		synchronized (locks[stripe]) {
+			for (int i = 0; i < MAX_PROBES; i++) {
+				int position = position(stripe, fingerprint, i);
+				long stored = table.getLong(position);
+				if (stored == 0) {
+					break;
+				}
+				if (stored == fingerprint) {
+					if (table.getLong(position + 8) < 0) {
+						// expired, the slot stays in the probe sequence
+						table.putLong(position + 8, 0);
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drop all the claims, the messages still in flight when their consumer stopped are
+	 * consumed again.
+	 */
+	public void releaseClaims() {
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			synchronized (locks[stripe]) {
+				for (int slot = 0; slot < stripeSlots; slot++) {
+					int position = (stripe * stripeSlots + slot) * SLOT_BYTES;
+					if (table.getLong(position + 8) < 0) {
+						table.putLong(position + 8, 0);
+					}
+				}
+			}
+		}
+	}
+
+	private String keyOf(MessageExt msg) {
+		String value = key == DeduplicationKey.KEYS ? msg.getKeys() : msg.getMsgId();
+		return value == null || value.isEmpty() ? null : value;
+	}
+
+	private int stripe(long fingerprint) {
+		return (int) (fingerprint >>> 58) & (STRIPES - 1);
+	}
+
+	private int position(int stripe, long fingerprint, int probe) {
+		int slot = ((int) fingerprint + probe) & (stripeSlots - 1);
+		return (stripe * stripeSlots + slot) * SLOT_BYTES;
+	}
+
+	/**
+	 * FNV-1a over the chars, mixed with the murmur3 finalizer. 0 marks empty slots.
+	 */
+	private static long fingerprint(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash == 0 ? 1 : hash;
+	}
+
+	public void bindTo(ConsumerGroupInstrumentation instrumentation) {
+		instrumentation.gauge(Consumer.DEDUPLICATION_HITS, hits::sum);
+		instrumentation.gauge(Consumer.DEDUPLICATION_MISSES, misses::sum);
+		instrumentation.gauge(Consumer.DEDUPLICATION_EVICTIONS, evictions::sum);
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public enum Claim {
+
+		/**
+		 * not consumed within the window, the caller consumes it
+		 */
+		ACQUIRED,
+
+		/**
+		 * consumed successfully within the window
+		 */
+		DUPLICATE,
+
+		/**
+		 * being consumed by another delivery, whose outcome isn't known yet
+		 */
+		IN_PROGRESS
+	}
+}
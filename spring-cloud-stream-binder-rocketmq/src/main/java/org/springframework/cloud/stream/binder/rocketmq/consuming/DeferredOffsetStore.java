@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.consuming;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.store.LocalFileOffsetStore;
+import org.apache.rocketmq.client.consumer.store.OffsetStore;
+import org.apache.rocketmq.client.consumer.store.ReadOffsetType;
+import org.apache.rocketmq.client.consumer.store.RemoteBrokerOffsetStore;
+import org.apache.rocketmq.client.exception.MQBrokerException;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.impl.consumer.DefaultMQPushConsumerImpl;
+import org.apache.rocketmq.client.impl.consumer.ProcessQueue;
+import org.apache.rocketmq.client.impl.factory.MQClientInstance;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.common.protocol.heartbeat.MessageModel;
+import org.apache.rocketmq.remoting.exception.RemotingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Offset store of a push consumer whose messages can be acknowledged after the listener
+ * returned, see {@link Acknowledgement#defer()}. RocketMQ commits the offset of a queue
+ * as soon as the listener returns, this store holds it back at the lowest message of the
+ * queue that is still outstanding. It is installed before the consumer starts and
+ * creates the offset store RocketMQ would have created once the client is available.
+ * <p>
+ * A failed message is sent back to the broker, retried with a growing delay when the
+ * broker can't take it. After {@link #SEND_BACK_ATTEMPTS} attempts it is consumed
+ * again locally, like RocketMQ does for the messages of a concurrent listener it can't
+ * send back, and its offset is released.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class DeferredOffsetStore implements OffsetStore {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(DeferredOffsetStore.class);
+
+	static final int SEND_BACK_ATTEMPTS = 5;
+
+	private static final long SEND_BACK_BACKOFF_MILLIS = 1000;
+
+	private final DefaultMQPushConsumer consumer;
+
+	private final int maxOutstanding;
+
+	private final Semaphore permits;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final Map<MessageQueue, QueueState> queues = new ConcurrentHashMap<>();
+
+	private volatile OffsetStore delegate;
+
+	/**
+	 * @param scheduler runs the retries of the messages that haven't been sent back
+	 */
+	public DeferredOffsetStore(DefaultMQPushConsumer consumer, int maxOutstanding,
+			ScheduledExecutorService scheduler) {
+		this.consumer = consumer;
+		this.maxOutstanding = maxOutstanding;
+		this.permits = new Semaphore(maxOutstanding);
+		this.scheduler = scheduler;
+	}
+
+	DeferredOffsetStore(DefaultMQPushConsumer consumer, int maxOutstanding,
+			ScheduledExecutorService scheduler, OffsetStore delegate) {
+		this(consumer, maxOutstanding, scheduler);
+		this.delegate = delegate;
+	}
+
+	/**
+	 * Hold the offset of the queue back at the message until its acknowledgement is
+	 * completed. Blocks while maxOutstanding messages are outstanding.
+	 */
+	public void track(MessageQueue mq, MessageExt msg, Acknowledgement acknowledgement)
+			throws InterruptedException {
+		permits.acquire();
+		QueueState queue = queues.computeIfAbsent(mq, key -> new QueueState());
+		long offset = msg.getQueueOffset();
+		synchronized (queue) {
+			queue.outstanding.add(offset);
+		}
+		acknowledgement.getCompletion().whenComplete((success, throwable) -> {
+			permits.release();
+			if (Boolean.TRUE.equals(success)) {
+				release(mq, queue, offset);
+			}
+			else {
+				sendBack(mq, queue, msg,
+						acknowledgement.getConsumeConcurrentlyDelayLevel(), 1);
+			}
+		});
+	}
+
+	/**
+	 * @return the number of messages deferred and not completed yet
+	 */
+	public int getOutstanding() {
+		return maxOutstanding - permits.availablePermits();
+	}
+
+	/**
+	 * Give the failed message back to the broker and release its offset. The offset
+	 * stays at the message while the attempts are retried, and for good if the queue
+	 * went to another consumer, which consumes the message again.
+	 */
+	private void sendBack(MessageQueue mq, QueueState queue, MessageExt msg,
+			int delayLevel, int attempt) {
+		if (queues.get(mq) != queue) {
+			return;
+		}
+		try {
+			consumer.sendMessageBack(msg, delayLevel, mq.getBrokerName());
+		}
+		catch (RemotingException | MQBrokerException | InterruptedException
+				| MQClientException e) {
+			if (attempt < SEND_BACK_ATTEMPTS) {
+				long delay = SEND_BACK_BACKOFF_MILLIS << (attempt - 1);
+				logger.warn("RocketMQ deferred message " + msg.getMsgId()
+						+ " hasn't been sent back, retrying in " + delay
+						+ "ms. Caused by " + e.getMessage());
+				try {
+					scheduler.schedule(
+							() -> sendBack(mq, queue, msg, delayLevel, attempt + 1),
+							delay, TimeUnit.MILLISECONDS);
+				}
+				catch (RejectedExecutionException stopped) {
+					// the consumer is stopping, the message is consumed again
+					// after a restart
+				}
+				return;
+			}
+			logger.error("RocketMQ deferred message " + msg.getMsgId()
+					+ " hasn't been sent back after " + attempt
+					+ " attempts, it is consumed again locally. Caused by "
+					+ e.getMessage());
+			if (!consumeLocally(mq, msg)) {
+				return;
+			}
+		}
+		release(mq, queue, msg.getQueueOffset());
+	}
+
+	/**
+	 * @return false if the queue isn't consumed here anymore
+	 */
+	private boolean consumeLocally(MessageQueue mq, MessageExt msg) {
+		DefaultMQPushConsumerImpl impl = consumer.getDefaultMQPushConsumerImpl();
+		ProcessQueue processQueue = impl.getRebalanceImpl().getProcessQueueTable()
+				.get(mq);
+		if (processQueue == null || processQueue.isDropped()) {
+			return false;
+		}
+		msg.setReconsumeTimes(msg.getReconsumeTimes() + 1);
+		impl.getConsumeMessageService().submitConsumeRequest(
+				Collections.singletonList(msg), processQueue, mq, true);
+		return true;
+	}
+
+	private void release(MessageQueue mq, QueueState queue, long offset) {
+		synchronized (queue) {
+			queue.outstanding.remove(offset);
+			if (queues.get(mq) == queue && queue.requested >= 0) {
+				delegate.updateOffset(mq, queue.committable(), true);
+			}
+		}
+	}
+
+	@Override
+	public void load() throws MQClientException {
+		MQClientInstance clientFactory = consumer.getDefaultMQPushConsumerImpl()
+				.getmQClientFactory();
+		delegate = consumer.getMessageModel() == MessageModel.BROADCASTING
+				? new LocalFileOffsetStore(clientFactory, consumer.getConsumerGroup())
+				: new RemoteBrokerOffsetStore(clientFactory,
+						consumer.getConsumerGroup());
+		delegate.load();
+	}
+
+	@Override
+	public void updateOffset(MessageQueue mq, long offset, boolean increaseOnly) {
+		QueueState queue = queues.get(mq);
+		if (queue == null) {
+			delegate.updateOffset(mq, offset, increaseOnly);
+			return;
+		}
+		synchronized (queue) {
+			queue.requested = Math.max(queue.requested, offset);
+			delegate.updateOffset(mq, queue.committable(), increaseOnly);
+		}
+	}
+
+	@Override
+	public long readOffset(MessageQueue mq, ReadOffsetType type) {
+		return delegate.readOffset(mq, type);
+	}
+
+	@Override
+	public void persistAll(Set<MessageQueue> mqs) {
+		delegate.persistAll(mqs);
+	}
+
+	@Override
+	public void persist(MessageQueue mq) {
+		delegate.persist(mq);
+	}
+
+	/**
+	 * The queue went to another consumer, its outstanding messages will be consumed
+	 * there again.
+	 */
+	@Override
+	public void removeOffset(MessageQueue mq) {
+		queues.remove(mq);
+		delegate.removeOffset(mq);
+	}
+
+	@Override
+	public Map<MessageQueue, Long> cloneOffsetTable(String topic) {
+		return delegate.cloneOffsetTable(topic);
+	}
+
+	@Override
+	public void updateConsumeOffsetToBroker(MessageQueue mq, long offset,
+			boolean isOneway) throws RemotingException, MQBrokerException,
+			InterruptedException, MQClientException {
+		delegate.updateConsumeOffsetToBroker(mq, offset, isOneway);
+	}
+
+	private static class QueueState {
+
+		private final TreeSet<Long> outstanding = new TreeSet<>();
+
+		/**
+		 * the highest offset RocketMQ asked to commit, -1 before the first request
+		 */
+		private long requested = -1;
+
+		long committable() {
+			return outstanding.isEmpty() ? requested
+					: Math.min(requested, outstanding.first());
+		}
+	}
+}
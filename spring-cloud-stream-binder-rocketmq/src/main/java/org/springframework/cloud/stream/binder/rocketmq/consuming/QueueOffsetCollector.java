@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.consuming;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.rocketmq.client.MQAdmin;
+import org.apache.rocketmq.client.consumer.store.OffsetStore;
+import org.apache.rocketmq.client.consumer.store.ReadOffsetType;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.impl.consumer.ProcessQueue;
+import org.apache.rocketmq.client.impl.consumer.RebalanceImpl;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.stream.binder.rocketmq.metrics.ConsumerGroupInstrumentation;
+import org.springframework.cloud.stream.binder.rocketmq.metrics.QueueOffset;
+
+/**
+ * Collects the offsets of the queues assigned to a consumer. The consumer offset is read
+ * from the local offset store, only the broker max offset costs a request per queue.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class QueueOffsetCollector implements Runnable {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(QueueOffsetCollector.class);
+
+	private final String group;
+
+	private final MQAdmin admin;
+
+	private final RebalanceImpl rebalance;
+
+	private final OffsetStore offsetStore;
+
+	private final ConsumerGroupInstrumentation instrumentation;
+
+	QueueOffsetCollector(String group, MQAdmin admin, RebalanceImpl rebalance,
+			OffsetStore offsetStore, ConsumerGroupInstrumentation instrumentation) {
+		this.group = group;
+		this.admin = admin;
+		this.rebalance = rebalance;
+		this.offsetStore = offsetStore;
+		this.instrumentation = instrumentation;
+	}
+
+	@Override
+	public void run() {
+		Map<String, QueueOffset> offsets = new HashMap<>();
+		for (Map.Entry<MessageQueue, ProcessQueue> entry : rebalance
+				.getProcessQueueTable().entrySet()) {
+			MessageQueue mq = entry.getKey();
+			ProcessQueue processQueue = entry.getValue();
+			if (processQueue.isDropped()) {
+				continue;
+			}
+			try {
+				offsets.put(
+						mq.getTopic() + ":" + mq.getBrokerName() + ":" + mq.getQueueId(),
+						new QueueOffset(admin.maxOffset(mq),
+								offsetStore.readOffset(mq,
+										ReadOffsetType.READ_FROM_MEMORY),
+								processQueue.getLastConsumeTimestamp()));
+			}
+			catch (MQClientException e) {
+				logger.debug("RocketMQ consumer group " + group
+						+ " can't read the max offset of " + mq, e);
+			}
+		}
+		instrumentation.updateQueueOffsets(offsets);
+	}
+}
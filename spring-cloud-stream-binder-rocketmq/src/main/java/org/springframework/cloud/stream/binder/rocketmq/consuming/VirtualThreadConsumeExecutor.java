@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.consuming;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.Metrics.Consumer;
+import org.springframework.cloud.stream.binder.rocketmq.metrics.ConsumerGroupInstrumentation;
+
+/**
+ * Runs consume tasks on virtual threads, at most concurrency of them at a time. The
+ * binder is built for Java 8, the executor is looked up reflectively and only exists
+ * on JDK 21 and later.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class VirtualThreadConsumeExecutor {
+
+	private final ExecutorService executor;
+
+	private final Semaphore permits;
+
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final AtomicInteger queued = new AtomicInteger();
+
+	private VirtualThreadConsumeExecutor(ExecutorService executor, int concurrency) {
+		this.executor = executor;
+		this.permits = new Semaphore(concurrency);
+	}
+
+	/**
+	 * @return an executor with one virtual thread per task, or null if the JVM doesn't
+	 * support virtual threads
+	 */
+	public static VirtualThreadConsumeExecutor create(int concurrency) {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return new VirtualThreadConsumeExecutor(
+					(ExecutorService) factory.invoke(null), concurrency);
+		}
+		catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Run the task on a new virtual thread, waiting for a permit while concurrency
+	 * tasks are running.
+	 * @throws RejectedExecutionException if the executor is shut down
+	 */
+	public void execute(Runnable task) throws InterruptedException {
+		queued.incrementAndGet();
+		try {
+			permits.acquire();
+		}
+		finally {
+			queued.decrementAndGet();
+		}
+		try {
+			executor.execute(() -> {
+				active.incrementAndGet();
+				try {
+					task.run();
+				}
+				finally {
+					active.decrementAndGet();
+					permits.release();
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	public void bindTo(ConsumerGroupInstrumentation instrumentation) {
+		instrumentation.gauge(Consumer.ACTIVE_TASKS, active::get);
+		instrumentation.gauge(Consumer.QUEUED_TASKS, queued::get);
+	}
+
+	public int getActive() {
+		return active.get();
+	}
+
+	public int getQueued() {
+		return queued.get();
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -18,13 +18,20 @@ package org.springframework.cloud.stream.binder.rocketmq.integration;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 
-import org.apache.commons.lang3.ClassUtils;
 import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
 import org.apache.rocketmq.client.consumer.MessageSelector;
 import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
@@ -39,20 +46,30 @@ import org.apache.rocketmq.common.message.MessageExt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.rocketmq.PayloadCompression;
 import org.springframework.cloud.stream.binder.rocketmq.RocketMQMessageHeaderAccessor;
 import org.springframework.cloud.stream.binder.rocketmq.consuming.Acknowledgement;
+import org.springframework.cloud.stream.binder.rocketmq.consuming.AdaptiveConcurrencyController;
 import org.springframework.cloud.stream.binder.rocketmq.consuming.ConsumersManager;
+import org.springframework.cloud.stream.binder.rocketmq.consuming.DeduplicationStore;
+import org.springframework.cloud.stream.binder.rocketmq.consuming.DeduplicationStore.Claim;
+import org.springframework.cloud.stream.binder.rocketmq.consuming.DeferredOffsetStore;
+import org.springframework.cloud.stream.binder.rocketmq.consuming.VirtualThreadConsumeExecutor;
 import org.springframework.cloud.stream.binder.rocketmq.metrics.ConsumerInstrumentation;
 import org.springframework.cloud.stream.binder.rocketmq.metrics.InstrumentationManager;
 import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQConsumerProperties;
 import org.springframework.integration.endpoint.MessageProducerSupport;
+import org.springframework.integration.support.ErrorMessageUtils;
 import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.retry.RecoveryCallback;
 import org.springframework.retry.RetryCallback;
 import org.springframework.retry.RetryContext;
 import org.springframework.retry.RetryListener;
+import org.springframework.retry.context.RetryContextSupport;
 import org.springframework.retry.support.RetryTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.StringUtils;
 
 /**
@@ -63,8 +80,16 @@ public class RocketMQInboundChannelAdapter extends MessageProducerSupport {
 	private static final Logger logger = LoggerFactory
 			.getLogger(RocketMQInboundChannelAdapter.class);
 
+	private static final String RETRY_START_TIME = "scs-rocketmq.retryStartTime";
+
 	private ConsumerInstrumentation consumerInstrumentation;
 
+	private LongConsumer consumeDuration;
+
+	private LongConsumer retryDuration;
+
+	private LongConsumer deliveryDelay;
+
 	private InstrumentationManager instrumentationManager;
 
 	private RetryTemplate retryTemplate;
@@ -79,6 +104,18 @@ public class RocketMQInboundChannelAdapter extends MessageProducerSupport {
 
 	private final ConsumersManager consumersManager;
 
+	private AdaptiveConcurrencyController concurrencyController;
+
+	private ExecutorService laneExecutor;
+
+	private DeferredOffsetStore deferredOffsetStore;
+
+	private VirtualThreadConsumeExecutor consumeExecutor;
+
+	private DeduplicationStore deduplicationStore;
+
+	private RocketMQRequestReplyManager requestReplyManager;
+
 	public RocketMQInboundChannelAdapter(ConsumersManager consumersManager,
 			ExtendedConsumerProperties<RocketMQConsumerProperties> consumerProperties,
 			String destination, String group,
@@ -102,6 +139,10 @@ public class RocketMQInboundChannelAdapter extends MessageProducerSupport {
 
 		DefaultMQPushConsumer consumer = consumersManager.getOrCreateConsumer(group,
 				destination, consumerProperties);
+		concurrencyController = consumersManager.getConcurrencyController(group);
+		deferredOffsetStore = consumersManager.getDeferredOffsetStore(group);
+		consumeExecutor = consumersManager.getConsumeExecutor(group);
+		deduplicationStore = consumersManager.getDeduplicationStore(group);
 
 		final CloudStreamMessageListener listener = isOrderly
 				? new CloudStreamMessageListenerOrderly()
@@ -116,8 +157,12 @@ public class RocketMQInboundChannelAdapter extends MessageProducerSupport {
 						.collect(Collectors.toSet());
 
 		Optional.ofNullable(instrumentationManager).ifPresent(manager -> {
-			consumerInstrumentation = manager.getConsumerInstrumentation(destination);
+			consumerInstrumentation = manager.getConsumerInstrumentation(destination,
+					group);
 			manager.addHealthInstrumentation(consumerInstrumentation);
+			consumeDuration = consumerInstrumentation.consumeDuration();
+			retryDuration = consumerInstrumentation.retryDuration();
+			deliveryDelay = consumerInstrumentation.deliveryDelay();
 		});
 
 		try {
@@ -139,6 +184,14 @@ public class RocketMQInboundChannelAdapter extends MessageProducerSupport {
 			throw new RuntimeException("RocketMQ Consumer hasn't been subscribed.", e);
 		}
 
+		int lanes = consumerProperties.getExtension().getOrderlyLanes();
+		if (isOrderly && lanes > 1 && !consumerProperties.getExtension().getBatchMode()) {
+			// the calling consume thread takes one lane itself
+			laneExecutor = Executors.newFixedThreadPool(
+					consumer.getConsumeThreadMax() * (lanes - 1),
+					new CustomizableThreadFactory("RocketMQOrderlyLane_" + group + "_"));
+		}
+
 		consumer.registerMessageListener(listener);
 
 		try {
@@ -155,6 +208,10 @@ public class RocketMQInboundChannelAdapter extends MessageProducerSupport {
 	@Override
 	protected void doStop() {
 		consumersManager.stopConsumer(group);
+		if (laneExecutor != null) {
+			laneExecutor.shutdown();
+			laneExecutor = null;
+		}
 	}
 
 	public void setRetryTemplate(RetryTemplate retryTemplate) {
@@ -165,108 +222,316 @@ public class RocketMQInboundChannelAdapter extends MessageProducerSupport {
 		this.recoveryCallback = recoveryCallback;
 	}
 
-	protected class CloudStreamMessageListener implements MessageListener, RetryListener {
+	/**
+	 * Let handlers reply to requests through the reply channel header, batches are
+	 * never replied.
+	 */
+	public void setRequestReplyManager(
+			RocketMQRequestReplyManager requestReplyManager) {
+		this.requestReplyManager = requestReplyManager;
+	}
+
+	protected abstract class CloudStreamMessageListener
+			implements MessageListener, RetryListener {
+
+		/**
+		 * Drop the messages already consumed, acknowledging them as successful, and
+		 * deliver the others. A message that is being consumed by another delivery at
+		 * the same time is acknowledged as failed, to be checked again once the outcome
+		 * of that delivery is known. Delivered messages are recorded once their
+		 * acknowledgement, deferred or not, is successful, and released otherwise.
+		 * @return one acknowledgement per message, in the same order as msgs
+		 */
+		List<Acknowledgement> consumeMessage(final List<MessageExt> msgs) {
+			DeduplicationStore deduplicationStore = RocketMQInboundChannelAdapter.this.deduplicationStore;
+			if (deduplicationStore == null) {
+				return deliver(msgs);
+			}
+			Claim[] claims = new Claim[msgs.size()];
+			List<MessageExt> fresh = new ArrayList<>(msgs.size());
+			for (int i = 0; i < msgs.size(); i++) {
+				claims[i] = deduplicationStore.claim(msgs.get(i));
+				if (claims[i] == Claim.ACQUIRED) {
+					fresh.add(msgs.get(i));
+				}
+				else if (logger.isDebugEnabled()) {
+					logger.debug((claims[i] == Claim.DUPLICATE ? "dropping duplicate msg "
+							: "postponing msg in progress ") + msgs.get(i).getMsgId());
+				}
+			}
+			List<Acknowledgement> delivered;
+			try {
+				delivered = fresh.isEmpty() ? Collections.emptyList() : deliver(fresh);
+			}
+			catch (RuntimeException | Error e) {
+				fresh.forEach(deduplicationStore::release);
+				throw e;
+			}
+			for (int i = 0; i < delivered.size(); i++) {
+				MessageExt msg = fresh.get(i);
+				Acknowledgement acknowledgement = delivered.get(i);
+				if (acknowledgement.isDeferred()) {
+					acknowledgement.getCompletion().whenComplete((success, error) -> {
+						if (Boolean.TRUE.equals(success)) {
+							deduplicationStore.record(msg);
+						}
+						else {
+							deduplicationStore.release(msg);
+						}
+					});
+				}
+				else if (isSuccessful(acknowledgement)) {
+					deduplicationStore.record(msg);
+				}
+				else {
+					deduplicationStore.release(msg);
+				}
+			}
+			if (fresh.size() == msgs.size()) {
+				return delivered;
+			}
+			List<Acknowledgement> acknowledgements = new ArrayList<>(msgs.size());
+			int next = 0;
+			for (Claim claim : claims) {
+				if (claim == Claim.ACQUIRED) {
+					acknowledgements.add(delivered.get(next++));
+				}
+				else {
+					acknowledgements.add(claim == Claim.DUPLICATE
+							? successfulAcknowledgement() : failedAcknowledgement());
+				}
+			}
+			return acknowledgements;
+		}
+
+		/**
+		 * Deliver the messages one by one, or as a whole in batch mode. Delivery stops at
+		 * the first failure, that message and everything after it is acknowledged as
+		 * failed so that only the failed tail is consumed again.
+		 * @return one acknowledgement per message, in the same order as msgs
+		 */
+		private List<Acknowledgement> deliver(final List<MessageExt> msgs) {
+			long startTime = System.nanoTime();
+			LongConsumer deliveryDelay = RocketMQInboundChannelAdapter.this.deliveryDelay;
+			if (deliveryDelay != null) {
+				long now = System.currentTimeMillis();
+				for (MessageExt msg : msgs) {
+					deliveryDelay.accept(Math.max(0, now - msg.getStoreTimestamp()));
+				}
+			}
+			List<Acknowledgement> acknowledgements = new ArrayList<>(msgs.size());
+			if (consumerProperties.getExtension().getBatchMode()) {
+				consume(msgs, acknowledgements);
+			}
+			else {
+				for (MessageExt msg : msgs) {
+					if (!consume(Collections.singletonList(msg), acknowledgements)) {
+						break;
+					}
+				}
+			}
+			while (acknowledgements.size() < msgs.size()) {
+				acknowledgements.add(failedAcknowledgement());
+			}
+			AdaptiveConcurrencyController controller = RocketMQInboundChannelAdapter.this.concurrencyController;
+			if (controller != null) {
+				controller.recordConsumed(msgs.size(), System.nanoTime() - startTime);
+			}
+			return acknowledgements;
+		}
 
-		Acknowledgement consumeMessage(final List<MessageExt> msgs) {
+		/**
+		 * @return true if every message was acknowledged successfully
+		 */
+		private boolean consume(final List<MessageExt> msgs,
+				List<Acknowledgement> acknowledgements) {
 			boolean enableRetry = RocketMQInboundChannelAdapter.this.retryTemplate != null;
+			List<Acknowledgement> result;
 			try {
 				if (enableRetry) {
-					return RocketMQInboundChannelAdapter.this.retryTemplate.execute(
-							(RetryCallback<Acknowledgement, Exception>) context -> doSendMsgs(
+					result = RocketMQInboundChannelAdapter.this.retryTemplate.execute(
+							(RetryCallback<List<Acknowledgement>, Exception>) context -> doSendMsgs(
 									msgs, context),
-							new RecoveryCallback<Acknowledgement>() {
-								@Override
-								public Acknowledgement recover(RetryContext context)
-										throws Exception {
-									RocketMQInboundChannelAdapter.this.recoveryCallback
-											.recover(context);
-									if (ClassUtils.isAssignable(this.getClass(),
-											MessageListenerConcurrently.class)) {
-										return Acknowledgement
-												.buildConcurrentlyInstance();
-									}
-									else {
-										return Acknowledgement.buildOrderlyInstance();
-									}
+							context -> {
+								RocketMQInboundChannelAdapter.this.recoveryCallback
+										.recover(context);
+								List<Acknowledgement> recovered = new ArrayList<>();
+								for (int i = 0; i < msgs.size(); i++) {
+									recovered.add(successfulAcknowledgement());
 								}
+								return recovered;
 							});
 				}
 				else {
-					Acknowledgement result = doSendMsgs(msgs, null);
-					Optional.ofNullable(
-							RocketMQInboundChannelAdapter.this.instrumentationManager)
-							.ifPresent(manager -> {
-								manager.getConsumerInstrumentation(
-										RocketMQInboundChannelAdapter.this.destination)
-										.markConsumed();
-							});
-					return result;
+					result = doSendMsgs(msgs, null);
+					ConsumerInstrumentation instrumentation = RocketMQInboundChannelAdapter.this.consumerInstrumentation;
+					if (instrumentation != null) {
+						instrumentation.markConsumed();
+					}
 				}
 			}
 			catch (Exception e) {
 				logger.error(
 						"RocketMQ Message hasn't been processed successfully. Caused by ",
 						e);
-				Optional.ofNullable(
-						RocketMQInboundChannelAdapter.this.instrumentationManager)
-						.ifPresent(manager -> {
-							manager.getConsumerInstrumentation(
-									RocketMQInboundChannelAdapter.this.destination)
-									.markConsumedFailure();
-						});
-				throw new RuntimeException(
-						"RocketMQ Message hasn't been processed successfully. Caused by ",
-						e);
+				if (!enableRetry) {
+					ConsumerInstrumentation instrumentation = RocketMQInboundChannelAdapter.this.consumerInstrumentation;
+					if (instrumentation != null) {
+						instrumentation.markConsumedFailure();
+					}
+				}
+				if (consumerProperties.getExtension().getNonBlockingRetry()
+						&& RocketMQInboundChannelAdapter.this.recoveryCallback != null) {
+					return retryLater(msgs, e, acknowledgements);
+				}
+				return false;
+			}
+			acknowledgements.addAll(result);
+			return result.stream().allMatch(this::isSuccessful);
+		}
+
+		/**
+		 * Give the messages back to RocketMQ with the back off delay of the attempt that
+		 * just failed, or recover them once maxAttempts is reached. Nothing sleeps on the
+		 * consume thread.
+		 * @return true if the messages were recovered
+		 */
+		private boolean retryLater(final List<MessageExt> msgs, Exception e,
+				List<Acknowledgement> acknowledgements) {
+			int attempt = 1;
+			for (MessageExt msg : msgs) {
+				attempt = Math.max(attempt, msg.getReconsumeTimes() + 1);
+			}
+			if (attempt < consumerProperties.getMaxAttempts()) {
+				double delay = consumerProperties.getBackOffInitialInterval()
+						* Math.pow(consumerProperties.getBackOffMultiplier(), attempt - 1);
+				acknowledgements.add(retryAcknowledgement((long) Math.min(delay,
+						consumerProperties.getBackOffMaxInterval())));
+				return false;
+			}
+
+			RetryContextSupport context = new RetryContextSupport(null);
+			context.registerThrowable(e);
+			if (e instanceof MessagingException
+					&& ((MessagingException) e).getFailedMessage() != null) {
+				context.setAttribute(ErrorMessageUtils.INPUT_MESSAGE_CONTEXT_KEY,
+						((MessagingException) e).getFailedMessage());
+			}
+			try {
+				RocketMQInboundChannelAdapter.this.recoveryCallback.recover(context);
+			}
+			catch (Exception recoveryException) {
+				logger.error("RocketMQ Message hasn't been recovered. Caused by ",
+						recoveryException);
+				return false;
+			}
+			for (int i = 0; i < msgs.size(); i++) {
+				acknowledgements.add(successfulAcknowledgement());
+			}
+			return true;
+		}
+
+		abstract boolean isSuccessful(Acknowledgement acknowledgement);
+
+		abstract Acknowledgement successfulAcknowledgement();
+
+		abstract Acknowledgement failedAcknowledgement();
+
+		/**
+		 * @return a failed acknowledgement that redelivers the message after delayMillis
+		 */
+		abstract Acknowledgement retryAcknowledgement(long delayMillis);
+
+		private List<Acknowledgement> doSendMsgs(final List<MessageExt> msgs,
+				RetryContext context) {
+			long startTime = System.nanoTime();
+			try {
+				return consumerProperties.getExtension().getBatchMode()
+						? doSendBatch(msgs, context)
+						: doSendEach(msgs, context);
+			}
+			finally {
+				LongConsumer consumeDuration = RocketMQInboundChannelAdapter.this.consumeDuration;
+				if (consumeDuration != null) {
+					consumeDuration.accept(System.nanoTime() - startTime);
+				}
 			}
 		}
 
-		private Acknowledgement doSendMsgs(final List<MessageExt> msgs,
+		private List<Acknowledgement> doSendEach(final List<MessageExt> msgs,
 				RetryContext context) {
 			List<Acknowledgement> acknowledgements = new ArrayList<>();
+			boolean debug = logger.isDebugEnabled();
+			RocketMQRequestReplyManager requestReplyManager = RocketMQInboundChannelAdapter.this.requestReplyManager;
 			msgs.forEach(msg -> {
+				if (debug) {
+					String retryInfo = context == null ? ""
+							: "retryCount-" + String.valueOf(context.getRetryCount())
+									+ "|";
+					logger.debug(retryInfo + "consuming msg:\n" + msg);
+				}
+				Acknowledgement acknowledgement = new Acknowledgement();
+				acknowledgements.add(acknowledgement);
+				RocketMQInboundChannelAdapter.this.sendMessage(new RocketMQInboundMessage(
+						msg, acknowledgement,
+						requestReplyManager == null ? null
+								: requestReplyManager.getReplyChannel(msg),
+						consumerProperties.getExtension().getMaxDecompressedBytes()));
+			});
+			return acknowledgements;
+		}
+
+		private List<Acknowledgement> doSendBatch(final List<MessageExt> msgs,
+				RetryContext context) {
+			if (logger.isDebugEnabled()) {
 				String retryInfo = context == null ? ""
 						: "retryCount-" + String.valueOf(context.getRetryCount()) + "|";
-				logger.debug(retryInfo + "consuming msg:\n" + msg);
-				logger.debug(retryInfo + "message body:\n" + new String(msg.getBody()));
+				logger.debug(retryInfo + "consuming batch of " + msgs.size() + " msgs");
+			}
+			List<Acknowledgement> acknowledgements = new ArrayList<>(msgs.size());
+			List<byte[]> payloads = new ArrayList<>(msgs.size());
+			List<Map<String, Object>> batchHeaders = new ArrayList<>(msgs.size());
+			int maxDecompressedBytes = consumerProperties.getExtension()
+					.getMaxDecompressedBytes();
+			for (MessageExt msg : msgs) {
 				Acknowledgement acknowledgement = new Acknowledgement();
-				Message<byte[]> toChannel = MessageBuilder.withPayload(msg.getBody())
-						.setHeaders(new RocketMQMessageHeaderAccessor()
-								.withAcknowledgment(acknowledgement)
-								.withTags(msg.getTags()).withKeys(msg.getKeys())
-								.withFlag(msg.getFlag()).withRocketMessage(msg))
-						.build();
 				acknowledgements.add(acknowledgement);
-				RocketMQInboundChannelAdapter.this.sendMessage(toChannel);
-			});
-			return acknowledgements.get(0);
+				payloads.add(PayloadCompression.decompress(msg, maxDecompressedBytes));
+				batchHeaders.add(RocketMQInboundMessage.toHeaders(msg, acknowledgement));
+			}
+			Message<List<byte[]>> toChannel = MessageBuilder.withPayload(payloads)
+					.setHeaders(new RocketMQMessageHeaderAccessor()
+							.withAcknowledgements(acknowledgements)
+							.withBatchHeaders(batchHeaders))
+					.build();
+			RocketMQInboundChannelAdapter.this.sendMessage(toChannel);
+			return acknowledgements;
 		}
 
 		@Override
 		public <T, E extends Throwable> boolean open(RetryContext context,
 				RetryCallback<T, E> callback) {
+			context.setAttribute(RETRY_START_TIME, System.nanoTime());
 			return true;
 		}
 
 		@Override
 		public <T, E extends Throwable> void close(RetryContext context,
 				RetryCallback<T, E> callback, Throwable throwable) {
+			Object retryStartTime = context.getAttribute(RETRY_START_TIME);
+			LongConsumer retryDuration = RocketMQInboundChannelAdapter.this.retryDuration;
+			if (retryDuration != null && retryStartTime != null) {
+				retryDuration.accept(System.nanoTime() - (Long) retryStartTime);
+			}
+			ConsumerInstrumentation instrumentation = RocketMQInboundChannelAdapter.this.consumerInstrumentation;
+			if (instrumentation == null) {
+				return;
+			}
 			if (throwable != null) {
-				Optional.ofNullable(
-						RocketMQInboundChannelAdapter.this.instrumentationManager)
-						.ifPresent(manager -> {
-							manager.getConsumerInstrumentation(
-									RocketMQInboundChannelAdapter.this.destination)
-									.markConsumedFailure();
-						});
+				instrumentation.markConsumedFailure();
 			}
 			else {
-				Optional.ofNullable(
-						RocketMQInboundChannelAdapter.this.instrumentationManager)
-						.ifPresent(manager -> {
-							manager.getConsumerInstrumentation(
-									RocketMQInboundChannelAdapter.this.destination)
-									.markConsumed();
-						});
+				instrumentation.markConsumed();
 			}
 		}
 
@@ -279,26 +544,270 @@ public class RocketMQInboundChannelAdapter extends MessageProducerSupport {
 	protected class CloudStreamMessageListenerConcurrently
 			extends CloudStreamMessageListener implements MessageListenerConcurrently {
 
+		/**
+		 * Messages up to the first one that isn't acknowledged as
+		 * {@link ConsumeConcurrentlyStatus#CONSUME_SUCCESS} are committed through
+		 * {@link ConsumeConcurrentlyContext#setAckIndex(int)}, the rest go back to the
+		 * broker with the delay level of that first failed acknowledgement. Deferred
+		 * messages count as consumed and are tracked by the {@link DeferredOffsetStore}.
+		 */
 		@Override
 		public ConsumeConcurrentlyStatus consumeMessage(final List<MessageExt> msgs,
 				ConsumeConcurrentlyContext context) {
-			Acknowledgement acknowledgement = consumeMessage(msgs);
-			context.setDelayLevelWhenNextConsume(
-					acknowledgement.getConsumeConcurrentlyDelayLevel());
-			return acknowledgement.getConsumeConcurrentlyStatus();
+			DeferredOffsetStore deferredOffsetStore = RocketMQInboundChannelAdapter.this.deferredOffsetStore;
+			VirtualThreadConsumeExecutor consumeExecutor = RocketMQInboundChannelAdapter.this.consumeExecutor;
+			if (consumeExecutor != null && deferredOffsetStore != null) {
+				return dispatch(msgs, context, consumeExecutor, deferredOffsetStore);
+			}
+			List<Acknowledgement> acknowledgements = consumeMessage(msgs);
+			int ackIndex = -1;
+			for (int i = 0; i < acknowledgements.size(); i++) {
+				Acknowledgement acknowledgement = acknowledgements.get(i);
+				if (deferredOffsetStore != null && acknowledgement.isDeferred()) {
+					// RocketMQ treats it as consumed, the store holds the offset back
+					try {
+						deferredOffsetStore.track(context.getMessageQueue(), msgs.get(i),
+								acknowledgement);
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						if (ackIndex < 0) {
+							return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+						}
+						context.setAckIndex(ackIndex);
+						return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+					}
+					ackIndex++;
+					continue;
+				}
+				if (acknowledgement
+						.getConsumeConcurrentlyStatus() != ConsumeConcurrentlyStatus.CONSUME_SUCCESS) {
+					context.setDelayLevelWhenNextConsume(
+							acknowledgement.getConsumeConcurrentlyDelayLevel());
+					if (ackIndex < 0) {
+						return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+					}
+					context.setAckIndex(ackIndex);
+					return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+				}
+				ackIndex++;
+			}
+			return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+		}
+
+		/**
+		 * Hand each message, or the whole batch in batch mode, to a virtual thread. The
+		 * messages are tracked as deferred before they are handed over and completed with
+		 * the outcome of the handler, so the consume thread only waits for permits.
+		 */
+		private ConsumeConcurrentlyStatus dispatch(final List<MessageExt> msgs,
+				ConsumeConcurrentlyContext context,
+				VirtualThreadConsumeExecutor consumeExecutor,
+				DeferredOffsetStore deferredOffsetStore) {
+			List<List<MessageExt>> units = consumerProperties.getExtension()
+					.getBatchMode() ? Collections.singletonList(msgs)
+							: msgs.stream().map(Collections::singletonList)
+									.collect(Collectors.toList());
+			int ackIndex = -1;
+			for (List<MessageExt> unit : units) {
+				List<Acknowledgement> deferred = new ArrayList<>(unit.size());
+				try {
+					for (MessageExt msg : unit) {
+						Acknowledgement acknowledgement = successfulAcknowledgement()
+								.defer();
+						deferredOffsetStore.track(context.getMessageQueue(), msg,
+								acknowledgement);
+						deferred.add(acknowledgement);
+					}
+					consumeExecutor.execute(() -> complete(deferred, unit));
+				}
+				catch (InterruptedException | RejectedExecutionException e) {
+					if (e instanceof InterruptedException) {
+						Thread.currentThread().interrupt();
+					}
+					// the rest of the messages, this unit included, is given back below
+					deferred.forEach(Acknowledgement::complete);
+					if (ackIndex < 0) {
+						return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+					}
+					context.setAckIndex(ackIndex);
+					return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+				}
+				ackIndex += unit.size();
+			}
+			return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+		}
+
+		private void complete(List<Acknowledgement> deferred, List<MessageExt> msgs) {
+			List<Acknowledgement> acknowledgements;
+			try {
+				acknowledgements = consumeMessage(msgs);
+			}
+			catch (RuntimeException e) {
+				logger.error("RocketMQ Message hasn't been processed successfully. "
+						+ "Caused by ", e);
+				deferred.forEach(Acknowledgement::fail);
+				return;
+			}
+			for (int i = 0; i < deferred.size(); i++) {
+				Acknowledgement acknowledgement = acknowledgements.get(i);
+				Acknowledgement target = deferred.get(i);
+				if (acknowledgement.isDeferred()) {
+					acknowledgement.getCompletion().thenAccept(success -> {
+						target.setConsumeConcurrentlyDelayLevel(
+								acknowledgement.getConsumeConcurrentlyDelayLevel());
+						if (success) {
+							target.complete();
+						}
+						else {
+							target.fail();
+						}
+					});
+				}
+				else if (isSuccessful(acknowledgement)) {
+					target.complete();
+				}
+				else {
+					target.setConsumeConcurrentlyDelayLevel(
+							acknowledgement.getConsumeConcurrentlyDelayLevel());
+					target.fail();
+				}
+			}
+		}
+
+		@Override
+		boolean isSuccessful(Acknowledgement acknowledgement) {
+			return acknowledgement
+					.getConsumeConcurrentlyStatus() == ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+		}
+
+		@Override
+		Acknowledgement successfulAcknowledgement() {
+			return Acknowledgement.buildConcurrentlyInstance();
+		}
+
+		@Override
+		Acknowledgement failedAcknowledgement() {
+			return Acknowledgement.buildConcurrentlyInstance().setConsumeConcurrentlyStatus(
+					ConsumeConcurrentlyStatus.RECONSUME_LATER);
+		}
+
+		/**
+		 * The broker only knows delay levels, the delay is rounded up to the next one.
+		 */
+		@Override
+		Acknowledgement retryAcknowledgement(long delayMillis) {
+			Acknowledgement acknowledgement = failedAcknowledgement();
+			acknowledgement.setConsumeConcurrentlyDelayLevel(
+					Acknowledgement.delayLevelFor(delayMillis));
+			return acknowledgement;
 		}
 	}
 
 	protected class CloudStreamMessageListenerOrderly extends CloudStreamMessageListener
 			implements MessageListenerOrderly {
 
+		/**
+		 * A queue can't be committed partially in order, so the first acknowledgement
+		 * that isn't {@link ConsumeOrderlyStatus#SUCCESS} decides for the whole batch.
+		 */
 		@Override
 		public ConsumeOrderlyStatus consumeMessage(List<MessageExt> msgs,
 				ConsumeOrderlyContext context) {
-			Acknowledgement acknowledgement = consumeMessage(msgs);
-			context.setSuspendCurrentQueueTimeMillis(
-					(acknowledgement.getConsumeOrderlySuspendCurrentQueueTimeMill()));
-			return acknowledgement.getConsumeOrderlyStatus();
+			ExecutorService laneExecutor = RocketMQInboundChannelAdapter.this.laneExecutor;
+			List<Acknowledgement> acknowledgements = laneExecutor != null
+					&& msgs.size() > 1 ? consumeInLanes(msgs, laneExecutor)
+							: consumeMessage(msgs);
+			for (Acknowledgement acknowledgement : acknowledgements) {
+				if (acknowledgement.getConsumeOrderlyStatus() != ConsumeOrderlyStatus.SUCCESS) {
+					context.setSuspendCurrentQueueTimeMillis(
+							acknowledgement.getConsumeOrderlySuspendCurrentQueueTimeMill());
+					return acknowledgement.getConsumeOrderlyStatus();
+				}
+			}
+			return ConsumeOrderlyStatus.SUCCESS;
+		}
+
+		/**
+		 * Messages with the same lane key keep their queue order inside their lane, the
+		 * lanes run in parallel. The queue is only committed when every lane succeeded,
+		 * otherwise the whole batch is consumed again, including the lanes that
+		 * succeeded.
+		 */
+		private List<Acknowledgement> consumeInLanes(List<MessageExt> msgs,
+				ExecutorService laneExecutor) {
+			int laneCount = consumerProperties.getExtension().getOrderlyLanes();
+			List<List<MessageExt>> lanes = new ArrayList<>(laneCount);
+			for (int i = 0; i < laneCount; i++) {
+				lanes.add(new ArrayList<>());
+			}
+			for (MessageExt msg : msgs) {
+				lanes.get(Math.floorMod(laneKey(msg).hashCode(), laneCount)).add(msg);
+			}
+
+			List<MessageExt> ownLane = null;
+			List<Future<List<Acknowledgement>>> futures = new ArrayList<>(laneCount);
+			for (List<MessageExt> lane : lanes) {
+				if (lane.isEmpty()) {
+					continue;
+				}
+				if (ownLane == null) {
+					ownLane = lane;
+				}
+				else {
+					futures.add(laneExecutor.submit(() -> consumeMessage(lane)));
+				}
+			}
+
+			List<Acknowledgement> acknowledgements = new ArrayList<>(msgs.size());
+			acknowledgements.addAll(consumeMessage(ownLane));
+			for (Future<List<Acknowledgement>> future : futures) {
+				try {
+					acknowledgements.addAll(future.get());
+				}
+				catch (ExecutionException e) {
+					logger.error("RocketMQ orderly lane hasn't been processed. Caused by ",
+							e.getCause());
+					acknowledgements.add(failedAcknowledgement());
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					acknowledgements.add(failedAcknowledgement());
+				}
+			}
+			return acknowledgements;
+		}
+
+		private String laneKey(MessageExt msg) {
+			String header = consumerProperties.getExtension().getLaneKeyHeader();
+			String key = header == null ? msg.getKeys() : msg.getUserProperty(header);
+			return key == null ? "" : key;
+		}
+
+		@Override
+		boolean isSuccessful(Acknowledgement acknowledgement) {
+			return acknowledgement.getConsumeOrderlyStatus() == ConsumeOrderlyStatus.SUCCESS;
+		}
+
+		@Override
+		Acknowledgement successfulAcknowledgement() {
+			return Acknowledgement.buildOrderlyInstance();
+		}
+
+		@Override
+		Acknowledgement failedAcknowledgement() {
+			return Acknowledgement.buildOrderlyInstance().setConsumeOrderlyStatus(
+					ConsumeOrderlyStatus.SUSPEND_CURRENT_QUEUE_A_MOMENT);
+		}
+
+		/**
+		 * The queue is suspended for the delay, RocketMQ caps it at 30 seconds.
+		 */
+		@Override
+		Acknowledgement retryAcknowledgement(long delayMillis) {
+			Acknowledgement acknowledgement = failedAcknowledgement();
+			acknowledgement.setConsumeOrderlySuspendCurrentQueueTimeMill(delayMillis);
+			return acknowledgement;
 		}
 
 	}
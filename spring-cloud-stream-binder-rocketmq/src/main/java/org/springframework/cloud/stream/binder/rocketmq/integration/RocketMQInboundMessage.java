@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.integration;
+
+import static org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.ACKNOWLEDGEMENT_KEY;
+import static org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.ORIGINAL_ROCKET_MESSAGE;
+import static org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.ROCKET_FLAG;
+
+import java.util.Map;
+
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.springframework.cloud.stream.binder.rocketmq.PayloadCompression;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQHeaderMapper;
+import org.springframework.cloud.stream.binder.rocketmq.consuming.Acknowledgement;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+
+/**
+ * Read-only message over a consumed {@link MessageExt}. The payload is the body of the
+ * RocketMQ message, decompressed if needed, and the headers are only built the first
+ * time they are read. They hold the same entries
+ * {@link org.springframework.cloud.stream.binder.rocketmq.RocketMQMessageHeaderAccessor}
+ * would have set, plus the reply channel of a request.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class RocketMQInboundMessage implements Message<byte[]> {
+
+	private final MessageExt message;
+
+	private final Acknowledgement acknowledgement;
+
+	private final MessageChannel replyChannel;
+
+	private final int maxDecompressedBytes;
+
+	private volatile byte[] payload;
+
+	private volatile MessageHeaders headers;
+
+	/**
+	 * @param acknowledgement null for replies, which are acknowledged by the binder
+	 * @param replyChannel where the handler sends its reply to a request, may be null
+	 * @param maxDecompressedBytes the most bytes a compressed body may decompress to
+	 */
+	RocketMQInboundMessage(MessageExt message, Acknowledgement acknowledgement,
+			MessageChannel replyChannel, int maxDecompressedBytes) {
+		this.message = message;
+		this.acknowledgement = acknowledgement;
+		this.replyChannel = replyChannel;
+		this.maxDecompressedBytes = maxDecompressedBytes;
+	}
+
+	@Override
+	public byte[] getPayload() {
+		byte[] payload = this.payload;
+		if (payload == null) {
+			// the body itself unless it is compressed
+			payload = PayloadCompression.decompress(message, maxDecompressedBytes);
+			this.payload = payload;
+		}
+		return payload;
+	}
+
+	@Override
+	public MessageHeaders getHeaders() {
+		MessageHeaders headers = this.headers;
+		if (headers == null) {
+			synchronized (this) {
+				headers = this.headers;
+				if (headers == null) {
+					Map<String, Object> map = toHeaders(message, acknowledgement);
+					if (replyChannel != null) {
+						map.put(MessageHeaders.REPLY_CHANNEL, replyChannel);
+					}
+					headers = new MessageHeaders(map);
+					this.headers = headers;
+				}
+			}
+		}
+		return headers;
+	}
+
+	/**
+	 * @return the user properties and binder headers of a consumed message, null values
+	 * are left out like
+	 * {@link org.springframework.messaging.support.MessageHeaderAccessor} does
+	 */
+	static Map<String, Object> toHeaders(MessageExt message,
+			Acknowledgement acknowledgement) {
+		// the binder headers win over user properties of the same name
+		Map<String, Object> headers = RocketMQHeaderMapper.DEFAULT.toHeaders(message);
+		if (acknowledgement != null) {
+			headers.put(ACKNOWLEDGEMENT_KEY, acknowledgement);
+		}
+		if (message.getTags() != null) {
+			headers.put(MessageConst.PROPERTY_TAGS, message.getTags());
+		}
+		if (message.getKeys() != null) {
+			headers.put(MessageConst.PROPERTY_KEYS, message.getKeys());
+		}
+		headers.put(ROCKET_FLAG, message.getFlag());
+		headers.put(ORIGINAL_ROCKET_MESSAGE, message);
+		return headers;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [payload=byte["
+				+ getPayload().length + "], headers=" + getHeaders() + "]";
+	}
+}
@@ -16,31 +16,56 @@
 
 package org.springframework.cloud.stream.binder.rocketmq.integration;
 
-import java.time.Instant;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
 
+import org.apache.rocketmq.client.Validators;
 import org.apache.rocketmq.client.exception.MQBrokerException;
 import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.client.producer.DefaultMQProducer;
 import org.apache.rocketmq.client.producer.LocalTransactionExecuter;
+import org.apache.rocketmq.client.producer.SendCallback;
 import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.client.producer.SendStatus;
 import org.apache.rocketmq.client.producer.TransactionCheckListener;
 import org.apache.rocketmq.client.producer.TransactionMQProducer;
 import org.apache.rocketmq.common.message.Message;
 import org.apache.rocketmq.remoting.exception.RemotingException;
+import org.springframework.cloud.stream.binder.BinderHeaders;
 import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
 import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQHeaderMapper;
 import org.springframework.cloud.stream.binder.rocketmq.RocketMQMessageHeaderAccessor;
 import org.springframework.cloud.stream.binder.rocketmq.metrics.InstrumentationManager;
 import org.springframework.cloud.stream.binder.rocketmq.metrics.ProducerInstrumentation;
+import org.springframework.cloud.stream.binder.rocketmq.producing.MessageBatchAccumulator;
+import org.springframework.cloud.stream.binder.rocketmq.producing.MessageSpool;
+import org.springframework.cloud.stream.binder.rocketmq.producing.MessageSpool.SpooledMessage;
+import org.springframework.cloud.stream.binder.rocketmq.producing.PartitionMessageQueueSelector;
+import org.springframework.cloud.stream.binder.rocketmq.producing.ProducersManager;
+import org.springframework.cloud.stream.binder.rocketmq.producing.SendFailures;
 import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQBinderConfigurationProperties;
 import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQProducerProperties;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQProducerProperties.SendType;
 import org.springframework.context.Lifecycle;
 import org.springframework.integration.handler.AbstractMessageHandler;
 import org.springframework.integration.support.MutableMessage;
+import org.springframework.messaging.MessageChannel;
 import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 /**
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
@@ -49,6 +74,12 @@ public class RocketMQMessageHandler extends AbstractMessageHandler implements Li
 
 	private DefaultMQProducer producer;
 
+	private ProducersManager producersManager;
+
+	private RocketMQRequestReplyManager requestReplyManager;
+
+	private boolean sharedProducer;
+
 	private ProducerInstrumentation producerInstrumentation;
 
 	private InstrumentationManager instrumentationManager;
@@ -57,8 +88,37 @@ public class RocketMQMessageHandler extends AbstractMessageHandler implements Li
 
 	private TransactionCheckListener transactionCheckListener;
 
+	private MessageChannel sendFailureChannel;
+
+	private MessageBatchAccumulator batchAccumulator;
+
+	private Semaphore sendWindow;
+
+	private MessageSpool spool;
+
+	private ScheduledExecutorService spoolReplayer;
+
+	/**
+	 * Spooled messages whose sender waits for a {@link SendCallback}, by spool offset.
+	 */
+	private final Map<Long, org.springframework.messaging.Message<?>> spooledMessages = new ConcurrentHashMap<>();
+
+	/**
+	 * Whether a message has reached the topic, after which a missing route means the
+	 * name server can't be reached rather than a topic that doesn't exist.
+	 */
+	private volatile boolean topicRouted;
+
+	private LongConsumer sendLatency;
+
+	private LongConsumer replyLatency;
+
+	private Map<String, Object> runtime;
+
 	private final ExtendedProducerProperties<RocketMQProducerProperties> producerProperties;
 
+	private final RocketMQHeaderMapper headerMapper;
+
 	private final String destination;
 
 	private final RocketMQBinderConfigurationProperties rocketBinderConfigurationProperties;
@@ -73,10 +133,194 @@ public class RocketMQMessageHandler extends AbstractMessageHandler implements Li
 		this.producerProperties = producerProperties;
 		this.rocketBinderConfigurationProperties = rocketBinderConfigurationProperties;
 		this.instrumentationManager = instrumentationManager;
+		this.headerMapper = new RocketMQHeaderMapper(
+				producerProperties.getExtension().getHeaderPatterns(),
+				producerProperties.getExtension().getTypedHeaders());
 	}
 
 	@Override
 	public void start() {
+		if (producersManager != null
+				&& rocketBinderConfigurationProperties.getSharedProducers()
+				&& !producerProperties.getExtension().getTransactional()) {
+			startSharedProducer();
+		}
+		else {
+			startProducer();
+		}
+
+		if (producerProperties.isPartitioned()) {
+			checkPartitionCount();
+		}
+
+		RocketMQProducerProperties extension = producerProperties.getExtension();
+		if (extension.getBatching() && !extension.getTransactional()) {
+			batchAccumulator = new MessageBatchAccumulator(destination, producer,
+					extension.getBatchMaxMessages(), extension.getBatchMaxBytes(),
+					extension.getBatchLingerMillis());
+		}
+		if (extension.getSendType() == SendType.ASYNC) {
+			sendWindow = new Semaphore(extension.getMaxInFlight());
+		}
+		running = true;
+		if (extension.getSpool() && !extension.getTransactional()) {
+			startSpool();
+		}
+	}
+
+	/**
+	 * Open the journal of the destination, replaying what a previous run left in it.
+	 */
+	private void startSpool() {
+		RocketMQProducerProperties extension = producerProperties.getExtension();
+		try {
+			spool = new MessageSpool(new File(extension.getSpoolDirectory(), destination),
+					extension.getSpoolSegmentBytes(), extension.getSpoolMaxBytes());
+		}
+		catch (IOException e) {
+			throw new MessagingException(
+					"RocketMQ spool of " + destination + " can't be opened", e);
+		}
+		if (producersManager != null) {
+			producersManager.registerSpool(destination, spool);
+		}
+		long interval = extension.getSpoolReplayIntervalMillis();
+		spoolReplayer = Executors.newSingleThreadScheduledExecutor(
+				new CustomizableThreadFactory("RocketMQSpoolReplay_" + destination + "_"));
+		spoolReplayer.scheduleWithFixedDelay(this::replaySpool, interval, interval,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Send the spooled messages in order, stopping at the first transient failure until
+	 * the next run. A message the broker rejects for good is discarded, and reported like
+	 * a failed asynchronous send if it was spooled by this handler.
+	 */
+	private void replaySpool() {
+		try {
+			SpooledMessage spooled;
+			while (running && (spooled = spool.peek()) != null) {
+				SendResult sendRes;
+				try {
+					sendRes = spooled.getRoute() != null
+							? producer.send(spooled.getMessage(),
+									PartitionMessageQueueSelector.INSTANCE,
+									spooled.getRoute())
+							: producer.send(spooled.getMessage());
+				}
+				catch (MQClientException | RemotingException | MQBrokerException e) {
+					// the topic was routed when the message was spooled
+					if (SendFailures.isTransient(e, true)) {
+						throw e;
+					}
+					spool.discard(spooled);
+					org.springframework.messaging.Message<?> message = spooledMessages
+							.remove(spooled.getOffset());
+					if (message != null) {
+						handleSendFailure(message, e);
+					}
+					else {
+						logger.error("RocketMQ spooled Message of " + destination
+								+ " has been discarded. Caused by " + e.getMessage());
+					}
+					continue;
+				}
+				spool.remove(spooled);
+				topicRouted = true;
+				if (producerInstrumentation != null) {
+					producerInstrumentation.markSent();
+				}
+				org.springframework.messaging.Message<?> message = spooledMessages
+						.remove(spooled.getOffset());
+				SendCallback callback = message != null ? getSendCallback(message) : null;
+				if (callback != null) {
+					callback.onSuccess(sendRes);
+				}
+			}
+		}
+		catch (Exception e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("RocketMQ spool of " + destination
+						+ " hasn't been replayed. Caused by " + e.getMessage());
+			}
+		}
+		finally {
+			spool.sampleReplayRate();
+		}
+	}
+
+	/**
+	 * Requests aren't spooled, their reply would time out before the broker is back, and
+	 * neither are transaction messages, whose local transaction runs with the send.
+	 */
+	private boolean isSpoolable(org.springframework.messaging.Message<?> message) {
+		return spool != null && !producerProperties.getExtension().getTransactional()
+				&& getReplyFuture(message) == null;
+	}
+
+	/**
+	 * A full spool blocks the sender for up to the send timeout, the replay frees room
+	 * as it deletes segments.
+	 * @return true if the message is in the journal, false if it is still full or the
+	 * message can never be sent
+	 */
+	private boolean spoolMessage(org.springframework.messaging.Message<?> message,
+			Message toSend, Object queueSelectorArg) {
+		try {
+			Validators.checkMessage(toSend, producer);
+			long offset = spool.append(toSend, queueSelectorArg,
+					producer.getSendMsgTimeout());
+			if (offset >= 0) {
+				if (getSendCallback(message) != null) {
+					spooledMessages.put(offset, message);
+				}
+				return true;
+			}
+			logger.warn("RocketMQ spool of " + destination + " is full");
+		}
+		catch (MQClientException | IOException e) {
+			logger.error(
+					"RocketMQ Message hasn't been spooled. Caused by " + e.getMessage());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	private void startSharedProducer() {
+		try {
+			producer = producersManager.getOrCreateProducer(destination,
+					producerProperties);
+			sharedProducer = true;
+			Optional.ofNullable(instrumentationManager).ifPresent(manager -> {
+				initInstrumentation(manager);
+				producerInstrumentation.markStartedSuccessfully();
+			});
+		}
+		catch (MQClientException e) {
+			Optional.ofNullable(instrumentationManager).ifPresent(manager -> {
+				producerInstrumentation = manager.getProducerInstrumentation(
+						destination, destination);
+				manager.addHealthInstrumentation(producerInstrumentation);
+				producerInstrumentation.markStartFailed(e);
+			});
+			logger.error(
+					"RocketMQ Message hasn't been sent. Caused by " + e.getMessage());
+			throw new MessagingException(e.getMessage(), e);
+		}
+	}
+
+	private void initInstrumentation(InstrumentationManager manager) {
+		producerInstrumentation = manager.getProducerInstrumentation(destination,
+				producer.getProducerGroup());
+		manager.addHealthInstrumentation(producerInstrumentation);
+		sendLatency = producerInstrumentation.sendLatency();
+		replyLatency = producerInstrumentation.replyLatency();
+		runtime = manager.getRuntime();
+	}
+
+	private void startProducer() {
 		if (producerProperties.getExtension().getTransactional()) {
 			producer = new TransactionMQProducer(destination);
 			if (transactionCheckListener != null) {
@@ -88,10 +332,8 @@ public class RocketMQMessageHandler extends AbstractMessageHandler implements Li
 			producer = new DefaultMQProducer(destination);
 		}
 
-		Optional.ofNullable(instrumentationManager).ifPresent(manager -> {
-			producerInstrumentation = manager.getProducerInstrumentation(destination);
-			manager.addHealthInstrumentation(producerInstrumentation);
-		});
+		Optional.ofNullable(instrumentationManager)
+				.ifPresent(this::initInstrumentation);
 
 		producer.setNamesrvAddr(rocketBinderConfigurationProperties.getNamesrvAddr());
 
@@ -112,15 +354,81 @@ public class RocketMQMessageHandler extends AbstractMessageHandler implements Li
 					"RocketMQ Message hasn't been sent. Caused by " + e.getMessage());
 			throw new MessagingException(e.getMessage(), e);
 		}
-		running = true;
+	}
+
+	/**
+	 * Partitions beyond the number of queues share queues with lower partitions, which
+	 * is legal but probably not intended.
+	 */
+	private void checkPartitionCount() {
+		try {
+			int queues = producer.fetchPublishMessageQueues(destination).size();
+			if (producerProperties.getPartitionCount() > queues) {
+				logger.warn("RocketMQ topic " + destination + " has " + queues
+						+ " queues for " + producerProperties.getPartitionCount()
+						+ " partitions, some partitions will share a queue");
+			}
+		}
+		catch (MQClientException e) {
+			logger.warn("RocketMQ topic " + destination
+					+ " queues can't be checked against the partition count. Caused by "
+					+ e.getErrorMessage());
+		}
 	}
 
 	@Override
 	public void stop() {
-		if (producer != null) {
+		running = false;
+		if (spoolReplayer != null) {
+			stopSpoolReplayer();
+		}
+		if (spool != null) {
+			spool.close();
+			if (producersManager != null) {
+				producersManager.unregisterSpool(destination);
+			}
+			MessagingException stopped = new MessagingException("RocketMQ handler of "
+					+ destination
+					+ " has been stopped, the spooled message will be sent after a restart");
+			spooledMessages.values().forEach(message -> {
+				SendCallback callback = getSendCallback(message);
+				if (callback != null) {
+					callback.onException(stopped);
+				}
+			});
+			spooledMessages.clear();
+		}
+		if (batchAccumulator != null) {
+			batchAccumulator.close();
+			batchAccumulator = null;
+		}
+		if (producer != null && sharedProducer) {
+			producersManager.releaseProducer(producer, destination);
+			sharedProducer = false;
+		}
+		else if (producer != null) {
 			producer.shutdown();
 		}
-		running = false;
+	}
+
+	/**
+	 * Wait for a replay in progress, which stops after the send it is waiting for.
+	 */
+	private void stopSpoolReplayer() {
+		spoolReplayer.shutdown();
+		try {
+			if (!spoolReplayer.awaitTermination(producer.getSendMsgTimeout() * 2L,
+					TimeUnit.MILLISECONDS)) {
+				spoolReplayer.shutdownNow();
+				spoolReplayer.awaitTermination(producer.getSendMsgTimeout(),
+						TimeUnit.MILLISECONDS);
+			}
+		}
+		catch (InterruptedException e) {
+			spoolReplayer.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		spoolReplayer = null;
 	}
 
 	@Override
@@ -131,14 +439,17 @@ public class RocketMQMessageHandler extends AbstractMessageHandler implements Li
 	@Override
 	protected void handleMessageInternal(org.springframework.messaging.Message<?> message)
 			throws Exception {
+		long startTime = System.nanoTime();
+		Message toSend = null;
+		Object queueSelectorArg = null;
+		boolean sent = false;
 		try {
-			Message toSend;
 			if (message.getPayload() instanceof byte[]) {
 				toSend = new Message(destination, (byte[]) message.getPayload());
 			}
 			else if (message.getPayload() instanceof String) {
-				toSend = new Message(destination,
-						((String) message.getPayload()).getBytes());
+				toSend = new Message(destination, ((String) message.getPayload())
+						.getBytes(StandardCharsets.UTF_8));
 			}
 			else {
 				throw new UnsupportedOperationException("Payload class isn't supported: "
@@ -151,44 +462,252 @@ public class RocketMQMessageHandler extends AbstractMessageHandler implements Li
 			toSend.setTags(headerAccessor.getTags());
 			toSend.setKeys(headerAccessor.getKeys());
 			toSend.setFlag(headerAccessor.getFlag());
-			for (Map.Entry<String, String> entry : headerAccessor.getUserProperties()
-					.entrySet()) {
-				toSend.putUserProperty(entry.getKey(), entry.getValue());
+			headerMapper.fromHeaders(message.getHeaders(), toSend);
+			producerProperties.getExtension().getCompression().compress(toSend,
+					producerProperties.getExtension().getCompressionThreshold());
+			CompletableFuture<org.springframework.messaging.Message<byte[]>> replyFuture = getReplyFuture(
+					message);
+			if (replyFuture != null) {
+				registerRequest(message, toSend, replyFuture);
 			}
 
-			SendResult sendRes;
+			queueSelectorArg = getQueueSelectorArg(message, toSend);
+			if (isSpoolable(message) && !spool.isEmpty()) {
+				// behind the spooled messages to keep the order, never ahead of them
+				if (spoolMessage(message, toSend, queueSelectorArg)) {
+					return;
+				}
+				throw sendFailed(message, new MessagingException(message,
+						"RocketMQ spool of " + destination
+								+ " has no room and the Message can't overtake it"));
+			}
 			if (producerProperties.getExtension().getTransactional()) {
-				sendRes = producer.sendMessageInTransaction(toSend,
+				SendResult sendRes = producer.sendMessageInTransaction(toSend,
 						localTransactionExecuter, headerAccessor.getTransactionalArg());
+				handleSendResult(message, sendRes, startTime);
+				putSendResult(message, sendRes);
 			}
-			else {
-				sendRes = producer.send(toSend);
+			else if (batchAccumulator != null && toSend.getDelayTimeLevel() == 0
+					&& queueSelectorArg == null) {
+				batchAccumulator.append(toSend,
+						new HandlerSendCallback(message, null, startTime));
 			}
-
-			if (!sendRes.getSendStatus().equals(SendStatus.SEND_OK)) {
-				throw new MQClientException("message hasn't been sent", null);
+			else if (sendWindow != null) {
+				acquireSendWindow();
+				HandlerSendCallback callback = new HandlerSendCallback(message,
+						sendWindow, startTime);
+				try {
+					if (queueSelectorArg != null) {
+						producer.send(toSend, PartitionMessageQueueSelector.INSTANCE,
+								queueSelectorArg, callback);
+					}
+					else {
+						producer.send(toSend, callback);
+					}
+				}
+				catch (MQClientException | RemotingException | InterruptedException e) {
+					callback.releaseWindow();
+					throw e;
+				}
 			}
-			if (message instanceof MutableMessage) {
-				RocketMQMessageHeaderAccessor.putSendResult((MutableMessage) message,
-						sendRes);
+			else if (producerProperties.getExtension()
+					.getSendType() == SendType.ONEWAY) {
+				if (queueSelectorArg != null) {
+					producer.sendOneway(toSend, PartitionMessageQueueSelector.INSTANCE,
+							queueSelectorArg);
+				}
+				else {
+					producer.sendOneway(toSend);
+				}
+				handleSendResult(message, null, startTime);
+			}
+			else {
+				SendResult sendRes = queueSelectorArg != null
+						? producer.send(toSend, PartitionMessageQueueSelector.INSTANCE,
+								queueSelectorArg)
+						: producer.send(toSend);
+				sent = true;
+				handleSendResult(message, sendRes, startTime);
+				putSendResult(message, sendRes);
 			}
-			Optional.ofNullable(instrumentationManager).ifPresent(manager -> {
-				manager.getRuntime().put(RocketMQBinderConstants.LASTSEND_TIMESTAMP,
-						Instant.now().toEpochMilli());
-			});
-			Optional.ofNullable(producerInstrumentation).ifPresent(p -> p.markSent());
 		}
 		catch (MQClientException | RemotingException | MQBrokerException
 				| InterruptedException | UnsupportedOperationException e) {
-			Optional.ofNullable(producerInstrumentation)
-					.ifPresent(p -> p.markSentFailure());
-			logger.error(
-					"RocketMQ Message hasn't been sent. Caused by " + e.getMessage());
-			throw new MessagingException(e.getMessage(), e);
+			if (!sent && toSend != null && isSpoolable(message)
+					&& SendFailures.isTransient(e, topicRouted)
+					&& spoolMessage(message, toSend, queueSelectorArg)) {
+				return;
+			}
+			throw sendFailed(message, e);
 		}
 
 	}
 
+	/**
+	 * Report a message that hasn't been sent to its callback and request.
+	 * @return the exception to throw to the sender
+	 */
+	private MessagingException sendFailed(
+			org.springframework.messaging.Message<?> message, Exception e) {
+		if (producerInstrumentation != null) {
+			producerInstrumentation.markSentFailure();
+		}
+		logger.error("RocketMQ Message hasn't been sent. Caused by " + e.getMessage());
+		SendCallback callback = getSendCallback(message);
+		if (callback != null) {
+			callback.onException(e);
+		}
+		failRequest(message, e);
+		return e instanceof MessagingException ? (MessagingException) e
+				: new MessagingException(e.getMessage(), e);
+	}
+
+	/**
+	 * @return the partition computed by Spring Cloud Stream for partitioned bindings,
+	 * the message keys if they should select the queue, or null to let the producer
+	 * pick a queue. Transaction messages always let the producer pick.
+	 */
+	private Object getQueueSelectorArg(org.springframework.messaging.Message<?> message,
+			Message toSend) {
+		Object partition = message.getHeaders().get(BinderHeaders.PARTITION_HEADER);
+		if (partition instanceof Integer) {
+			return partition;
+		}
+		if (producerProperties.getExtension().getHashByKeys()
+				&& toSend.getKeys() != null && !toSend.getKeys().isEmpty()) {
+			return toSend.getKeys();
+		}
+		return null;
+	}
+
+	private SendCallback getSendCallback(
+			org.springframework.messaging.Message<?> message) {
+		Object callback = message.getHeaders()
+				.get(RocketMQBinderConstants.ROCKET_SEND_CALLBACK);
+		return callback instanceof SendCallback ? (SendCallback) callback : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private CompletableFuture<org.springframework.messaging.Message<byte[]>> getReplyFuture(
+			org.springframework.messaging.Message<?> message) {
+		Object future = message.getHeaders()
+				.get(RocketMQBinderConstants.ROCKET_REPLY_FUTURE);
+		return future instanceof CompletableFuture
+				? (CompletableFuture<org.springframework.messaging.Message<byte[]>>) future
+				: null;
+	}
+
+	/**
+	 * Make the message a request whose reply completes replyFuture, correlated by the
+	 * correlation id header if the message has one.
+	 */
+	private void registerRequest(org.springframework.messaging.Message<?> message,
+			Message toSend,
+			CompletableFuture<org.springframework.messaging.Message<byte[]>> replyFuture) {
+		if (requestReplyManager == null) {
+			throw new MessagingException(message,
+					"RocketMQ request-reply isn't available for " + destination);
+		}
+		Object header = message.getHeaders()
+				.get(RocketMQBinderConstants.ROCKET_CORRELATION_ID);
+		String correlationId = header instanceof String ? (String) header
+				: UUID.randomUUID().toString();
+		try {
+			String replyTo = requestReplyManager.register(correlationId, replyFuture,
+					producerProperties.getExtension().getReplyTimeoutMillis(),
+					replyLatency);
+			toSend.putUserProperty(RocketMQBinderConstants.ROCKET_CORRELATION_ID,
+					correlationId);
+			toSend.putUserProperty(RocketMQBinderConstants.ROCKET_REPLY_TO, replyTo);
+		}
+		catch (MQClientException e) {
+			replyFuture.completeExceptionally(e);
+			throw new MessagingException(message, e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * A request that hasn't been sent won't be replied.
+	 */
+	private void failRequest(org.springframework.messaging.Message<?> message,
+			Throwable e) {
+		CompletableFuture<org.springframework.messaging.Message<byte[]>> replyFuture = getReplyFuture(
+				message);
+		if (replyFuture != null) {
+			replyFuture.completeExceptionally(e);
+		}
+	}
+
+	private void acquireSendWindow() throws InterruptedException, MQClientException {
+		boolean acquired = producerProperties.getExtension().getBlockWhenWindowFull()
+				? sendWindow.tryAcquire(producer.getSendMsgTimeout(),
+						TimeUnit.MILLISECONDS)
+				: sendWindow.tryAcquire();
+		if (!acquired) {
+			throw new MQClientException("message hasn't been sent, "
+					+ producerProperties.getExtension().getMaxInFlight()
+					+ " messages are already waiting for broker ack", null);
+		}
+	}
+
+	/**
+	 * @param sendRes null for oneway sends, which have no broker ack
+	 * @param startTime {@link System#nanoTime()} when the message was handed over
+	 */
+	private void handleSendResult(org.springframework.messaging.Message<?> message,
+			SendResult sendRes, long startTime) throws MQClientException {
+		if (sendRes != null && !sendRes.getSendStatus().equals(SendStatus.SEND_OK)) {
+			throw new MQClientException("message hasn't been sent", null);
+		}
+		if (sendLatency != null) {
+			sendLatency.accept(System.nanoTime() - startTime);
+		}
+		topicRouted = true;
+		if (producerInstrumentation != null) {
+			runtime.put(RocketMQBinderConstants.LASTSEND_TIMESTAMP,
+					System.currentTimeMillis());
+			producerInstrumentation.markSent();
+		}
+		SendCallback callback = getSendCallback(message);
+		if (callback != null) {
+			callback.onSuccess(sendRes);
+		}
+	}
+
+	/**
+	 * Only sends completed on the calling thread put their result in the message, the
+	 * batched and async ones complete after the caller got the message back and report
+	 * their result to the {@link SendCallback} only.
+	 */
+	private void putSendResult(org.springframework.messaging.Message<?> message,
+			SendResult sendRes) {
+		if (message instanceof MutableMessage) {
+			RocketMQMessageHeaderAccessor.putSendResult((MutableMessage) message,
+					sendRes);
+		}
+	}
+
+	/**
+	 * Report a send that failed after {@link #handleMessageInternal} has returned, the
+	 * caller can't see the exception, so it goes to the binding error channel if any.
+	 */
+	private void handleSendFailure(org.springframework.messaging.Message<?> message,
+			Throwable e) {
+		if (producerInstrumentation != null) {
+			producerInstrumentation.markSentFailure();
+		}
+		logger.error("RocketMQ Message hasn't been sent. Caused by " + e.getMessage());
+		SendCallback callback = getSendCallback(message);
+		if (callback != null) {
+			callback.onException(e);
+		}
+		failRequest(message, e);
+		if (sendFailureChannel != null) {
+			sendFailureChannel.send(new ErrorMessage(
+					new MessagingException(message, e.getMessage(), e)));
+		}
+	}
+
 	public void setLocalTransactionExecuter(
 			LocalTransactionExecuter localTransactionExecuter) {
 		this.localTransactionExecuter = localTransactionExecuter;
@@ -198,4 +717,62 @@ public class RocketMQMessageHandler extends AbstractMessageHandler implements Li
 			TransactionCheckListener transactionCheckListener) {
 		this.transactionCheckListener = transactionCheckListener;
 	}
+
+	public void setSendFailureChannel(MessageChannel sendFailureChannel) {
+		this.sendFailureChannel = sendFailureChannel;
+	}
+
+	public void setProducersManager(ProducersManager producersManager) {
+		this.producersManager = producersManager;
+	}
+
+	public void setRequestReplyManager(
+			RocketMQRequestReplyManager requestReplyManager) {
+		this.requestReplyManager = requestReplyManager;
+	}
+
+	/**
+	 * Completes a send on the callback thread. The window permit is released exactly
+	 * once, even if the client both throws and calls back for the same message.
+	 */
+	private class HandlerSendCallback implements SendCallback {
+
+		private final org.springframework.messaging.Message<?> message;
+
+		private final Semaphore window;
+
+		private final long startTime;
+
+		private final AtomicBoolean released = new AtomicBoolean(false);
+
+		HandlerSendCallback(org.springframework.messaging.Message<?> message,
+				Semaphore window, long startTime) {
+			this.message = message;
+			this.window = window;
+			this.startTime = startTime;
+		}
+
+		@Override
+		public void onSuccess(SendResult sendResult) {
+			releaseWindow();
+			try {
+				handleSendResult(message, sendResult, startTime);
+			}
+			catch (MQClientException e) {
+				handleSendFailure(message, e);
+			}
+		}
+
+		@Override
+		public void onException(Throwable e) {
+			releaseWindow();
+			handleSendFailure(message, e);
+		}
+
+		void releaseWindow() {
+			if (window != null && released.compareAndSet(false, true)) {
+				window.release();
+			}
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.integration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPullConsumer;
+import org.apache.rocketmq.client.consumer.MessageQueueListener;
+import org.apache.rocketmq.client.consumer.MessageSelector;
+import org.apache.rocketmq.client.consumer.PullResult;
+import org.apache.rocketmq.client.consumer.PullStatus;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.rocketmq.PayloadCompression;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQHeaderMapper;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQMessageHeaderAccessor;
+import org.springframework.cloud.stream.binder.rocketmq.consuming.ConsumersManager;
+import org.springframework.cloud.stream.binder.rocketmq.metrics.ConsumerInstrumentation;
+import org.springframework.cloud.stream.binder.rocketmq.metrics.InstrumentationManager;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQConsumerProperties;
+import org.springframework.context.Lifecycle;
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.integration.endpoint.AbstractMessageSource;
+import org.springframework.integration.support.AcknowledgmentCallback;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.StringUtils;
+
+/**
+ * Pull based source for pollable bindings. Messages are only fetched from the broker
+ * when the application polls, and the offset of a queue is only committed up to the
+ * lowest message that hasn't been acknowledged yet. A queue without a committed
+ * offset starts at consumeFromWhere. Polls of different queues pull concurrently, a
+ * pull holds no lock.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQMessageSource extends AbstractMessageSource<Object>
+		implements Lifecycle, MessageQueueListener {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(RocketMQMessageSource.class);
+
+	/**
+	 * how long a queue that had no new messages is skipped by the following polls
+	 */
+	private static final long EMPTY_QUEUE_BACKOFF_MILLIS = 100;
+
+	private final ConsumersManager consumersManager;
+
+	private final ExtendedConsumerProperties<RocketMQConsumerProperties> consumerProperties;
+
+	private final String destination;
+
+	private final String group;
+
+	private final InstrumentationManager instrumentationManager;
+
+	private final Map<MessageQueue, QueueState> queueStates = new ConcurrentHashMap<>();
+
+	private volatile List<MessageQueue> assignedQueues = Collections.emptyList();
+
+	private DefaultMQPullConsumer consumer;
+
+	private ConsumerInstrumentation consumerInstrumentation;
+
+	// a lost update only skews the round robin
+	private volatile int nextQueue;
+
+	private volatile boolean running = false;
+
+	public RocketMQMessageSource(ConsumersManager consumersManager,
+			ExtendedConsumerProperties<RocketMQConsumerProperties> consumerProperties,
+			String destination, String group,
+			InstrumentationManager instrumentationManager) {
+		this.consumersManager = consumersManager;
+		this.consumerProperties = consumerProperties;
+		this.destination = destination;
+		this.group = group;
+		this.instrumentationManager = instrumentationManager;
+	}
+
+	@Override
+	public String getComponentType() {
+		return "rocketmq:message-source";
+	}
+
+	@Override
+	public synchronized void start() {
+		if (running || !consumerProperties.getExtension().getEnabled()) {
+			return;
+		}
+		if (consumerProperties.getExtension().getConsumeTimestamp() != null) {
+			ConsumersManager.consumeTimestampMillis(consumerProperties.getExtension());
+		}
+		consumer = consumersManager.getOrCreatePullConsumer(group, destination,
+				consumerProperties);
+		consumer.registerMessageQueueListener(destination, this);
+
+		Optional.ofNullable(instrumentationManager).ifPresent(manager -> {
+			consumerInstrumentation = manager.getConsumerInstrumentation(destination,
+					group);
+			manager.addHealthInstrumentation(consumerInstrumentation);
+		});
+
+		try {
+			consumersManager.startConsumer(group);
+			Optional.ofNullable(consumerInstrumentation)
+					.ifPresent(c -> c.markStartedSuccessfully());
+		}
+		catch (MQClientException e) {
+			Optional.ofNullable(consumerInstrumentation)
+					.ifPresent(c -> c.markStartFailed(e));
+			logger.error(
+					"RocketMQ Consumer startup failed. Caused by " + e.getErrorMessage(),
+					e);
+			throw new RuntimeException("RocketMQ Consumer startup failed.", e);
+		}
+		running = true;
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		consumersManager.stopConsumer(group);
+		queueStates.clear();
+		assignedQueues = Collections.emptyList();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public void messageQueueChanged(String topic, Set<MessageQueue> mqAll,
+			Set<MessageQueue> mqDivided) {
+		for (Map.Entry<MessageQueue, QueueState> entry : queueStates.entrySet()) {
+			if (!mqDivided.contains(entry.getKey())) {
+				entry.getValue().drop();
+				queueStates.remove(entry.getKey());
+			}
+		}
+		for (MessageQueue mq : mqDivided) {
+			queueStates.computeIfAbsent(mq, QueueState::new);
+		}
+		assignedQueues = new ArrayList<>(mqDivided);
+		logger.info("RocketMQ pollable consumer {} of {} now owns {} queues", group,
+				topic, mqDivided.size());
+	}
+
+	@Override
+	protected Object doReceive() {
+		if (!running) {
+			return null;
+		}
+		List<MessageQueue> queues = assignedQueues;
+		for (int i = 0; i < queues.size(); i++) {
+			int index = (nextQueue + i) % queues.size();
+			QueueState state = queueStates.get(queues.get(index));
+			if (state == null) {
+				continue;
+			}
+			MessageExt msg = state.next();
+			if (msg != null) {
+				nextQueue = index + 1;
+				try {
+					return toMessage(state, msg);
+				}
+				catch (RuntimeException e) {
+					// rejected, it would hold the offset of the queue back forever
+					state.acknowledge(msg.getQueueOffset());
+					if (consumerInstrumentation != null) {
+						consumerInstrumentation.markConsumedFailure();
+					}
+					throw e;
+				}
+			}
+		}
+		return null;
+	}
+
+	private Message<byte[]> toMessage(QueueState state, MessageExt msg) {
+		return MessageBuilder
+				.withPayload(PayloadCompression.decompress(msg,
+						consumerProperties.getExtension().getMaxDecompressedBytes()))
+				.setHeaders(new RocketMQMessageHeaderAccessor().withTags(msg.getTags())
+						.withKeys(msg.getKeys()).withFlag(msg.getFlag())
+						.withRocketMessage(msg))
+				.copyHeadersIfAbsent(RocketMQHeaderMapper.DEFAULT.toHeaders(msg))
+				.setHeader(IntegrationMessageHeaderAccessor.ACKNOWLEDGMENT_CALLBACK,
+						new RocketMQAckCallback(state, msg.getQueueOffset()))
+				.build();
+	}
+
+	/**
+	 * Where a queue without a committed offset starts, as a push consumer with the same
+	 * consumeFromWhere would.
+	 */
+	private long startOffset(MessageQueue mq) throws MQClientException {
+		RocketMQConsumerProperties extension = consumerProperties.getExtension();
+		switch (extension.getConsumeFromWhere()) {
+		case CONSUME_FROM_FIRST_OFFSET:
+			return consumer.minOffset(mq);
+		case CONSUME_FROM_TIMESTAMP:
+			return consumer.searchOffset(mq,
+					ConsumersManager.consumeTimestampMillis(extension));
+		default:
+			return consumer.maxOffset(mq);
+		}
+	}
+
+	private PullResult pull(MessageQueue mq, long offset) throws Exception {
+		RocketMQConsumerProperties extension = consumerProperties.getExtension();
+		int maxNums = extension.getPullBatchSize();
+		if (!StringUtils.isEmpty(extension.getSql())) {
+			return consumer.pull(mq, MessageSelector.bySql(extension.getSql()), offset,
+					maxNums);
+		}
+		String tags = extension.getTags();
+		String subExpression = StringUtils.isEmpty(tags) ? "*"
+				: Arrays.stream(tags.split("\\|\\|")).map(String::trim)
+						.collect(Collectors.joining(" || "));
+		return consumer.pull(mq, subExpression, offset, maxNums);
+	}
+
+	/**
+	 * Pull position, buffered messages and unacknowledged offsets of one queue.
+	 */
+	private class QueueState {
+
+		private final MessageQueue mq;
+
+		private final Deque<MessageExt> buffered = new ArrayDeque<>();
+
+		private final TreeSet<Long> inFlight = new TreeSet<>();
+
+		private long pullOffset = -1;
+
+		private long nextPullTimestamp;
+
+		private boolean dropped;
+
+		private boolean pulling;
+
+		// changes when the pull offset is reset, a pull in progress is then discarded
+		private long generation;
+
+		QueueState(MessageQueue mq) {
+			this.mq = mq;
+		}
+
+		/**
+		 * @return the next buffered message, pulled from the broker outside of the lock
+		 * if there is none, or null if there is none or another poll is pulling
+		 */
+		MessageExt next() {
+			long offset;
+			long generation;
+			synchronized (this) {
+				MessageExt msg = poll();
+				if (msg != null || dropped || pulling
+						|| System.currentTimeMillis() < nextPullTimestamp) {
+					return msg;
+				}
+				pulling = true;
+				offset = pullOffset;
+				generation = this.generation;
+			}
+			PullResult result;
+			try {
+				if (offset < 0) {
+					offset = consumer.fetchConsumeOffset(mq, true);
+					if (offset < 0) {
+						offset = startOffset(mq);
+					}
+				}
+				result = pull(mq, offset);
+			}
+			catch (Exception e) {
+				synchronized (this) {
+					pulling = false;
+				}
+				logger.error("RocketMQ pull from " + mq + " failed. Caused by "
+						+ e.getMessage(), e);
+				throw new MessagingException("RocketMQ pull from " + mq + " failed.", e);
+			}
+			synchronized (this) {
+				pulling = false;
+				if (dropped || generation != this.generation) {
+					// requeued meanwhile, the pull started from a stale offset
+					return null;
+				}
+				pullOffset = result.getNextBeginOffset();
+				if (result.getPullStatus() == PullStatus.FOUND) {
+					buffered.addAll(result.getMsgFoundList());
+				}
+				if (result.getPullStatus() == PullStatus.OFFSET_ILLEGAL) {
+					commit();
+				}
+				if (buffered.isEmpty()) {
+					nextPullTimestamp = System.currentTimeMillis()
+							+ EMPTY_QUEUE_BACKOFF_MILLIS;
+				}
+				return poll();
+			}
+		}
+
+		private MessageExt poll() {
+			MessageExt msg = buffered.poll();
+			if (msg != null) {
+				inFlight.add(msg.getQueueOffset());
+			}
+			return msg;
+		}
+
+		synchronized void acknowledge(long offset) {
+			if (!dropped && inFlight.remove(offset)) {
+				commit();
+			}
+		}
+
+		/**
+		 * Fetch again from the given offset, messages after it that are still in
+		 * flight are delivered again as well.
+		 */
+		synchronized void requeue(long offset) {
+			if (dropped || !inFlight.contains(offset)) {
+				return;
+			}
+			inFlight.tailSet(offset).clear();
+			buffered.clear();
+			pullOffset = offset;
+			nextPullTimestamp = 0;
+			generation++;
+			commit();
+		}
+
+		synchronized void drop() {
+			dropped = true;
+			buffered.clear();
+			inFlight.clear();
+		}
+
+		private void commit() {
+			long offset = pullOffset;
+			if (!buffered.isEmpty()) {
+				offset = Math.min(offset, buffered.peek().getQueueOffset());
+			}
+			if (!inFlight.isEmpty()) {
+				offset = Math.min(offset, inFlight.first());
+			}
+			consumer.updateConsumeOffset(mq, offset);
+		}
+	}
+
+	private class RocketMQAckCallback implements AcknowledgmentCallback {
+
+		private final QueueState state;
+
+		private final long offset;
+
+		private volatile boolean acknowledged;
+
+		private volatile boolean autoAck = true;
+
+		RocketMQAckCallback(QueueState state, long offset) {
+			this.state = state;
+			this.offset = offset;
+		}
+
+		@Override
+		public void acknowledge(Status status) {
+			if (status == Status.REQUEUE) {
+				state.requeue(offset);
+			}
+			else {
+				// REJECT is committed as well, the failed message has already been
+				// published to the error channel of the binding
+				state.acknowledge(offset);
+			}
+			if (consumerInstrumentation != null) {
+				if (status == Status.ACCEPT) {
+					consumerInstrumentation.markConsumed();
+				}
+				else {
+					consumerInstrumentation.markConsumedFailure();
+				}
+			}
+			acknowledged = true;
+		}
+
+		@Override
+		public boolean isAcknowledged() {
+			return acknowledged;
+		}
+
+		@Override
+		public void noAutoAck() {
+			autoAck = false;
+		}
+
+		@Override
+		public boolean isAutoAck() {
+			return autoAck;
+		}
+	}
+
+}
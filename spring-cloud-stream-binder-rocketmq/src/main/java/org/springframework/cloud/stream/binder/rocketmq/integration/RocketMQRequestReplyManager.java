@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.binder.rocketmq.integration;
+
+import static org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.ROCKET_CORRELATION_ID;
+import static org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.ROCKET_REPLY_TO;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import org.apache.rocketmq.client.exception.MQBrokerException;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.consumer.ConsumeFromWhere;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.remoting.common.RemotingUtil;
+import org.apache.rocketmq.remoting.exception.RemotingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.stream.binder.rocketmq.PayloadCompression;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.Metrics.Consumer;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQHeaderMapper;
+import org.springframework.cloud.stream.binder.rocketmq.metrics.ConsumerGroupInstrumentation;
+import org.springframework.cloud.stream.binder.rocketmq.metrics.InstrumentationManager;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQBinderConfigurationProperties;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessagingException;
+import org.springframework.util.StringUtils;
+
+/**
+ * Request-reply over RocketMQ. Requests carry a correlation id and a reply-to user
+ * property naming the reply topic and the tag of this instance. One reply consumer per
+ * instance, in its own group and subscribed to that tag only, completes the futures of
+ * the pending requests, which fail with a {@link TimeoutException} when no reply
+ * comes in time. On the consumer side, requests get a reply channel that sends the
+ * return value of the handler back to the requester.
+ * <p>
+ * The reply consumer starts with the binder when the reply topic is set. Its group is
+ * named after the instance id, which should stay the same across restarts so that no
+ * group is left behind on the broker.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQRequestReplyManager implements SmartLifecycle {
+
+	private static final String GROUP_PREFIX = "scs-rocketmq-reply-";
+
+	private static final String PRODUCER_GROUP = "scs-rocketmq-reply-producer";
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final Map<String, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+
+	private final AtomicLong timeouts = new AtomicLong();
+
+	private final String instanceId;
+
+	private final RocketMQBinderConfigurationProperties rocketBinderConfigurationProperties;
+
+	private final InstrumentationManager instrumentationManager;
+
+	private DefaultMQPushConsumer replyConsumer;
+
+	private DefaultMQProducer replyProducer;
+
+	private ScheduledExecutorService scheduler;
+
+	private volatile String replyTo;
+
+	private volatile boolean running;
+
+	/**
+	 * @param instanceId tags the replies to this instance and names its reply consumer
+	 * group, see {@link #defaultInstanceId(String)}
+	 */
+	public RocketMQRequestReplyManager(
+			RocketMQBinderConfigurationProperties rocketBinderConfigurationProperties,
+			InstrumentationManager instrumentationManager, String instanceId) {
+		this.rocketBinderConfigurationProperties = rocketBinderConfigurationProperties;
+		this.instrumentationManager = instrumentationManager;
+		this.instanceId = instanceId.replaceAll("[^a-zA-Z0-9_-]", "-");
+	}
+
+	/**
+	 * @param port the server port, distinguishing the instances of a host
+	 * @return the local address and the port, or a random id if the port is random
+	 */
+	public static String defaultInstanceId(String port) {
+		if (StringUtils.isEmpty(port) || "0".equals(port)) {
+			return UUID.randomUUID().toString().replace("-", "");
+		}
+		return RemotingUtil.getLocalAddress() + "-" + port;
+	}
+
+	/**
+	 * Track a request before it is sent. The future is completed on a reply consumer
+	 * thread.
+	 * @param replyLatency accepts the nanoseconds until the reply arrived, may be null
+	 * @return the reply-to user property of the request
+	 */
+	public String register(String correlationId,
+			CompletableFuture<Message<byte[]>> future, long timeoutMillis,
+			LongConsumer replyLatency) throws MQClientException {
+		String replyTo = this.replyTo;
+		if (replyTo == null) {
+			throw new MQClientException(
+					"RocketMQ request-reply needs the replyTopic binder property and a "
+							+ "started binder",
+					null);
+		}
+		PendingRequest pending = new PendingRequest(future, replyLatency);
+		pendingRequests.put(correlationId, pending);
+		// a request failed or cancelled by the caller doesn't wait for its timeout
+		future.whenComplete((reply, e) -> pendingRequests.remove(correlationId, pending));
+		pending.timeout = scheduler.schedule(() -> {
+			if (pendingRequests.remove(correlationId, pending)) {
+				timeouts.incrementAndGet();
+				future.completeExceptionally(new TimeoutException("RocketMQ request "
+						+ correlationId + " hasn't been replied within " + timeoutMillis
+						+ "ms"));
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+		return replyTo;
+	}
+
+	/**
+	 * @return a channel sending replies to the requester of the message, or null if it
+	 * isn't a request
+	 */
+	public MessageChannel getReplyChannel(MessageExt request) {
+		String replyTo = request.getUserProperty(ROCKET_REPLY_TO);
+		String correlationId = request.getUserProperty(ROCKET_CORRELATION_ID);
+		if (replyTo == null || correlationId == null) {
+			return null;
+		}
+		return (reply, timeout) -> {
+			sendReply(replyTo, correlationId, reply);
+			return true;
+		};
+	}
+
+	public int getPendingRequests() {
+		return pendingRequests.size();
+	}
+
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	/**
+	 * Start the reply consumer if the reply topic is set.
+	 */
+	@Override
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		String replyTopic = rocketBinderConfigurationProperties.getReplyTopic();
+		if (!StringUtils.isEmpty(replyTopic)) {
+			try {
+				startReplyConsumer(replyTopic);
+			}
+			catch (MQClientException e) {
+				throw new IllegalStateException(
+						"RocketMQ reply consumer hasn't been started. Caused by "
+								+ e.getErrorMessage(),
+						e);
+			}
+			replyTo = replyTopic + ":" + instanceId;
+		}
+		running = true;
+	}
+
+	@Override
+	public void stop() {
+		shutdown();
+	}
+
+	@Override
+	public void stop(Runnable callback) {
+		stop();
+		callback.run();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return true;
+	}
+
+	/**
+	 * Before the bindings, which may send requests as soon as they are started, and
+	 * stopped after them.
+	 */
+	@Override
+	public int getPhase() {
+		return Integer.MIN_VALUE + 1000;
+	}
+
+	/**
+	 * Shut the reply consumer and producer down, the pending requests fail.
+	 */
+	public synchronized void shutdown() {
+		running = false;
+		replyTo = null;
+		if (replyConsumer != null) {
+			replyConsumer.shutdown();
+			replyConsumer = null;
+			scheduler.shutdownNow();
+		}
+		if (replyProducer != null) {
+			replyProducer.shutdown();
+			replyProducer = null;
+		}
+		List<PendingRequest> pending = new ArrayList<>(pendingRequests.values());
+		pendingRequests.clear();
+		pending.forEach(request -> request.future.completeExceptionally(
+				new IllegalStateException("RocketMQ request-reply has been shut down")));
+	}
+
+	private void startReplyConsumer(String replyTopic) throws MQClientException {
+		if (replyConsumer == null) {
+			DefaultMQPushConsumer consumer = new DefaultMQPushConsumer(
+					GROUP_PREFIX + instanceId);
+			consumer.setNamesrvAddr(rocketBinderConfigurationProperties.getNamesrvAddr());
+			// a new group only wants the replies tagged for this instance since it
+			// started, whatever the offset of the topic when it is rebalanced, replies
+			// to a previous run of the instance are dropped as they have no request
+			consumer.setConsumeFromWhere(ConsumeFromWhere.CONSUME_FROM_TIMESTAMP);
+			consumer.setConsumeTimestamp(UtilAll
+					.timeMillisToHumanString3(System.currentTimeMillis() - 60 * 1000));
+			consumer.subscribe(replyTopic, instanceId);
+			consumer.registerMessageListener((MessageListenerConcurrently) (msgs,
+					context) -> onReplies(msgs));
+			consumer.start();
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "RocketMQReplyTimeout");
+				thread.setDaemon(true);
+				return thread;
+			});
+			replyConsumer = consumer;
+			if (instrumentationManager != null) {
+				ConsumerGroupInstrumentation instrumentation = instrumentationManager
+						.getConsumerGroupInstrumentation(consumer.getConsumerGroup());
+				instrumentation.gauge(Consumer.PENDING_REQUESTS,
+						this::getPendingRequests);
+				instrumentation.gauge(Consumer.REPLY_TIMEOUTS, this::getTimeouts);
+			}
+			logger.info("RocketMQ reply consumer {} started on {}",
+					consumer.getConsumerGroup(), replyTopic);
+		}
+	}
+
+	/**
+	 * Complete the pending requests of the replies, replies without one are dropped.
+	 */
+	ConsumeConcurrentlyStatus onReplies(List<MessageExt> msgs) {
+		for (MessageExt msg : msgs) {
+			String correlationId = msg.getUserProperty(ROCKET_CORRELATION_ID);
+			PendingRequest pending = correlationId == null ? null
+					: pendingRequests.remove(correlationId);
+			if (pending == null) {
+				logger.debug("RocketMQ reply {} arrived after its request completed",
+						correlationId);
+				continue;
+			}
+			ScheduledFuture<?> timeout = pending.timeout;
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+			if (pending.replyLatency != null) {
+				pending.replyLatency.accept(System.nanoTime() - pending.startTime);
+			}
+			pending.future.complete(new RocketMQInboundMessage(msg, null, null,
+					PayloadCompression.DEFAULT_MAX_DECOMPRESSED_BYTES));
+		}
+		return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+	}
+
+	private void sendReply(String replyTo, String correlationId, Message<?> reply) {
+		byte[] body;
+		if (reply.getPayload() instanceof byte[]) {
+			body = (byte[]) reply.getPayload();
+		}
+		else if (reply.getPayload() instanceof String) {
+			body = ((String) reply.getPayload()).getBytes(StandardCharsets.UTF_8);
+		}
+		else {
+			throw new MessagingException(reply, "Reply payload class isn't supported: "
+					+ reply.getPayload().getClass());
+		}
+		int separator = replyTo.indexOf(':');
+		org.apache.rocketmq.common.message.Message toSend = separator < 0
+				? new org.apache.rocketmq.common.message.Message(replyTo, body)
+				: new org.apache.rocketmq.common.message.Message(
+						replyTo.substring(0, separator),
+						replyTo.substring(separator + 1), body);
+		RocketMQHeaderMapper.DEFAULT.fromHeaders(reply.getHeaders(), toSend);
+		toSend.putUserProperty(ROCKET_CORRELATION_ID, correlationId);
+		try {
+			SendResult sendRes = getReplyProducer().send(toSend);
+			if (sendRes.getSendStatus() != SendStatus.SEND_OK) {
+				throw new MQClientException("reply hasn't been sent", null);
+			}
+		}
+		catch (MQClientException | RemotingException | MQBrokerException
+				| InterruptedException e) {
+			throw new MessagingException(reply,
+					"RocketMQ reply hasn't been sent. Caused by " + e.getMessage(), e);
+		}
+	}
+
+	private synchronized DefaultMQProducer getReplyProducer() throws MQClientException {
+		if (replyProducer == null) {
+			DefaultMQProducer producer = new DefaultMQProducer(PRODUCER_GROUP);
+			producer.setNamesrvAddr(rocketBinderConfigurationProperties.getNamesrvAddr());
+			producer.start();
+			replyProducer = producer;
+		}
+		return replyProducer;
+	}
+
+	private static class PendingRequest {
+
+		private final CompletableFuture<Message<byte[]>> future;
+
+		private final LongConsumer replyLatency;
+
+		private final long startTime = System.nanoTime();
+
+		private volatile ScheduledFuture<?> timeout;
+
+		PendingRequest(CompletableFuture<Message<byte[]>> future,
+				LongConsumer replyLatency) {
+			this.future = future;
+			this.replyLatency = replyLatency;
+		}
+	}
+}
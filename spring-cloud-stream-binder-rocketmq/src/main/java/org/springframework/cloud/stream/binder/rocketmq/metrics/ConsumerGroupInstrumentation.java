@@ -16,18 +16,88 @@
 
 package org.springframework.cloud.stream.binder.rocketmq.metrics;
 
-import com.codahale.metrics.MetricRegistry;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
  * @author Timur Valiev
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
  */
-public class ConsumerGroupInstrumentation extends Instrumentation {
-	private MetricRegistry metricRegistry;
+public abstract class ConsumerGroupInstrumentation extends Instrumentation {
 
-	public ConsumerGroupInstrumentation(MetricRegistry metricRegistry, String name) {
+	private final String group;
+
+	private final Map<String, QueueOffset> queueOffsets = new ConcurrentHashMap<>();
+
+	private volatile long lag;
+
+	private volatile long drainDurationMillis;
+
+	private final AtomicLong abandonedMessages = new AtomicLong();
+
+	ConsumerGroupInstrumentation(String name, String group) {
 		super(name);
-		this.metricRegistry = metricRegistry;
+		this.group = group;
+	}
+
+	/**
+	 * Register a gauge under this group, replacing the one of a previous start of the
+	 * group.
+	 */
+	public abstract void gauge(String metricName, Supplier<Number> value);
+
+	/**
+	 * Replace the offsets of the queues assigned to this instance of the group.
+	 */
+	public void updateQueueOffsets(Map<String, QueueOffset> offsets) {
+		queueOffsets.keySet().retainAll(offsets.keySet());
+		queueOffsets.putAll(offsets);
+		long total = 0;
+		for (QueueOffset offset : offsets.values()) {
+			total += Math.max(0, offset.getLag());
+		}
+		lag = total;
+	}
+
+	public Map<String, QueueOffset> getQueueOffsets() {
+		return Collections.unmodifiableMap(queueOffsets);
 	}
 
+	/**
+	 * @return the lag of all the queues assigned to this instance of the group
+	 */
+	public long getLag() {
+		return lag;
+	}
+
+	/**
+	 * Record the drain of the group before it was shut down.
+	 * @param abandoned the messages still in flight when the drain timed out
+	 */
+	public void markDrained(long durationMillis, long abandoned) {
+		drainDurationMillis = durationMillis;
+		abandonedMessages.addAndGet(abandoned);
+	}
+
+	/**
+	 * @return how long the last drain took
+	 */
+	public long getDrainDurationMillis() {
+		return drainDurationMillis;
+	}
+
+	/**
+	 * @return the messages abandoned by all the drains of the group, they are consumed
+	 * again by the next consumer of their queue
+	 */
+	public long getAbandonedMessages() {
+		return abandonedMessages.get();
+	}
+
+	public String getGroup() {
+		return group;
+	}
 }
@@ -16,45 +16,50 @@
 
 package org.springframework.cloud.stream.binder.rocketmq.metrics;
 
-import static com.codahale.metrics.MetricRegistry.name;
-
-import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.Metrics.Consumer;
-
-import com.codahale.metrics.Counter;
-import com.codahale.metrics.Meter;
-import com.codahale.metrics.MetricRegistry;
+import java.util.function.LongConsumer;
 
 /**
  * @author juven.xuxb
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
  */
-public class ConsumerInstrumentation extends Instrumentation {
-
-	private final Counter totalConsumed;
-	private final Counter totalConsumedFailures;
-	private final Meter consumedPerSecond;
-	private final Meter consumedFailuresPerSecond;
-
-	public ConsumerInstrumentation(MetricRegistry registry, String baseMetricName) {
-		super(baseMetricName);
-
-		this.totalConsumed = registry
-				.counter(name(baseMetricName, Consumer.TOTAL_CONSUMED));
-		this.consumedPerSecond = registry
-				.meter(name(baseMetricName, Consumer.CONSUMED_PER_SECOND));
-		this.totalConsumedFailures = registry
-				.counter(name(baseMetricName, Consumer.TOTAL_CONSUMED_FAILURES));
-		this.consumedFailuresPerSecond = registry
-				.meter(name(baseMetricName, Consumer.CONSUMED_FAILURES_PER_SECOND));
+public abstract class ConsumerInstrumentation extends Instrumentation {
+
+	private final String destination;
+
+	private final String group;
+
+	ConsumerInstrumentation(String name, String destination, String group) {
+		super(name);
+		this.destination = destination;
+		this.group = group;
 	}
 
-	public void markConsumed() {
-		totalConsumed.inc();
-		consumedPerSecond.mark();
+	public abstract void markConsumed();
+
+	public abstract void markConsumedFailure();
+
+	/**
+	 * @return accepts the nanoseconds spent in the handler per delivery attempt
+	 */
+	public abstract LongConsumer consumeDuration();
+
+	/**
+	 * @return accepts the nanoseconds spent in the retry template, all attempts and
+	 * backoffs included
+	 */
+	public abstract LongConsumer retryDuration();
+
+	/**
+	 * @return accepts the milliseconds between the broker storing a message and the
+	 * consumer receiving it
+	 */
+	public abstract LongConsumer deliveryDelay();
+
+	public String getDestination() {
+		return destination;
 	}
 
-	public void markConsumedFailure() {
-		totalConsumedFailures.inc();
-		consumedFailuresPerSecond.mark();
+	public String getGroup() {
+		return group;
 	}
 }
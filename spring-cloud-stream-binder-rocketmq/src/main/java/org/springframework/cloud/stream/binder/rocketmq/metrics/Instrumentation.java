@@ -25,7 +25,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class Instrumentation {
 	private final String name;
 	protected final AtomicBoolean started = new AtomicBoolean(false);
-	protected Exception startException = null;
+	protected volatile Exception startException = null;
 
 	Instrumentation(String name) {
 		this.name = name;
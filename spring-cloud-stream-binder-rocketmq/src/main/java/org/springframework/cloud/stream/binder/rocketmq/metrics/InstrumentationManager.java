@@ -16,67 +16,329 @@
 
 package org.springframework.cloud.stream.binder.rocketmq.metrics;
 
-import java.util.HashMap;
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
 
 import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.Metrics.Consumer;
 import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.Metrics.Producer;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
 
 /**
+ * Instrumentations are created once per destination and group and meant to be resolved
+ * when a binding starts, recording on them doesn't go through this class. Producer and
+ * consumer instrumentations are named after their destination and group, so that the
+ * bindings of several groups to one destination neither share meters nor replace each
+ * other's health.
+ * <p>
+ * The metrics are kept in a private Dropwizard {@link MetricRegistry}, created on first
+ * use so that subclasses binding another metrics library don't need Dropwizard.
+ *
  * @author Timur Valiev
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ * @see MicrometerInstrumentationManager
  */
 public class InstrumentationManager {
 
-	private final MetricRegistry metricRegistry = new MetricRegistry();
+	private volatile MetricRegistry metricRegistry;
+
 	private final Map<String, Object> runtime = new ConcurrentHashMap<>();
 
-	private final Map<String, ProducerInstrumentation> producerInstrumentations = new HashMap<>();
-	private final Map<String, ConsumerInstrumentation> consumeInstrumentations = new HashMap<>();
-	private final Map<String, ConsumerGroupInstrumentation> consumerGroupsInstrumentations = new HashMap<>();
+	private final Map<String, ProducerInstrumentation> producerInstrumentations = new ConcurrentHashMap<>();
+	private final Map<String, ConsumerInstrumentation> consumeInstrumentations = new ConcurrentHashMap<>();
+	private final Map<String, ConsumerGroupInstrumentation> consumerGroupsInstrumentations = new ConcurrentHashMap<>();
 
-	private final Map<String, Instrumentation> healthInstrumentations = new HashMap<>();
+	private final Map<String, Instrumentation> healthInstrumentations = new ConcurrentHashMap<>();
 
-	public ProducerInstrumentation getProducerInstrumentation(String destination) {
-		String key = Producer.PREFIX + destination;
-		producerInstrumentations.putIfAbsent(key,
-				new ProducerInstrumentation(metricRegistry, key));
-		return producerInstrumentations.get(key);
+	private final Map<String, Supplier<?>> states = new ConcurrentHashMap<>();
+
+	public ProducerInstrumentation getProducerInstrumentation(String destination,
+			String group) {
+		return producerInstrumentations.computeIfAbsent(
+				Producer.PREFIX + destination + "." + group,
+				key -> createProducerInstrumentation(key, destination, group));
 	}
 
-	public ConsumerInstrumentation getConsumerInstrumentation(String destination) {
-		String key = Consumer.PREFIX + destination;
-		consumeInstrumentations.putIfAbsent(key,
-				new ConsumerInstrumentation(metricRegistry, key));
-		return consumeInstrumentations.get(key);
+	public ConsumerInstrumentation getConsumerInstrumentation(String destination,
+			String group) {
+		return consumeInstrumentations.computeIfAbsent(
+				Consumer.PREFIX + destination + "." + group,
+				key -> createConsumerInstrumentation(key, destination, group));
 	}
 
 	public ConsumerGroupInstrumentation getConsumerGroupInstrumentation(String group) {
-		String key = Consumer.GROUP_PREFIX + group;
-		consumerGroupsInstrumentations.putIfAbsent(key,
-				new ConsumerGroupInstrumentation(metricRegistry, key));
-		return consumerGroupsInstrumentations.get(key);
+		return consumerGroupsInstrumentations.computeIfAbsent(
+				Consumer.GROUP_PREFIX + group,
+				key -> createConsumerGroupInstrumentation(key, group));
 	}
 
 	public Set<Instrumentation> getHealthInstrumentations() {
-		return healthInstrumentations.entrySet().stream().map(Map.Entry::getValue)
-				.collect(Collectors.toSet());
+		return new HashSet<>(healthInstrumentations.values());
 	}
 
 	public void addHealthInstrumentation(Instrumentation instrumentation) {
 		healthInstrumentations.put(instrumentation.getName(), instrumentation);
 	}
 
+	/**
+	 * @return the queue offsets by consumer group and queue
+	 */
+	public Map<String, Map<String, QueueOffset>> getQueueOffsets() {
+		Map<String, Map<String, QueueOffset>> result = new TreeMap<>();
+		for (ConsumerGroupInstrumentation instrumentation : consumerGroupsInstrumentations
+				.values()) {
+			Map<String, QueueOffset> offsets = instrumentation.getQueueOffsets();
+			if (!offsets.isEmpty()) {
+				result.put(instrumentation.getGroup(), new TreeMap<>(offsets));
+			}
+		}
+		return result;
+	}
+
 	public Map<String, Object> getRuntime() {
 		return runtime;
 	}
 
+	/**
+	 * Publish state of the binder context, whose beans the endpoint in the application
+	 * context can't see. The state is read each time the endpoint is.
+	 * @param name the key of the state in the endpoint
+	 * @param state reads the current state
+	 */
+	public void addState(String name, Supplier<?> state) {
+		states.put(name, state);
+	}
+
+	/**
+	 * @return the current state published by {@link #addState(String, Supplier)}
+	 */
+	public Map<String, Object> getStates() {
+		Map<String, Object> result = new TreeMap<>();
+		states.forEach((name, state) -> result.put(name, state.get()));
+		return result;
+	}
+
 	public MetricRegistry getMetricRegistry() {
-		return metricRegistry;
+		MetricRegistry registry = metricRegistry;
+		if (registry == null) {
+			synchronized (this) {
+				registry = metricRegistry;
+				if (registry == null) {
+					registry = new MetricRegistry();
+					metricRegistry = registry;
+				}
+			}
+		}
+		return registry;
+	}
+
+	/**
+	 * Timers and histograms are reported as percentiles instead of their whole
+	 * reservoir, timers in milliseconds.
+	 * @return the binder metrics by name, in a form the endpoint can serialize
+	 */
+	public Map<String, Object> getMetrics() {
+		Map<String, Object> result = new TreeMap<>();
+		for (Map.Entry<String, Metric> entry : getMetricRegistry().getMetrics()
+				.entrySet()) {
+			Metric metric = entry.getValue();
+			if (metric instanceof Timer) {
+				Timer timer = (Timer) metric;
+				Map<String, Object> summary = summarize(timer.getCount(),
+						timer.getSnapshot(), TimeUnit.MILLISECONDS.toNanos(1));
+				summary.put("meanRate", timer.getMeanRate());
+				summary.put("oneMinuteRate", timer.getOneMinuteRate());
+				result.put(entry.getKey(), summary);
+			}
+			else if (metric instanceof Histogram) {
+				Histogram histogram = (Histogram) metric;
+				result.put(entry.getKey(),
+						summarize(histogram.getCount(), histogram.getSnapshot(), 1));
+			}
+			else {
+				result.put(entry.getKey(), metric);
+			}
+		}
+		return result;
+	}
+
+	private Map<String, Object> summarize(long count, Snapshot snapshot,
+			double unit) {
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("count", count);
+		summary.put("min", snapshot.getMin() / unit);
+		summary.put("max", snapshot.getMax() / unit);
+		summary.put("mean", snapshot.getMean() / unit);
+		summary.put("p50", snapshot.getMedian() / unit);
+		summary.put("p95", snapshot.get95thPercentile() / unit);
+		summary.put("p99", snapshot.get99thPercentile() / unit);
+		summary.put("p999", snapshot.get999thPercentile() / unit);
+		return summary;
+	}
+
+	protected ProducerInstrumentation createProducerInstrumentation(String name,
+			String destination, String group) {
+		return new DropwizardProducerInstrumentation(getMetricRegistry(), name,
+				destination, group);
+	}
+
+	protected ConsumerInstrumentation createConsumerInstrumentation(String name,
+			String destination, String group) {
+		return new DropwizardConsumerInstrumentation(getMetricRegistry(), name,
+				destination, group);
+	}
+
+	protected ConsumerGroupInstrumentation createConsumerGroupInstrumentation(
+			String name, String group) {
+		return new DropwizardConsumerGroupInstrumentation(getMetricRegistry(), name,
+				group);
+	}
+
+	private static LongConsumer nanos(Timer timer) {
+		return value -> timer.update(value, TimeUnit.NANOSECONDS);
+	}
+
+	private static class DropwizardProducerInstrumentation
+			extends ProducerInstrumentation {
+
+		private final Counter totalSent;
+		private final Counter totalSentFailures;
+		private final Meter sentPerSecond;
+		private final Meter sentFailuresPerSecond;
+		private final LongConsumer sendLatency;
+		private final LongConsumer replyLatency;
+
+		DropwizardProducerInstrumentation(MetricRegistry registry,
+				String baseMetricName, String destination, String group) {
+			super(baseMetricName, destination, group);
+
+			this.totalSent = registry.counter(name(baseMetricName, Producer.TOTAL_SENT));
+			this.totalSentFailures = registry
+					.counter(name(baseMetricName, Producer.TOTAL_SENT_FAILURES));
+			this.sentPerSecond = registry
+					.meter(name(baseMetricName, Producer.SENT_PER_SECOND));
+			this.sentFailuresPerSecond = registry
+					.meter(name(baseMetricName, Producer.SENT_FAILURES_PER_SECOND));
+			this.sendLatency = nanos(registry
+					.timer(name(baseMetricName, Producer.SEND_LATENCY)));
+			this.replyLatency = nanos(registry
+					.timer(name(baseMetricName, Producer.REPLY_LATENCY)));
+		}
+
+		@Override
+		public void markSent() {
+			totalSent.inc();
+			sentPerSecond.mark();
+		}
+
+		@Override
+		public void markSentFailure() {
+			totalSentFailures.inc();
+			sentFailuresPerSecond.mark();
+		}
+
+		@Override
+		public LongConsumer sendLatency() {
+			return sendLatency;
+		}
+
+		@Override
+		public LongConsumer replyLatency() {
+			return replyLatency;
+		}
+	}
+
+	private static class DropwizardConsumerInstrumentation
+			extends ConsumerInstrumentation {
+
+		private final Counter totalConsumed;
+		private final Counter totalConsumedFailures;
+		private final Meter consumedPerSecond;
+		private final Meter consumedFailuresPerSecond;
+		private final LongConsumer consumeDuration;
+		private final LongConsumer retryDuration;
+		private final LongConsumer deliveryDelay;
+
+		DropwizardConsumerInstrumentation(MetricRegistry registry,
+				String baseMetricName, String destination, String group) {
+			super(baseMetricName, destination, group);
+
+			this.totalConsumed = registry
+					.counter(name(baseMetricName, Consumer.TOTAL_CONSUMED));
+			this.consumedPerSecond = registry
+					.meter(name(baseMetricName, Consumer.CONSUMED_PER_SECOND));
+			this.totalConsumedFailures = registry
+					.counter(name(baseMetricName, Consumer.TOTAL_CONSUMED_FAILURES));
+			this.consumedFailuresPerSecond = registry
+					.meter(name(baseMetricName, Consumer.CONSUMED_FAILURES_PER_SECOND));
+			this.consumeDuration = nanos(registry
+					.timer(name(baseMetricName, Consumer.CONSUME_DURATION)));
+			this.retryDuration = nanos(registry
+					.timer(name(baseMetricName, Consumer.RETRY_DURATION)));
+			this.deliveryDelay = registry.histogram(
+					name(baseMetricName, Consumer.DELIVERY_DELAY))::update;
+		}
+
+		@Override
+		public void markConsumed() {
+			totalConsumed.inc();
+			consumedPerSecond.mark();
+		}
+
+		@Override
+		public void markConsumedFailure() {
+			totalConsumedFailures.inc();
+			consumedFailuresPerSecond.mark();
+		}
+
+		@Override
+		public LongConsumer consumeDuration() {
+			return consumeDuration;
+		}
+
+		@Override
+		public LongConsumer retryDuration() {
+			return retryDuration;
+		}
+
+		@Override
+		public LongConsumer deliveryDelay() {
+			return deliveryDelay;
+		}
+	}
+
+	private static class DropwizardConsumerGroupInstrumentation
+			extends ConsumerGroupInstrumentation {
+
+		private final MetricRegistry metricRegistry;
+
+		DropwizardConsumerGroupInstrumentation(MetricRegistry metricRegistry,
+				String name, String group) {
+			super(name, group);
+			this.metricRegistry = metricRegistry;
+		}
+
+		@Override
+		public void gauge(String metricName, Supplier<Number> value) {
+			String fullName = name(getName(), metricName);
+			metricRegistry.remove(fullName);
+			metricRegistry.register(fullName, (Gauge<Number>) value::get);
+		}
 	}
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.metrics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Registers the binder metrics in the application {@link MeterRegistry}, tagged with
+ * destination and group, so they are exported like any other Micrometer meter. The
+ * inherited {@link #getMetricRegistry() Dropwizard registry} stays empty.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class MicrometerInstrumentationManager extends InstrumentationManager {
+
+	public static final String METRIC_PREFIX = "rocketmq.binder.";
+
+	private static final String TAG_DESTINATION = "destination";
+
+	private static final String TAG_GROUP = "group";
+
+	private static final double[] PERCENTILES = { 0.5, 0.95, 0.99 };
+
+	private final MeterRegistry meterRegistry;
+
+	public MicrometerInstrumentationManager(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	@Override
+	public Map<String, Object> getMetrics() {
+		Map<String, Object> result = new TreeMap<>();
+		for (Meter meter : meterRegistry.getMeters()) {
+			Meter.Id id = meter.getId();
+			if (!id.getName().startsWith(METRIC_PREFIX)) {
+				continue;
+			}
+			Map<String, Object> measurements = new LinkedHashMap<>();
+			for (Measurement measurement : meter.measure()) {
+				measurements.put(measurement.getStatistic().name().toLowerCase(),
+						measurement.getValue());
+			}
+			result.put(id.getName() + id.getTags().stream()
+					.map(tag -> tag.getKey() + "=" + tag.getValue())
+					.collect(Collectors.joining(",", "{", "}")), measurements);
+		}
+		return result;
+	}
+
+	@Override
+	protected ProducerInstrumentation createProducerInstrumentation(String name,
+			String destination, String group) {
+		return new MicrometerProducerInstrumentation(meterRegistry, name, destination,
+				group);
+	}
+
+	@Override
+	protected ConsumerInstrumentation createConsumerInstrumentation(String name,
+			String destination, String group) {
+		return new MicrometerConsumerInstrumentation(meterRegistry, name, destination,
+				group);
+	}
+
+	@Override
+	protected ConsumerGroupInstrumentation createConsumerGroupInstrumentation(
+			String name, String group) {
+		return new MicrometerConsumerGroupInstrumentation(meterRegistry, name, group);
+	}
+
+	private static Timer timer(MeterRegistry registry, String name, List<Tag> tags) {
+		return Timer.builder(METRIC_PREFIX + name).tags(tags)
+				.publishPercentiles(PERCENTILES).register(registry);
+	}
+
+	private static List<Tag> tags(String destination, String group) {
+		return Arrays.asList(Tag.of(TAG_DESTINATION, destination),
+				Tag.of(TAG_GROUP, group));
+	}
+
+	private static LongConsumer nanos(Timer timer) {
+		return value -> timer.record(value, TimeUnit.NANOSECONDS);
+	}
+
+	private static class MicrometerProducerInstrumentation
+			extends ProducerInstrumentation {
+
+		private final Counter sent;
+		private final Counter sentFailures;
+		private final LongConsumer sendLatency;
+		private final LongConsumer replyLatency;
+
+		MicrometerProducerInstrumentation(MeterRegistry registry, String name,
+				String destination, String group) {
+			super(name, destination, group);
+			List<Tag> tags = tags(destination, group);
+			this.sent = registry.counter(METRIC_PREFIX + "producer.sent", tags);
+			this.sentFailures = registry
+					.counter(METRIC_PREFIX + "producer.sent.failures", tags);
+			this.sendLatency = nanos(timer(registry, "producer.send.latency", tags));
+			this.replyLatency = nanos(timer(registry, "producer.reply.latency", tags));
+		}
+
+		@Override
+		public void markSent() {
+			sent.increment();
+		}
+
+		@Override
+		public void markSentFailure() {
+			sentFailures.increment();
+		}
+
+		@Override
+		public LongConsumer sendLatency() {
+			return sendLatency;
+		}
+
+		@Override
+		public LongConsumer replyLatency() {
+			return replyLatency;
+		}
+	}
+
+	private static class MicrometerConsumerInstrumentation
+			extends ConsumerInstrumentation {
+
+		private final Counter consumed;
+		private final Counter consumedFailures;
+		private final LongConsumer consumeDuration;
+		private final LongConsumer retryDuration;
+		private final LongConsumer deliveryDelay;
+
+		MicrometerConsumerInstrumentation(MeterRegistry registry, String name,
+				String destination, String group) {
+			super(name, destination, group);
+			List<Tag> tags = tags(destination, group);
+			this.consumed = registry.counter(METRIC_PREFIX + "consumer.consumed", tags);
+			this.consumedFailures = registry
+					.counter(METRIC_PREFIX + "consumer.consumed.failures", tags);
+			this.consumeDuration = nanos(
+					timer(registry, "consumer.consume.duration", tags));
+			this.retryDuration = nanos(timer(registry, "consumer.retry.duration", tags));
+			DistributionSummary deliveryDelay = DistributionSummary
+					.builder(METRIC_PREFIX + "consumer.delivery.delay").tags(tags)
+					.baseUnit("milliseconds").publishPercentiles(PERCENTILES)
+					.register(registry);
+			this.deliveryDelay = deliveryDelay::record;
+		}
+
+		@Override
+		public void markConsumed() {
+			consumed.increment();
+		}
+
+		@Override
+		public void markConsumedFailure() {
+			consumedFailures.increment();
+		}
+
+		@Override
+		public LongConsumer consumeDuration() {
+			return consumeDuration;
+		}
+
+		@Override
+		public LongConsumer retryDuration() {
+			return retryDuration;
+		}
+
+		@Override
+		public LongConsumer deliveryDelay() {
+			return deliveryDelay;
+		}
+	}
+
+	/**
+	 * Micrometer keeps gauges for the life of the registry and only weakly references
+	 * what they measure, so each gauge reads a holder that a restarted group re-points.
+	 */
+	private static class MicrometerConsumerGroupInstrumentation
+			extends ConsumerGroupInstrumentation {
+
+		private final MeterRegistry meterRegistry;
+
+		private final Map<String, AtomicReference<Supplier<Number>>> gauges = new ConcurrentHashMap<>();
+
+		MicrometerConsumerGroupInstrumentation(MeterRegistry meterRegistry, String name,
+				String group) {
+			super(name, group);
+			this.meterRegistry = meterRegistry;
+		}
+
+		@Override
+		public void gauge(String metricName, Supplier<Number> value) {
+			gauges.computeIfAbsent(metricName, key -> {
+				AtomicReference<Supplier<Number>> holder = new AtomicReference<>();
+				Gauge.builder(METRIC_PREFIX + "consumer.group." + key, holder,
+						h -> h.get() == null ? Double.NaN
+								: h.get().get().doubleValue())
+						.tag(TAG_GROUP, getGroup()).register(meterRegistry);
+				return holder;
+			}).set(value);
+		}
+	}
+}
@@ -16,44 +16,46 @@
 
 package org.springframework.cloud.stream.binder.rocketmq.metrics;
 
-import static com.codahale.metrics.MetricRegistry.name;
-
-import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants.Metrics.Producer;
-
-import com.codahale.metrics.Counter;
-import com.codahale.metrics.Meter;
-import com.codahale.metrics.MetricRegistry;
+import java.util.function.LongConsumer;
 
 /**
  * @author juven.xuxb
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
  */
-public class ProducerInstrumentation extends Instrumentation {
-
-	private final Counter totalSent;
-	private final Counter totalSentFailures;
-	private final Meter sentPerSecond;
-	private final Meter sentFailuresPerSecond;
-
-	public ProducerInstrumentation(MetricRegistry registry, String baseMetricName) {
-		super(baseMetricName);
-
-		this.totalSent = registry.counter(name(baseMetricName, Producer.TOTAL_SENT));
-		this.totalSentFailures = registry
-				.counter(name(baseMetricName, Producer.TOTAL_SENT_FAILURES));
-		this.sentPerSecond = registry
-				.meter(name(baseMetricName, Producer.SENT_PER_SECOND));
-		this.sentFailuresPerSecond = registry
-				.meter(name(baseMetricName, Producer.SENT_FAILURES_PER_SECOND));
+public abstract class ProducerInstrumentation extends Instrumentation {
+
+	private final String destination;
+
+	private final String group;
+
+	ProducerInstrumentation(String name, String destination, String group) {
+		super(name);
+		this.destination = destination;
+		this.group = group;
 	}
 
-	public void markSent() {
-		totalSent.inc();
-		sentPerSecond.mark();
+	public abstract void markSent();
+
+	public abstract void markSentFailure();
+
+	/**
+	 * @return accepts the nanoseconds from handing a message to the producer until the
+	 * broker acked it, including the time spent in a batch or waiting for an async send
+	 * window
+	 */
+	public abstract LongConsumer sendLatency();
+
+	/**
+	 * @return accepts the nanoseconds from registering a request until its reply
+	 * arrived
+	 */
+	public abstract LongConsumer replyLatency();
+
+	public String getDestination() {
+		return destination;
 	}
 
-	public void markSentFailure() {
-		totalSentFailures.inc();
-		sentFailuresPerSecond.mark();
+	public String getGroup() {
+		return group;
 	}
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.metrics;
+
+/**
+ * Offsets of a message queue as seen by a consumer group.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class QueueOffset {
+
+	private final long brokerOffset;
+
+	private final long consumerOffset;
+
+	private final long lag;
+
+	private final long lastConsumeTimestamp;
+
+	public QueueOffset(long brokerOffset, long consumerOffset,
+			long lastConsumeTimestamp) {
+		this.brokerOffset = brokerOffset;
+		this.consumerOffset = consumerOffset;
+		this.lag = consumerOffset < 0 ? -1 : Math.max(0, brokerOffset - consumerOffset);
+		this.lastConsumeTimestamp = lastConsumeTimestamp;
+	}
+
+	/**
+	 * @return the offset the broker will give to the next message of the queue
+	 */
+	public long getBrokerOffset() {
+		return brokerOffset;
+	}
+
+	/**
+	 * @return the offset the group will commit, -1 if it has none yet
+	 */
+	public long getConsumerOffset() {
+		return consumerOffset;
+	}
+
+	/**
+	 * @return messages of the queue the group hasn't consumed yet, -1 if unknown
+	 */
+	public long getLag() {
+		return lag;
+	}
+
+	public long getLastConsumeTimestamp() {
+		return lastConsumeTimestamp;
+	}
+}
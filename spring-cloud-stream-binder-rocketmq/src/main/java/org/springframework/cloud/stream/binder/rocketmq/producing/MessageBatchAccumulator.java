@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.producing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects messages of one destination and sends them as a {@link MessageBatch} when
+ * the count threshold, the size threshold or the linger timeout is reached. A linger of
+ * 0 or less sends every message right away, in a batch of its own. Each message of a
+ * batch gets its own {@link SendResult}, with its message ids and queue offset, on its
+ * {@link SendCallback}.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class MessageBatchAccumulator {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(MessageBatchAccumulator.class);
+
+	/**
+	 * fixed part of a message in the batch encoding: total size, magic code, body crc,
+	 * flag, body length and properties length
+	 */
+	private static final int MESSAGE_OVERHEAD = 22;
+
+	private final String destination;
+
+	private final DefaultMQProducer producer;
+
+	private final int maxMessages;
+
+	private final int maxBytes;
+
+	private final long lingerMillis;
+
+	private final ScheduledThreadPoolExecutor scheduler;
+
+	private Batch current = new Batch();
+
+	public MessageBatchAccumulator(String destination, DefaultMQProducer producer,
+			int maxMessages, int maxBytes, long lingerMillis) {
+		this.destination = destination;
+		this.producer = producer;
+		this.maxMessages = maxMessages;
+		this.maxBytes = maxBytes;
+		this.lingerMillis = lingerMillis;
+		this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "RocketMQBatchLinger_" + destination);
+			thread.setDaemon(true);
+			return thread;
+		});
+		// close flushes the batch the pending linger is waiting for
+		scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/**
+	 * Flush what is still buffered and stop the linger timer.
+	 */
+	public void close() {
+		scheduler.shutdown();
+		flush();
+	}
+
+	public void append(Message message, SendCallback callback) {
+		int size = estimateSize(message);
+		Batch full = null;
+		Batch overflow = null;
+		synchronized (this) {
+			if (!current.isEmpty() && current.bytes + size > maxBytes) {
+				overflow = drain();
+			}
+			if (current.isEmpty() && lingerMillis > 0) {
+				scheduleLinger(current);
+			}
+			current.add(message, callback, size);
+			if (current.messages.size() >= maxMessages || current.bytes >= maxBytes
+					|| lingerMillis <= 0) {
+				full = drain();
+			}
+		}
+		if (overflow != null) {
+			send(overflow);
+		}
+		if (full != null) {
+			send(full);
+		}
+	}
+
+	public void flush() {
+		Batch batch;
+		synchronized (this) {
+			if (current.isEmpty()) {
+				return;
+			}
+			batch = drain();
+		}
+		send(batch);
+	}
+
+	/**
+	 * Send the batch lingerMillis after its first message, unless it has been sent
+	 * already.
+	 */
+	private void scheduleLinger(Batch batch) {
+		try {
+			scheduler.schedule(() -> flushIfCurrent(batch), lingerMillis,
+					TimeUnit.MILLISECONDS);
+		}
+		catch (RejectedExecutionException e) {
+			// closed, close flushes what is left
+		}
+	}
+
+	private void flushIfCurrent(Batch batch) {
+		synchronized (this) {
+			if (current != batch || current.isEmpty()) {
+				return;
+			}
+			drain();
+		}
+		send(batch);
+	}
+
+	private Batch drain() {
+		Batch batch = current;
+		current = new Batch();
+		return batch;
+	}
+
+	private void send(Batch batch) {
+		try {
+			SendResult sendRes = producer.send(batch.messages);
+			if (!sendRes.getSendStatus().equals(SendStatus.SEND_OK)) {
+				batch.fail(new MQClientException("message hasn't been sent", null));
+				return;
+			}
+			batch.succeed(sendRes);
+		}
+		catch (Exception e) {
+			logger.error("RocketMQ batch of " + batch.messages.size()
+					+ " messages to " + destination + " hasn't been sent. Caused by "
+					+ e.getMessage());
+			batch.fail(e);
+		}
+	}
+
+	static int estimateSize(Message message) {
+		int size = MESSAGE_OVERHEAD + message.getBody().length;
+		Map<String, String> properties = message.getProperties();
+		if (properties != null) {
+			for (Map.Entry<String, String> entry : properties.entrySet()) {
+				// name, value and the two separators
+				size += utf8Length(entry.getKey()) + utf8Length(entry.getValue()) + 2;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return the encoded length of the properties, without encoding them
+	 */
+	private static int utf8Length(String value) {
+		int length = value.length();
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c >= 0x800) {
+				// a surrogate pair takes 4 bytes, 2 for each half
+				length += Character.isSurrogate(c) ? 1 : 2;
+			}
+			else if (c >= 0x80) {
+				length++;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * @return the result of the message at index in a batch, the broker returns the
+	 * ids of the messages of a batch joined by commas and the queue offset of the first
+	 * one
+	 */
+	static SendResult resultOf(SendResult batchResult, int index) {
+		SendResult result = new SendResult(batchResult.getSendStatus(),
+				idAt(batchResult.getMsgId(), index),
+				idAt(batchResult.getOffsetMsgId(), index),
+				batchResult.getMessageQueue(), batchResult.getQueueOffset() + index);
+		result.setTransactionId(batchResult.getTransactionId());
+		return result;
+	}
+
+	private static String idAt(String ids, int index) {
+		if (ids == null) {
+			return null;
+		}
+		String[] split = ids.split(",");
+		return index < split.length ? split[index] : null;
+	}
+
+	private static class Batch {
+
+		private final List<Message> messages = new ArrayList<>();
+
+		private final List<SendCallback> callbacks = new ArrayList<>();
+
+		private int bytes;
+
+		boolean isEmpty() {
+			return messages.isEmpty();
+		}
+
+		void add(Message message, SendCallback callback, int size) {
+			messages.add(message);
+			callbacks.add(callback);
+			bytes += size;
+		}
+
+		void succeed(SendResult sendResult) {
+			for (int i = 0; i < callbacks.size(); i++) {
+				callbacks.get(i).onSuccess(resultOf(sendResult, i));
+			}
+		}
+
+		void fail(Throwable e) {
+			for (SendCallback callback : callbacks) {
+				callback.onException(e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,515 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.producing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageDecoder;
+
+/**
+ * Append-only journal of the messages a producer couldn't send, kept in memory-mapped
+ * segment files of a fixed size so that they survive a restart and are replayed in
+ * order. The read position is kept in a checkpoint file and a segment is deleted once
+ * it has been replayed. Appends may come from any thread, the replay from a single
+ * one.
+ * <p>
+ * A record is an int length followed by the route of the message, its flag, topic,
+ * properties and body. The length is written last, a zero length marks the end of the
+ * journal and -1 the end of a segment.
+ * <p>
+ * The segments are unmapped when they are deleted and when the spool is closed, the
+ * spool can't be used after {@link #close()}.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class MessageSpool {
+
+	private static final String SEGMENT_SUFFIX = ".spool";
+
+	private static final String CHECKPOINT = "checkpoint";
+
+	private static final int END_OF_SEGMENT = -1;
+
+	private static final byte ROUTE_NONE = 0;
+
+	private static final byte ROUTE_PARTITION = 1;
+
+	private static final byte ROUTE_KEYS = 2;
+
+	private final File directory;
+
+	private final int segmentBytes;
+
+	private final long maxBytes;
+
+	private final Deque<Segment> segments = new ArrayDeque<>();
+
+	private final MappedByteBuffer checkpoint;
+
+	private long writeOffset;
+
+	private long readOffset;
+
+	private long depth;
+
+	private long appended;
+
+	private long replayed;
+
+	private long discarded;
+
+	private boolean closed;
+
+	private long lastSampleReplayed;
+
+	private long lastSampleTime = System.currentTimeMillis();
+
+	private double replayPerSecond;
+
+	public MessageSpool(File directory, int segmentBytes, long maxBytes)
+			throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("RocketMQ spool directory " + directory
+					+ " can't be created");
+		}
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		this.maxBytes = maxBytes;
+		try (RandomAccessFile file = new RandomAccessFile(
+				new File(directory, CHECKPOINT), "rw")) {
+			checkpoint = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+		}
+		recover();
+	}
+
+	/**
+	 * Open the existing segments, find the end of the last one and count the records
+	 * left to replay.
+	 */
+	private void recover() throws IOException {
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+		Arrays.sort(files);
+		for (File file : files) {
+			String name = file.getName();
+			segments.addLast(openSegment(
+					Long.parseLong(name.substring(0,
+							name.length() - SEGMENT_SUFFIX.length()))));
+		}
+		if (segments.isEmpty()) {
+			segments.addLast(openSegment(0));
+		}
+		readOffset = Math.max(checkpoint.getLong(0), segments.peekFirst().base);
+		writeOffset = readOffset;
+		while (true) {
+			Segment segment = segmentOf(writeOffset);
+			if (segment == null) {
+				break;
+			}
+			int position = (int) (writeOffset - segment.base);
+			int length = position + 4 <= segmentBytes ? segment.buffer.getInt(position)
+					: END_OF_SEGMENT;
+			if (length == 0) {
+				break;
+			}
+			if (length == END_OF_SEGMENT || position + 4 + length > segmentBytes) {
+				if (segment == segments.peekLast()) {
+					segments.addLast(openSegment(segment.base + segmentBytes));
+				}
+				writeOffset = segment.base + segmentBytes;
+				continue;
+			}
+			writeOffset += 4 + length;
+			depth++;
+		}
+	}
+
+	private Segment openSegment(long base) throws IOException {
+		File file = new File(directory, String.format("%020d", base) + SEGMENT_SUFFIX);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			return new Segment(base, file, raf.getChannel()
+					.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+		}
+	}
+
+	private Segment segmentOf(long offset) {
+		for (Segment segment : segments) {
+			if (offset >= segment.base && offset < segment.base + segmentBytes) {
+				return segment;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param route the partition or keys selecting the queue of the message, null if
+	 * the producer picks the queue
+	 * @return the offset of the record, which {@link SpooledMessage#getOffset()} returns
+	 * when it is read back, or -1 if the record doesn't fit in the spool or the spool is
+	 * closed
+	 */
+	public synchronized long append(Message message, Object route)
+			throws IOException {
+		if (closed) {
+			return -1;
+		}
+		Record record = new Record(message, route);
+		return record.fitsInSegment() ? append(record) : -1;
+	}
+
+	/**
+	 * Like {@link #append(Message, Object)}, but if the spool is full wait for the
+	 * replay to delete a segment.
+	 * @param timeoutMillis how long to wait for room in the spool
+	 * @return the offset of the record, or -1 if there is still no room after the
+	 * timeout, the record is larger than a segment or the spool is closed
+	 */
+	public synchronized long append(Message message, Object route, long timeoutMillis)
+			throws IOException, InterruptedException {
+		if (closed) {
+			return -1;
+		}
+		Record record = new Record(message, route);
+		if (!record.fitsInSegment()) {
+			return -1;
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		long offset;
+		while ((offset = append(record)) < 0 && !closed) {
+			long remaining = TimeUnit.NANOSECONDS
+					.toMillis(deadline - System.nanoTime());
+			if (remaining <= 0) {
+				break;
+			}
+			wait(remaining);
+		}
+		return offset;
+	}
+
+	private long append(Record record) throws IOException {
+		if (closed) {
+			return -1;
+		}
+		// room for the record and the end of segment marker
+		boolean roll = remaining() < 4 + record.length + 4;
+		if (roll && getDiskBytes() + segmentBytes > maxBytes) {
+			return -1;
+		}
+		if (roll) {
+			Segment last = segments.peekLast();
+			last.buffer.putInt((int) (writeOffset - last.base), END_OF_SEGMENT);
+			segments.addLast(openSegment(last.base + segmentBytes));
+			writeOffset = last.base + segmentBytes;
+		}
+		Segment segment = segments.peekLast();
+		int position = (int) (writeOffset - segment.base);
+		MappedByteBuffer buffer = segment.buffer;
+		buffer.position(position + 4);
+		buffer.put(record.route instanceof Integer ? ROUTE_PARTITION
+				: record.route != null ? ROUTE_KEYS : ROUTE_NONE);
+		buffer.putInt(record.route instanceof Integer ? (Integer) record.route : 0);
+		buffer.putInt(record.flag);
+		buffer.putShort((short) record.topic.length).put(record.topic);
+		buffer.putInt(record.properties.length).put(record.properties);
+		buffer.putInt(record.body.length).put(record.body);
+		// the record becomes visible with its length
+		buffer.putInt(position, record.length);
+		long offset = writeOffset;
+		writeOffset += 4 + record.length;
+		depth++;
+		appended++;
+		return offset;
+	}
+
+	private int remaining() {
+		return (int) (segments.peekLast().base + segmentBytes - writeOffset);
+	}
+
+	/**
+	 * @return the oldest record, or null if everything has been replayed
+	 */
+	public synchronized SpooledMessage peek() {
+		while (!closed && readOffset < writeOffset) {
+			Segment segment = segmentOf(readOffset);
+			int position = (int) (readOffset - segment.base);
+			int length = position + 4 <= segmentBytes ? segment.buffer.getInt(position)
+					: END_OF_SEGMENT;
+			if (length == END_OF_SEGMENT) {
+				releaseSegment(segment);
+				continue;
+			}
+			return read(segment, readOffset, position + 4, length);
+		}
+		return null;
+	}
+
+	private SpooledMessage read(Segment segment, long offset, int position,
+			int length) {
+		ByteBuffer buffer = segment.buffer.duplicate();
+		buffer.position(position);
+		byte route = buffer.get();
+		int partition = buffer.getInt();
+		int flag = buffer.getInt();
+		byte[] topic = new byte[buffer.getShort()];
+		buffer.get(topic);
+		byte[] properties = new byte[buffer.getInt()];
+		buffer.get(properties);
+		byte[] body = new byte[buffer.getInt()];
+		buffer.get(body);
+		Message message = new Message(new String(topic, StandardCharsets.UTF_8), body);
+		message.setFlag(flag);
+		MessageAccessor.setProperties(message, MessageDecoder
+				.string2messageProperties(new String(properties, StandardCharsets.UTF_8)));
+		Object routeArg = route == ROUTE_PARTITION ? Integer.valueOf(partition)
+				: route == ROUTE_KEYS ? message.getKeys() : null;
+		return new SpooledMessage(message, routeArg, offset, 4 + length);
+	}
+
+	/**
+	 * Move past a record returned by {@link #peek()} once it has been sent.
+	 */
+	public synchronized void remove(SpooledMessage message) {
+		if (skip(message)) {
+			replayed++;
+		}
+	}
+
+	/**
+	 * Move past a record returned by {@link #peek()} that can never be sent.
+	 */
+	public synchronized void discard(SpooledMessage message) {
+		if (skip(message)) {
+			discarded++;
+		}
+	}
+
+	private boolean skip(SpooledMessage message) {
+		if (closed || message.offset != readOffset) {
+			return false;
+		}
+		readOffset += message.recordBytes;
+		checkpoint.putLong(0, readOffset);
+		depth--;
+		return true;
+	}
+
+	private void releaseSegment(Segment segment) {
+		readOffset = segment.base + segmentBytes;
+		checkpoint.putLong(0, readOffset);
+		if (segment != segments.peekLast()) {
+			segments.remove(segment);
+			unmap(segment.buffer);
+			segment.file.delete();
+			// room for the appends waiting for it
+			notifyAll();
+		}
+	}
+
+	public synchronized boolean isEmpty() {
+		return depth == 0;
+	}
+
+	public synchronized long getDepth() {
+		return depth;
+	}
+
+	public synchronized long getDiskBytes() {
+		return (long) segments.size() * segmentBytes;
+	}
+
+	/**
+	 * @return the records replayed per second since the previous call
+	 */
+	public synchronized double sampleReplayRate() {
+		long now = System.currentTimeMillis();
+		if (now > lastSampleTime) {
+			replayPerSecond = (replayed - lastSampleReplayed) * 1000.0
+					/ (now - lastSampleTime);
+			lastSampleReplayed = replayed;
+			lastSampleTime = now;
+		}
+		return replayPerSecond;
+	}
+
+	public synchronized Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("directory", directory.getPath());
+		stats.put("depth", depth);
+		stats.put("diskBytes", getDiskBytes());
+		stats.put("appended", appended);
+		stats.put("replayed", replayed);
+		stats.put("discarded", discarded);
+		stats.put("replayPerSecond", replayPerSecond);
+		return stats;
+	}
+
+	/**
+	 * Flush the segments and the checkpoint to disk and unmap them.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		for (Segment segment : segments) {
+			segment.buffer.force();
+			unmap(segment.buffer);
+		}
+		segments.clear();
+		checkpoint.force();
+		unmap(checkpoint);
+		notifyAll();
+	}
+
+	/**
+	 * Release the mapping now instead of when the buffer is garbage collected, through
+	 * {@code Unsafe.invokeCleaner} on Java 9 and later and the buffer cleaner on Java 8.
+	 * The buffer must not be used afterwards.
+	 */
+	static void unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner",
+					ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		}
+		catch (NoSuchMethodException e) {
+			// Java 8, see below
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			return;
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			// left to the garbage collector
+		}
+	}
+
+	/**
+	 * A message encoded for the journal.
+	 */
+	private class Record {
+
+		private final Object route;
+
+		private final int flag;
+
+		private final byte[] topic;
+
+		private final byte[] properties;
+
+		private final byte[] body;
+
+		private final int length;
+
+		Record(Message message, Object route) {
+			this.route = route;
+			this.flag = message.getFlag();
+			this.topic = message.getTopic().getBytes(StandardCharsets.UTF_8);
+			this.properties = message.getProperties() == null ? new byte[0]
+					: MessageDecoder.messageProperties2String(message.getProperties())
+							.getBytes(StandardCharsets.UTF_8);
+			this.body = message.getBody() == null ? new byte[0] : message.getBody();
+			this.length = 1 + 4 + 4 + 2 + topic.length + 4 + properties.length + 4
+					+ body.length;
+		}
+
+		boolean fitsInSegment() {
+			return 4 + length + 4 <= segmentBytes;
+		}
+	}
+
+	/**
+	 * A message read back from the spool with the partition or keys selecting its queue.
+	 */
+	public static class SpooledMessage {
+
+		private final Message message;
+
+		private final Object route;
+
+		private final long offset;
+
+		private final int recordBytes;
+
+		SpooledMessage(Message message, Object route, long offset, int recordBytes) {
+			this.message = message;
+			this.route = route;
+			this.offset = offset;
+			this.recordBytes = recordBytes;
+		}
+
+		/**
+		 * @return the offset {@link MessageSpool#append} returned for the record
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		public Message getMessage() {
+			return message;
+		}
+
+		/**
+		 * @return the queue selector arg of the message, null if the producer picks the
+		 * queue
+		 */
+		public Object getRoute() {
+			return route;
+		}
+	}
+
+	private static class Segment {
+
+		private final long base;
+
+		private final File file;
+
+		private final MappedByteBuffer buffer;
+
+		Segment(long base, File file, MappedByteBuffer buffer) {
+			this.base = base;
+			this.file = file;
+			this.buffer = buffer;
+		}
+	}
+}
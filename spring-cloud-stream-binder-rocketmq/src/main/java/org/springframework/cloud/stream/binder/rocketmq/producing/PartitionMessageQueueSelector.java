@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.producing;
+
+import java.util.List;
+
+import org.apache.rocketmq.client.producer.MessageQueueSelector;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageQueue;
+
+/**
+ * Maps a Spring Cloud Stream partition, or the hash of the message keys, onto one of the
+ * queues of the topic. The same argument always selects the same queue as long as the
+ * number of queues doesn't change. Partitions beyond the number of queues wrap around.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class PartitionMessageQueueSelector implements MessageQueueSelector {
+
+	public static final PartitionMessageQueueSelector INSTANCE = new PartitionMessageQueueSelector();
+
+	/**
+	 * @param arg the partition index, or any other object whose hash code selects the
+	 * queue
+	 */
+	@Override
+	public MessageQueue select(List<MessageQueue> mqs, Message msg, Object arg) {
+		int index = arg instanceof Integer ? (Integer) arg : arg.hashCode();
+		return mqs.get(Math.floorMod(index, mqs.size()));
+	}
+
+}
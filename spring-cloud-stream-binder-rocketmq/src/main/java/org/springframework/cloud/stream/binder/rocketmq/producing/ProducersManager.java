@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.producing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQBinderConfigurationProperties;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQProducerProperties;
+
+/**
+ * Started producers shared by the non-transactional output bindings with the same
+ * name server and producer settings. A producer is shut down when the last binding
+ * using it releases it.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ProducersManager {
+
+	private static final String GROUP_PREFIX = "scs-rocketmq-shared-";
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private final Map<String, SharedProducer> producers = new HashMap<>();
+
+	private final AtomicInteger sequence = new AtomicInteger();
+
+	private final Map<String, MessageSpool> spools = new ConcurrentHashMap<>();
+
+	private final RocketMQBinderConfigurationProperties rocketBinderConfigurationProperties;
+
+	public ProducersManager(
+			RocketMQBinderConfigurationProperties rocketBinderConfigurationProperties) {
+		this.rocketBinderConfigurationProperties = rocketBinderConfigurationProperties;
+	}
+
+	/**
+	 * @return a started producer for the destination, shared with the other bindings
+	 * using the same settings
+	 */
+	public synchronized DefaultMQProducer getOrCreateProducer(String destination,
+			ExtendedProducerProperties<RocketMQProducerProperties> producerProperties)
+			throws MQClientException {
+		if (producerProperties.getExtension().getTransactional()) {
+			throw new IllegalArgumentException(
+					"RocketMQ transactional producers can't be shared");
+		}
+		String namesrvAddr = rocketBinderConfigurationProperties.getNamesrvAddr();
+		int maxMessageSize = producerProperties.getExtension().getMaxMessageSize();
+		String key = namesrvAddr + "|" + maxMessageSize;
+		SharedProducer shared = producers.get(key);
+		if (shared == null) {
+			// groups are unique within a client, two keys never share one
+			DefaultMQProducer producer = new DefaultMQProducer(
+					GROUP_PREFIX + sequence.getAndIncrement());
+			producer.setNamesrvAddr(namesrvAddr);
+			if (maxMessageSize > 0) {
+				producer.setMaxMessageSize(maxMessageSize);
+			}
+			producer.start();
+			shared = new SharedProducer(producer, namesrvAddr);
+			producers.put(key, shared);
+			logger.info("RocketMQ shared producer {} created",
+					producer.getProducerGroup());
+		}
+		shared.destinations.add(destination);
+		shared.references++;
+		return shared.producer;
+	}
+
+	/**
+	 * Release a producer obtained from {@link #getOrCreateProducer}, shutting it down
+	 * once no binding uses it.
+	 */
+	public synchronized void releaseProducer(DefaultMQProducer producer,
+			String destination) {
+		producers.entrySet().removeIf(entry -> {
+			SharedProducer shared = entry.getValue();
+			if (shared.producer != producer) {
+				return false;
+			}
+			if (--shared.references > 0) {
+				shared.destinations.remove(destination);
+				return false;
+			}
+			shared.producer.shutdown();
+			logger.info("RocketMQ shared producer {} shut down",
+					producer.getProducerGroup());
+			return true;
+		});
+	}
+
+	/**
+	 * @return the group, name server, settings and destinations of each shared producer
+	 */
+	public synchronized List<Map<String, Object>> getProducers() {
+		List<Map<String, Object>> result = new ArrayList<>();
+		for (SharedProducer shared : producers.values()) {
+			Map<String, Object> producer = new LinkedHashMap<>();
+			producer.put("group", shared.producer.getProducerGroup());
+			producer.put("namesrvAddr", shared.namesrvAddr);
+			producer.put("maxMessageSize", shared.producer.getMaxMessageSize());
+			producer.put("references", shared.references);
+			producer.put("destinations", new ArrayList<>(shared.destinations));
+			result.add(producer);
+		}
+		return result;
+	}
+
+	/**
+	 * Show the spool of a destination in the binder endpoint.
+	 */
+	public void registerSpool(String destination, MessageSpool spool) {
+		spools.put(destination, spool);
+	}
+
+	public void unregisterSpool(String destination) {
+		spools.remove(destination);
+	}
+
+	/**
+	 * @return the depth, disk usage and replay rate of the spool of each destination
+	 */
+	public Map<String, Map<String, Object>> getSpools() {
+		Map<String, Map<String, Object>> result = new HashMap<>();
+		spools.forEach((destination, spool) -> result.put(destination, spool.getStats()));
+		return result;
+	}
+
+	private static class SharedProducer {
+
+		private final DefaultMQProducer producer;
+
+		private final String namesrvAddr;
+
+		/**
+		 * destinations of the bindings using the producer, one entry per binding
+		 */
+		private final List<String> destinations = new ArrayList<>();
+
+		private int references;
+
+		SharedProducer(DefaultMQProducer producer, String namesrvAddr) {
+			this.producer = producer;
+			this.namesrvAddr = namesrvAddr;
+		}
+	}
+}
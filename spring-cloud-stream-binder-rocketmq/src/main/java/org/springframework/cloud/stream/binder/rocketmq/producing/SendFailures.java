@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.binder.rocketmq.producing;
+
+import org.apache.rocketmq.client.common.ClientErrorCode;
+import org.apache.rocketmq.client.exception.MQBrokerException;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.remoting.exception.RemotingConnectException;
+import org.apache.rocketmq.remoting.exception.RemotingSendRequestException;
+import org.apache.rocketmq.remoting.exception.RemotingTimeoutException;
+import org.apache.rocketmq.remoting.exception.RemotingTooMuchRequestException;
+
+/**
+ * Tells the send failures that go away once the name server or the broker can be
+ * reached again from those that fail the same way on every attempt, such as a message
+ * the broker rejects or a missing permission.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public abstract class SendFailures {
+
+	/**
+	 * @param topicRouted whether the topic has been routed before, the client reports a
+	 * name server it can't reach the same way as a topic that doesn't exist
+	 * @return true if sending again later may succeed
+	 */
+	public static boolean isTransient(Throwable failure, boolean topicRouted) {
+		for (Throwable e = failure; e != null; e = e.getCause() == e ? null
+				: e.getCause()) {
+			if (e instanceof RemotingConnectException
+					|| e instanceof RemotingTimeoutException
+					|| e instanceof RemotingSendRequestException
+					|| e instanceof RemotingTooMuchRequestException) {
+				return true;
+			}
+			if (e instanceof MQBrokerException
+					&& isTransientResponse(((MQBrokerException) e).getResponseCode())) {
+				return true;
+			}
+			if (e instanceof MQClientException) {
+				int code = ((MQClientException) e).getResponseCode();
+				if (code == ClientErrorCode.CONNECT_BROKER_EXCEPTION
+						|| code == ClientErrorCode.ACCESS_BROKER_TIMEOUT
+						|| code == ClientErrorCode.BROKER_NOT_EXIST_EXCEPTION
+						|| (code == ClientErrorCode.NOT_FOUND_TOPIC_EXCEPTION
+								&& topicRouted)
+						|| isTransientResponse(code)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean isTransientResponse(int code) {
+		return code == ResponseCode.SYSTEM_BUSY
+				|| code == ResponseCode.SERVICE_NOT_AVAILABLE;
+	}
+
+}
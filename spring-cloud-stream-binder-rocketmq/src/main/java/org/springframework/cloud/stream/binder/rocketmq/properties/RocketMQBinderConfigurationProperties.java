@@ -29,6 +29,54 @@ public class RocketMQBinderConfigurationProperties {
 
 	private String logLevel = "ERROR";
 
+	/**
+	 * how often the broker and consumer offsets of the assigned queues are collected
+	 * for the binder metrics, 0 disables the collection
+	 */
+	private Long offsetCollectIntervalMillis = 10000L;
+
+	/**
+	 * let the non-transactional output bindings with the same producer settings share
+	 * one started producer instead of starting one per destination
+	 */
+	private Boolean sharedProducers = false;
+
+	/**
+	 * start the consumer groups bound during the application startup concurrently once
+	 * the context is refreshed, instead of one by one while binding
+	 */
+	private Boolean parallelStartup = false;
+
+	/**
+	 * maximum number of consumer groups starting at the same time
+	 */
+	private Integer startupThreads = 8;
+
+	/**
+	 * with parallelStartup, how long the context refresh waits for the consumer groups
+	 * to be started before it fails, 0 waits until they are started or failed
+	 */
+	private Long awaitReadyTimeoutMillis = 0L;
+
+	/**
+	 * topic the replies to requests are sent to, request-reply is unavailable when it
+	 * isn't set
+	 */
+	private String replyTopic;
+
+	/**
+	 * id of this instance among the ones sharing the reply topic, it names the reply
+	 * consumer group and should stay the same across restarts. Defaults to the local
+	 * address and server port
+	 */
+	private String replyInstanceId;
+
+	/**
+	 * how long a reactive consumer waits before polling its binding again when it had
+	 * no message
+	 */
+	private Long reactiveIdleMillis = 100L;
+
 	public String getNamesrvAddr() {
 		return namesrvAddr;
 	}
@@ -45,4 +93,67 @@ public class RocketMQBinderConfigurationProperties {
 		this.logLevel = logLevel;
 	}
 
+	public Long getOffsetCollectIntervalMillis() {
+		return offsetCollectIntervalMillis;
+	}
+
+	public void setOffsetCollectIntervalMillis(Long offsetCollectIntervalMillis) {
+		this.offsetCollectIntervalMillis = offsetCollectIntervalMillis;
+	}
+
+	public Boolean getSharedProducers() {
+		return sharedProducers;
+	}
+
+	public void setSharedProducers(Boolean sharedProducers) {
+		this.sharedProducers = sharedProducers;
+	}
+
+	public Boolean getParallelStartup() {
+		return parallelStartup;
+	}
+
+	public void setParallelStartup(Boolean parallelStartup) {
+		this.parallelStartup = parallelStartup;
+	}
+
+	public Integer getStartupThreads() {
+		return startupThreads;
+	}
+
+	public void setStartupThreads(Integer startupThreads) {
+		this.startupThreads = startupThreads;
+	}
+
+	public Long getAwaitReadyTimeoutMillis() {
+		return awaitReadyTimeoutMillis;
+	}
+
+	public void setAwaitReadyTimeoutMillis(Long awaitReadyTimeoutMillis) {
+		this.awaitReadyTimeoutMillis = awaitReadyTimeoutMillis;
+	}
+
+	public String getReplyTopic() {
+		return replyTopic;
+	}
+
+	public void setReplyTopic(String replyTopic) {
+		this.replyTopic = replyTopic;
+	}
+
+	public String getReplyInstanceId() {
+		return replyInstanceId;
+	}
+
+	public void setReplyInstanceId(String replyInstanceId) {
+		this.replyInstanceId = replyInstanceId;
+	}
+
+	public Long getReactiveIdleMillis() {
+		return reactiveIdleMillis;
+	}
+
+	public void setReactiveIdleMillis(Long reactiveIdleMillis) {
+		this.reactiveIdleMillis = reactiveIdleMillis;
+	}
 }
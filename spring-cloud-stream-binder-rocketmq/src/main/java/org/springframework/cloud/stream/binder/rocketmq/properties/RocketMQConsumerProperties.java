@@ -16,11 +16,15 @@
 
 package org.springframework.cloud.stream.binder.rocketmq.properties;
 
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
 import org.apache.rocketmq.client.consumer.MQPushConsumer;
 import org.apache.rocketmq.client.consumer.MessageSelector;
 import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
 import org.apache.rocketmq.client.consumer.listener.MessageListenerOrderly;
+import org.apache.rocketmq.common.consumer.ConsumeFromWhere;
 import org.apache.rocketmq.common.protocol.heartbeat.MessageModel;
+import org.springframework.cloud.stream.binder.rocketmq.PayloadCompression;
+import org.springframework.cloud.stream.binder.rocketmq.consuming.Acknowledgement;
 
 /**
  * @author Timur Valiev
@@ -44,6 +48,18 @@ public class RocketMQConsumerProperties {
 	 */
 	private Boolean broadcasting = false;
 
+	/**
+	 * where a group without a committed offset starts, for message driven and pollable
+	 * bindings {@link DefaultMQPushConsumer#consumeFromWhere}
+	 */
+	private ConsumeFromWhere consumeFromWhere = ConsumeFromWhere.CONSUME_FROM_LAST_OFFSET;
+
+	/**
+	 * start of {@link ConsumeFromWhere#CONSUME_FROM_TIMESTAMP} as yyyyMMddHHmmss, half
+	 * an hour ago if not set {@link DefaultMQPushConsumer#consumeTimestamp}
+	 */
+	private String consumeTimestamp;
+
 	/**
 	 * if orderly is true, using {@link MessageListenerOrderly} else if orderly if false,
 	 * using {@link MessageListenerConcurrently}
@@ -52,6 +68,136 @@ public class RocketMQConsumerProperties {
 
 	private Boolean enabled = true;
 
+	/**
+	 * max number of messages handed to the listener at once
+	 * {@link DefaultMQPushConsumer#consumeMessageBatchMaxSize}
+	 */
+	private Integer consumeMessageBatchMaxSize = 1;
+
+	/**
+	 * if batchMode is true, the messages handed to the listener are delivered as one
+	 * Message&lt;List&lt;byte[]&gt;&gt;, the headers and the acknowledgement of each element
+	 * are in the ROCKETMQ_BATCH_HEADERS and ACKNOWLEDGEMENTS headers
+	 */
+	private Boolean batchMode = false;
+
+	/**
+	 * max number of messages fetched from a queue per pull request
+	 * {@link DefaultMQPushConsumer#pullBatchSize}, also used by pollable bindings
+	 */
+	private Integer pullBatchSize = 32;
+
+	/**
+	 * when maxAttempts &gt; 1, give a failed message back to RocketMQ with a delay
+	 * computed from the binding back off instead of retrying on the consume thread. The
+	 * attempt is read from the reconsume times of the message
+	 */
+	private Boolean nonBlockingRetry = false;
+
+	/**
+	 * orderly only: split the messages handed to the listener into this many lanes by
+	 * key and consume the lanes in parallel, messages with the same key stay in order.
+	 * With more than one lane, at least pullBatchSize messages are handed to the
+	 * listener at once
+	 */
+	private Integer orderlyLanes = 1;
+
+	/**
+	 * user property holding the key of the orderly lanes, the message keys if not set
+	 */
+	private String laneKeyHeader;
+
+	/**
+	 * resize the consume thread pool between minConcurrency and maxConcurrency from
+	 * the broker lag (or the local backlog) and the processing latency, instead of
+	 * pinning it to the concurrency binding property
+	 */
+	private Boolean adaptiveConcurrency = false;
+
+	private Integer minConcurrency = 1;
+
+	private Integer maxConcurrency = 64;
+
+	/**
+	 * how often the adaptive controller looks at the consumer
+	 */
+	private Integer adaptiveIntervalMillis = 5000;
+
+	/**
+	 * let the adaptive controller also tune pullBatchSize up to maxPullBatchSize and
+	 * {@link DefaultMQPushConsumer#pullThresholdForQueue} down to
+	 * minPullThresholdForQueue
+	 */
+	private Boolean adaptivePull = false;
+
+	private Integer maxPullBatchSize = 256;
+
+	private Integer minPullThresholdForQueue = 100;
+
+	/**
+	 * concurrent only: let handlers defer the {@link Acknowledgement} of a message and
+	 * complete it later from another thread. The offset of a queue isn't committed past
+	 * its lowest message still outstanding
+	 */
+	private Boolean deferredAcknowledgement = false;
+
+	/**
+	 * maximum number of deferred messages not completed yet, the consume threads block
+	 * when it is reached
+	 */
+	private Integer maxOutstanding = 1000;
+
+	/**
+	 * concurrent only: hand each message, or the whole batch in batch mode, from the
+	 * consume threads to a new virtual thread and defer its acknowledgement. Needs JDK
+	 * 21 or later, the consume thread pool is used as before on older JVMs
+	 */
+	private Boolean virtualThreads = false;
+
+	/**
+	 * maximum number of virtual threads consuming at the same time, bounded by
+	 * maxOutstanding as well
+	 */
+	private Integer virtualThreadConcurrency = 1000;
+
+	/**
+	 * when the binding stops, suspend pulling and wait at most this many milliseconds
+	 * for the messages already pulled and the deferred acknowledgements before the
+	 * consumer is shut down, 0 shuts it down right away
+	 */
+	private Integer drainTimeoutMillis = 0;
+
+	/**
+	 * message driven bindings only: drop the messages already consumed successfully
+	 * within deduplicationWindowMillis before they reach the channel, such as the
+	 * redeliveries caused by rebalances or by the retry of a whole batch
+	 */
+	private Boolean deduplication = false;
+
+	/**
+	 * {@link DeduplicationKey#MSG_ID} identifies messages by their id,
+	 * {@link DeduplicationKey#KEYS} by their keys, messages without keys are never
+	 * dropped
+	 */
+	private DeduplicationKey deduplicationKey = DeduplicationKey.MSG_ID;
+
+	/**
+	 * maximum number of messages remembered, the oldest ones are evicted first. Each
+	 * one takes 32 bytes off-heap
+	 */
+	private Integer deduplicationMaxEntries = 100000;
+
+	/**
+	 * how long a consumed message is remembered
+	 */
+	private Long deduplicationWindowMillis = 10 * 60 * 1000L;
+
+	/**
+	 * most bytes a compressed message body may decompress to, larger ones fail to
+	 * convert
+	 */
+	private Integer maxDecompressedBytes = PayloadCompression.DEFAULT_MAX_DECOMPRESSED_BYTES;
+
 	public String getTags() {
 		return tags;
 	}
@@ -91,4 +237,208 @@ public class RocketMQConsumerProperties {
 	public void setBroadcasting(Boolean broadcasting) {
 		this.broadcasting = broadcasting;
 	}
+
+	public ConsumeFromWhere getConsumeFromWhere() {
+		return consumeFromWhere;
+	}
+
+	public void setConsumeFromWhere(ConsumeFromWhere consumeFromWhere) {
+		this.consumeFromWhere = consumeFromWhere;
+	}
+
+	public String getConsumeTimestamp() {
+		return consumeTimestamp;
+	}
+
+	public void setConsumeTimestamp(String consumeTimestamp) {
+		this.consumeTimestamp = consumeTimestamp;
+	}
+
+	public Integer getConsumeMessageBatchMaxSize() {
+		return consumeMessageBatchMaxSize;
+	}
+
+	public void setConsumeMessageBatchMaxSize(Integer consumeMessageBatchMaxSize) {
+		this.consumeMessageBatchMaxSize = consumeMessageBatchMaxSize;
+	}
+
+	public Boolean getBatchMode() {
+		return batchMode;
+	}
+
+	public void setBatchMode(Boolean batchMode) {
+		this.batchMode = batchMode;
+	}
+
+	public Integer getPullBatchSize() {
+		return pullBatchSize;
+	}
+
+	public void setPullBatchSize(Integer pullBatchSize) {
+		this.pullBatchSize = pullBatchSize;
+	}
+
+	public Boolean getAdaptiveConcurrency() {
+		return adaptiveConcurrency;
+	}
+
+	public void setAdaptiveConcurrency(Boolean adaptiveConcurrency) {
+		this.adaptiveConcurrency = adaptiveConcurrency;
+	}
+
+	public Integer getMinConcurrency() {
+		return minConcurrency;
+	}
+
+	public void setMinConcurrency(Integer minConcurrency) {
+		this.minConcurrency = minConcurrency;
+	}
+
+	public Integer getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	public void setMaxConcurrency(Integer maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	public Integer getAdaptiveIntervalMillis() {
+		return adaptiveIntervalMillis;
+	}
+
+	public void setAdaptiveIntervalMillis(Integer adaptiveIntervalMillis) {
+		this.adaptiveIntervalMillis = adaptiveIntervalMillis;
+	}
+
+	public Boolean getAdaptivePull() {
+		return adaptivePull;
+	}
+
+	public void setAdaptivePull(Boolean adaptivePull) {
+		this.adaptivePull = adaptivePull;
+	}
+
+	public Integer getMaxPullBatchSize() {
+		return maxPullBatchSize;
+	}
+
+	public void setMaxPullBatchSize(Integer maxPullBatchSize) {
+		this.maxPullBatchSize = maxPullBatchSize;
+	}
+
+	public Integer getMinPullThresholdForQueue() {
+		return minPullThresholdForQueue;
+	}
+
+	public void setMinPullThresholdForQueue(Integer minPullThresholdForQueue) {
+		this.minPullThresholdForQueue = minPullThresholdForQueue;
+	}
+
+	public Integer getOrderlyLanes() {
+		return orderlyLanes;
+	}
+
+	public void setOrderlyLanes(Integer orderlyLanes) {
+		this.orderlyLanes = orderlyLanes;
+	}
+
+	public String getLaneKeyHeader() {
+		return laneKeyHeader;
+	}
+
+	public void setLaneKeyHeader(String laneKeyHeader) {
+		this.laneKeyHeader = laneKeyHeader;
+	}
+
+	public Boolean getNonBlockingRetry() {
+		return nonBlockingRetry;
+	}
+
+	public void setNonBlockingRetry(Boolean nonBlockingRetry) {
+		this.nonBlockingRetry = nonBlockingRetry;
+	}
+
+	public Boolean getDeferredAcknowledgement() {
+		return deferredAcknowledgement;
+	}
+
+	public void setDeferredAcknowledgement(Boolean deferredAcknowledgement) {
+		this.deferredAcknowledgement = deferredAcknowledgement;
+	}
+
+	public Integer getMaxOutstanding() {
+		return maxOutstanding;
+	}
+
+	public void setMaxOutstanding(Integer maxOutstanding) {
+		this.maxOutstanding = maxOutstanding;
+	}
+
+	public Boolean getVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public void setVirtualThreads(Boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	public Integer getVirtualThreadConcurrency() {
+		return virtualThreadConcurrency;
+	}
+
+	public void setVirtualThreadConcurrency(Integer virtualThreadConcurrency) {
+		this.virtualThreadConcurrency = virtualThreadConcurrency;
+	}
+
+	public Integer getDrainTimeoutMillis() {
+		return drainTimeoutMillis;
+	}
+
+	public void setDrainTimeoutMillis(Integer drainTimeoutMillis) {
+		this.drainTimeoutMillis = drainTimeoutMillis;
+	}
+
+	public Boolean getDeduplication() {
+		return deduplication;
+	}
+
+	public void setDeduplication(Boolean deduplication) {
+		this.deduplication = deduplication;
+	}
+
+	public DeduplicationKey getDeduplicationKey() {
+		return deduplicationKey;
+	}
+
+	public void setDeduplicationKey(DeduplicationKey deduplicationKey) {
+		this.deduplicationKey = deduplicationKey;
+	}
+
+	public Integer getDeduplicationMaxEntries() {
+		return deduplicationMaxEntries;
+	}
+
+	public void setDeduplicationMaxEntries(Integer deduplicationMaxEntries) {
+		this.deduplicationMaxEntries = deduplicationMaxEntries;
+	}
+
+	public Long getDeduplicationWindowMillis() {
+		return deduplicationWindowMillis;
+	}
+
+	public void setDeduplicationWindowMillis(Long deduplicationWindowMillis) {
+		this.deduplicationWindowMillis = deduplicationWindowMillis;
+	}
+
+	public Integer getMaxDecompressedBytes() {
+		return maxDecompressedBytes;
+	}
+
+	public void setMaxDecompressedBytes(Integer maxDecompressedBytes) {
+		this.maxDecompressedBytes = maxDecompressedBytes;
+	}
+
+	public enum DeduplicationKey {
+		MSG_ID, KEYS
+	}
 }
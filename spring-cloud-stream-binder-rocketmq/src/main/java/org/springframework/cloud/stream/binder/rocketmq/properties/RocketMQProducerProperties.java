@@ -18,7 +18,10 @@ package org.springframework.cloud.stream.binder.rocketmq.properties;
 
 import org.apache.rocketmq.client.producer.DefaultMQProducer;
 import org.apache.rocketmq.client.producer.LocalTransactionExecuter;
+import org.apache.rocketmq.client.producer.SendCallback;
 import org.apache.rocketmq.client.producer.TransactionCheckListener;
+import org.apache.rocketmq.common.message.MessageBatch;
+import org.springframework.cloud.stream.binder.rocketmq.PayloadCompression;
 
 /**
  * @author Timur Valiev
@@ -45,6 +48,110 @@ public class RocketMQProducerProperties {
 	 */
 	private String transactionCheckListener;
 
+	/**
+	 * collect outbound messages into {@link MessageBatch} and send them together. Delay
+	 * messages and transactional messages are always sent one by one
+	 */
+	private Boolean batching = false;
+
+	/**
+	 * flush the batch when it holds this many messages
+	 */
+	private Integer batchMaxMessages = 32;
+
+	/**
+	 * flush the batch when its estimated size reaches this many bytes, must be smaller
+	 * than {@link DefaultMQProducer#maxMessageSize}
+	 */
+	private Integer batchMaxBytes = 1024 * 1024;
+
+	/**
+	 * flush a batch that is not full this many milliseconds after its first message, 0
+	 * sends every message right away
+	 */
+	private Integer batchLingerMillis = 10;
+
+	/**
+	 * {@link SendType#SYNC} waits for the broker ack on the calling thread,
+	 * {@link SendType#ASYNC} sends with a {@link SendCallback} and
+	 * {@link SendType#ONEWAY} doesn't wait for any ack
+	 */
+	private SendType sendType = SendType.SYNC;
+
+	/**
+	 * maximum number of async messages waiting for their broker ack
+	 */
+	private Integer maxInFlight = 1024;
+
+	/**
+	 * when the async window is full, block the caller for at most
+	 * {@link DefaultMQProducer#sendMsgTimeout} if true, or reject the message right away
+	 * if false
+	 */
+	private Boolean blockWhenWindowFull = true;
+
+	/**
+	 * send messages without a partition to a queue chosen from the hash of their keys,
+	 * so that messages with the same keys stay in order
+	 */
+	private Boolean hashByKeys = false;
+
+	/**
+	 * codec compressing the message bodies, consumers of this binder decompress them
+	 * whatever their own settings
+	 */
+	private PayloadCompression compression = PayloadCompression.NONE;
+
+	/**
+	 * only compress bodies of at least this many bytes
+	 */
+	private Integer compressionThreshold = 4096;
+
+	/**
+	 * headers sent as user properties, '*' wildcards at the start or the end and '!'
+	 * to exclude, the first matching pattern wins
+	 */
+	private String[] headerPatterns = new String[] { "*" };
+
+	/**
+	 * also send number, boolean, character and UUID headers, with their type, instead
+	 * of String headers only
+	 */
+	private Boolean typedHeaders = false;
+
+	/**
+	 * store messages that can't be sent because the broker or the name server can't be
+	 * reached in a local journal, and send them again in order once the producer
+	 * recovers. Requests and transactional messages are never spooled
+	 */
+	private Boolean spool = false;
+
+	/**
+	 * directory of the journals, one sub directory per destination
+	 */
+	private String spoolDirectory = System.getProperty("java.io.tmpdir")
+			+ "/rocketmq-binder-spool";
+
+	/**
+	 * size of the memory-mapped journal segments, bounds the size of a message
+	 */
+	private Integer spoolSegmentBytes = 64 * 1024 * 1024;
+
+	/**
+	 * maximum disk space of the journal of a destination
+	 */
+	private Long spoolMaxBytes = 1024L * 1024 * 1024;
+
+	/**
+	 * how often the journal is replayed while it isn't empty
+	 */
+	private Integer spoolReplayIntervalMillis = 1000;
+
+	/**
+	 * how long a request waits for its reply before its future fails
+	 */
+	private Long replyTimeoutMillis = 5000L;
+
 	public Boolean getEnabled() {
 		return enabled;
 	}
@@ -84,4 +191,152 @@ public class RocketMQProducerProperties {
 	public void setTransactionCheckListener(String transactionCheckListener) {
 		this.transactionCheckListener = transactionCheckListener;
 	}
+
+	public Boolean getBatching() {
+		return batching;
+	}
+
+	public void setBatching(Boolean batching) {
+		this.batching = batching;
+	}
+
+	public Integer getBatchMaxMessages() {
+		return batchMaxMessages;
+	}
+
+	public void setBatchMaxMessages(Integer batchMaxMessages) {
+		this.batchMaxMessages = batchMaxMessages;
+	}
+
+	public Integer getBatchMaxBytes() {
+		return batchMaxBytes;
+	}
+
+	public void setBatchMaxBytes(Integer batchMaxBytes) {
+		this.batchMaxBytes = batchMaxBytes;
+	}
+
+	public Integer getBatchLingerMillis() {
+		return batchLingerMillis;
+	}
+
+	public void setBatchLingerMillis(Integer batchLingerMillis) {
+		this.batchLingerMillis = batchLingerMillis;
+	}
+
+	public SendType getSendType() {
+		return sendType;
+	}
+
+	public void setSendType(SendType sendType) {
+		this.sendType = sendType;
+	}
+
+	public Integer getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public void setMaxInFlight(Integer maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	public Boolean getBlockWhenWindowFull() {
+		return blockWhenWindowFull;
+	}
+
+	public void setBlockWhenWindowFull(Boolean blockWhenWindowFull) {
+		this.blockWhenWindowFull = blockWhenWindowFull;
+	}
+
+	public Boolean getHashByKeys() {
+		return hashByKeys;
+	}
+
+	public void setHashByKeys(Boolean hashByKeys) {
+		this.hashByKeys = hashByKeys;
+	}
+
+	public PayloadCompression getCompression() {
+		return compression;
+	}
+
+	public void setCompression(PayloadCompression compression) {
+		this.compression = compression;
+	}
+
+	public Integer getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	public void setCompressionThreshold(Integer compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	public String[] getHeaderPatterns() {
+		return headerPatterns;
+	}
+
+	public void setHeaderPatterns(String[] headerPatterns) {
+		this.headerPatterns = headerPatterns;
+	}
+
+	public Boolean getTypedHeaders() {
+		return typedHeaders;
+	}
+
+	public void setTypedHeaders(Boolean typedHeaders) {
+		this.typedHeaders = typedHeaders;
+	}
+
+	public Boolean getSpool() {
+		return spool;
+	}
+
+	public void setSpool(Boolean spool) {
+		this.spool = spool;
+	}
+
+	public String getSpoolDirectory() {
+		return spoolDirectory;
+	}
+
+	public void setSpoolDirectory(String spoolDirectory) {
+		this.spoolDirectory = spoolDirectory;
+	}
+
+	public Integer getSpoolSegmentBytes() {
+		return spoolSegmentBytes;
+	}
+
+	public void setSpoolSegmentBytes(Integer spoolSegmentBytes) {
+		this.spoolSegmentBytes = spoolSegmentBytes;
+	}
+
+	public Long getSpoolMaxBytes() {
+		return spoolMaxBytes;
+	}
+
+	public void setSpoolMaxBytes(Long spoolMaxBytes) {
+		this.spoolMaxBytes = spoolMaxBytes;
+	}
+
+	public Integer getSpoolReplayIntervalMillis() {
+		return spoolReplayIntervalMillis;
+	}
+
+	public void setSpoolReplayIntervalMillis(Integer spoolReplayIntervalMillis) {
+		this.spoolReplayIntervalMillis = spoolReplayIntervalMillis;
+	}
+
+	public Long getReplyTimeoutMillis() {
+		return replyTimeoutMillis;
+	}
+
+	public void setReplyTimeoutMillis(Long replyTimeoutMillis) {
+		this.replyTimeoutMillis = replyTimeoutMillis;
+	}
+
+	public enum SendType {
+		SYNC, ASYNC, ONEWAY
+	}
 }
@@ -77,6 +77,10 @@ public class RocketMQTopicProvisioner implements
 			return producerDestinationName;
 		}
 
+		/**
+		 * Partitions are queues of the same topic, the handler selects the queue from
+		 * the partition header.
+		 */
 		@Override
 		public String getNameForPartition(int partition) {
 			return producerDestinationName;
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.binder.rocketmq.reactive;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.cloud.stream.binder.PollableMessageSource;
+import org.springframework.messaging.MessageChannel;
+
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Creates the reactive consumers and producers of the bindings of the application,
+ * found by their binding name.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQReactiveBindings implements BeanFactoryAware {
+
+	private final Scheduler scheduler;
+
+	private final long idleMillis;
+
+	private BeanFactory beanFactory;
+
+	/**
+	 * @param scheduler runs the polls of the consumers
+	 * @param idleMillis how long a consumer waits before polling again when its binding
+	 * had no message
+	 */
+	public RocketMQReactiveBindings(Scheduler scheduler, long idleMillis) {
+		this.scheduler = scheduler;
+		this.idleMillis = idleMillis;
+	}
+
+	@Override
+	public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+		this.beanFactory = beanFactory;
+	}
+
+	/**
+	 * @param input the name of a pollable input binding
+	 */
+	public RocketMQReactiveConsumer consumer(String input) {
+		return new RocketMQReactiveConsumer(
+				beanFactory.getBean(input, PollableMessageSource.class), scheduler,
+				idleMillis);
+	}
+
+	/**
+	 * @param output the name of an output binding
+	 */
+	public RocketMQReactiveProducer producer(String output) {
+		return new RocketMQReactiveProducer(
+				beanFactory.getBean(output, MessageChannel.class));
+	}
+
+}
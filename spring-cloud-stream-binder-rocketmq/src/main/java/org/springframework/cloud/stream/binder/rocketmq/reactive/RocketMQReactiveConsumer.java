@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.reactive;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.cloud.stream.binder.PollableMessageSource;
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.messaging.Message;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Exposes a pollable RocketMQ binding as a {@link Flux}. The binding is only polled
+ * while there is outstanding demand, so the queues are fetched at the pace of the
+ * subscriber.
+ * <p>
+ * A message is acknowledged, and its offset becomes committable, when the
+ * {@code onNext} of the subscriber returns. Operators that hand elements over to other
+ * threads, such as {@code publishOn} or an asynchronous {@code flatMap}, return from
+ * {@code onNext} before the element is processed, so the message is acknowledged
+ * before it is processed and isn't consumed again if the application stops. Such
+ * subscribers call {@code noAutoAck()} on the
+ * {@link IntegrationMessageHeaderAccessor#ACKNOWLEDGMENT_CALLBACK} header and
+ * acknowledge the message themselves once it is processed.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQReactiveConsumer {
+
+	private final PollableMessageSource source;
+
+	private final Scheduler scheduler;
+
+	private final long idleMillis;
+
+	public RocketMQReactiveConsumer(PollableMessageSource source) {
+		this(source, Schedulers.elastic(), 100);
+	}
+
+	/**
+	 * @param source the pollable input binding
+	 * @param scheduler runs the polls, they block on the broker round trip
+	 * @param idleMillis how long to wait before polling again when the binding had no
+	 * message
+	 */
+	public RocketMQReactiveConsumer(PollableMessageSource source, Scheduler scheduler,
+			long idleMillis) {
+		this.source = source;
+		this.scheduler = scheduler;
+		this.idleMillis = idleMillis;
+	}
+
+	public Flux<Message<byte[]>> flux() {
+		return Flux.create(sink -> {
+			Scheduler.Worker worker = scheduler.createWorker();
+			Drain drain = new Drain(sink, worker);
+			sink.onRequest(n -> drain.signal());
+			sink.onDispose(worker);
+		});
+	}
+
+	/**
+	 * Polls while there is demand. At most one drain of a subscription is scheduled at a
+	 * time: requests arriving while it is scheduled, running or waiting after an empty
+	 * poll only count as missed, and the drain goes on until none is left.
+	 */
+	private class Drain implements Runnable {
+
+		private final FluxSink<Message<byte[]>> sink;
+
+		private final Scheduler.Worker worker;
+
+		private final AtomicInteger wip = new AtomicInteger();
+
+		Drain(FluxSink<Message<byte[]>> sink, Scheduler.Worker worker) {
+			this.sink = sink;
+			this.worker = worker;
+		}
+
+		void signal() {
+			if (wip.getAndIncrement() == 0) {
+				worker.schedule(this);
+			}
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void run() {
+			// also resumes a drain that waited after an empty poll
+			int missed = wip.get();
+			while (true) {
+				while (sink.requestedFromDownstream() > 0 && !sink.isCancelled()) {
+					boolean polled;
+					try {
+						polled = source
+								.poll(message -> sink.next((Message<byte[]>) message));
+					}
+					catch (Exception e) {
+						sink.error(e);
+						return;
+					}
+					if (!polled) {
+						// keeps wip, new requests wait for this drain
+						worker.schedule(this, idleMillis, TimeUnit.MILLISECONDS);
+						return;
+					}
+				}
+				missed = wip.addAndGet(-missed);
+				if (missed == 0) {
+					return;
+				}
+			}
+		}
+	}
+
+}
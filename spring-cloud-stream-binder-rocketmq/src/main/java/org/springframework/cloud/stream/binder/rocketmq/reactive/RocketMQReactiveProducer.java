@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.reactive;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * Sends a stream of messages through a RocketMQ output binding with a bounded number
+ * of sends waiting for their broker ack. Combined with the {@code async} send type of
+ * the binding no thread is blocked while the sends are in flight.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQReactiveProducer {
+
+	private final MessageChannel output;
+
+	public RocketMQReactiveProducer(MessageChannel output) {
+		this.output = output;
+	}
+
+	/**
+	 * @param concurrency maximum number of messages waiting for their broker ack
+	 * @return the send results, in completion order
+	 */
+	public Flux<SendResult> send(Publisher<? extends Message<?>> messages,
+			int concurrency) {
+		return Flux.from(messages).flatMap(this::send, concurrency);
+	}
+
+	public Mono<SendResult> send(Message<?> message) {
+		return Mono.create(sink -> {
+			SinkSendCallback callback = new SinkSendCallback(sink);
+			try {
+				output.send(MessageBuilder.fromMessage(message).setHeader(
+						RocketMQBinderConstants.ROCKET_SEND_CALLBACK, callback).build());
+			}
+			catch (Exception e) {
+				callback.onException(e);
+			}
+		});
+	}
+
+	/**
+	 * A failed sync send both completes the callback and throws, only the first
+	 * signal reaches the sink.
+	 */
+	private static class SinkSendCallback implements SendCallback {
+
+		private final MonoSink<SendResult> sink;
+
+		private final AtomicBoolean completed = new AtomicBoolean(false);
+
+		SinkSendCallback(MonoSink<SendResult> sink) {
+			this.sink = sink;
+		}
+
+		@Override
+		public void onSuccess(SendResult sendResult) {
+			if (completed.compareAndSet(false, true)) {
+				// oneway sends have no result
+				if (sendResult == null) {
+					sink.success();
+				}
+				else {
+					sink.success(sendResult);
+				}
+			}
+		}
+
+		@Override
+		public void onException(Throwable e) {
+			if (completed.compareAndSet(false, true)) {
+				sink.error(e);
+			}
+		}
+	}
+
+}
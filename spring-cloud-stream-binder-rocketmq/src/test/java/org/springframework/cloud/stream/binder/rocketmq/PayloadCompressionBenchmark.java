@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.common.message.Message;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CPU against bandwidth of the payload codecs on JSON bodies of the sizes the binder
+ * targets. The throughput is the CPU side, the rawBytes and compressedBytes counters
+ * of compress give the bandwidth saved.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadCompressionBenchmark {
+
+	@Param({ "GZIP", "DEFLATE" })
+	public PayloadCompression compression;
+
+	@Param({ "10240", "51200" })
+	public int size;
+
+	private byte[] body;
+
+	private Message compressed;
+
+	@Setup
+	public void setUp() {
+		body = json(size);
+		compressed = new Message("topic", body.clone());
+		compression.compress(compressed, 0);
+	}
+
+	@Benchmark
+	public Message compress(Bytes bytes) {
+		Message message = new Message("topic", body);
+		compression.compress(message, 0);
+		bytes.rawBytes += body.length;
+		bytes.compressedBytes += message.getBody().length;
+		return message;
+	}
+
+	@Benchmark
+	public byte[] decompress() {
+		return PayloadCompression.decompress(compressed,
+				PayloadCompression.DEFAULT_MAX_DECOMPRESSED_BYTES);
+	}
+
+	/**
+	 * An array of orders with random ids and amounts, as repetitive as real JSON.
+	 */
+	private static byte[] json(int size) {
+		Random random = new Random(42);
+		StringBuilder json = new StringBuilder(size + 256).append('[');
+		while (json.length() < size) {
+			json.append("{\"orderId\":\"").append(Long.toHexString(random.nextLong()))
+					.append("\",\"customer\":\"customer-").append(random.nextInt(1000))
+					.append("\",\"amount\":").append(random.nextInt(100000) / 100.0)
+					.append(",\"currency\":\"CNY\",\"status\":\"")
+					.append(random.nextBoolean() ? "PAID" : "CREATED")
+					.append("\",\"createdAt\":").append(1542786623915L + random.nextInt())
+					.append("},");
+		}
+		json.setCharAt(json.length() - 1, ']');
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Bytes {
+
+		public long rawBytes;
+
+		public long compressedBytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			rawBytes = 0;
+			compressedBytes = 0;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Arrays;
+
+import org.apache.rocketmq.common.message.Message;
+import org.junit.Test;
+import org.springframework.messaging.converter.MessageConversionException;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class PayloadCompressionTests {
+
+	private static final int LIMIT = PayloadCompression.DEFAULT_MAX_DECOMPRESSED_BYTES;
+
+	@Test
+	public void roundTripsGzip() {
+		assertRoundTrip(PayloadCompression.GZIP);
+	}
+
+	@Test
+	public void roundTripsDeflate() {
+		assertRoundTrip(PayloadCompression.DEFLATE);
+	}
+
+	@Test
+	public void leavesShortBodiesUncompressed() {
+		byte[] body = repeated(100);
+		Message message = new Message("topic", body);
+
+		PayloadCompression.GZIP.compress(message, 1024);
+
+		assertThat(message.getUserProperty(RocketMQBinderConstants.ROCKET_COMPRESSION))
+				.isNull();
+		assertThat(PayloadCompression.decompress(message, LIMIT)).isSameAs(body);
+	}
+
+	@Test
+	public void rejectsUnknownCodec() {
+		Message message = new Message("topic", repeated(100));
+		message.putUserProperty(RocketMQBinderConstants.ROCKET_COMPRESSION, "zstd");
+
+		assertThatThrownBy(() -> PayloadCompression.decompress(message, LIMIT))
+				.isInstanceOf(MessageConversionException.class)
+				.hasMessageContaining("zstd");
+	}
+
+	@Test
+	public void rejectsCorruptBody() {
+		Message message = new Message("topic", repeated(100));
+		message.putUserProperty(RocketMQBinderConstants.ROCKET_COMPRESSION, "gzip");
+
+		assertThatThrownBy(() -> PayloadCompression.decompress(message, LIMIT))
+				.isInstanceOf(MessageConversionException.class);
+	}
+
+	@Test
+	public void rejectsBodiesInflatingPastTheLimit() {
+		Message message = new Message("topic", new byte[1024 * 1024]);
+		PayloadCompression.GZIP.compress(message, 0);
+		assertThat(message.getBody().length).isLessThan(64 * 1024);
+
+		assertThatThrownBy(() -> PayloadCompression.decompress(message, 64 * 1024))
+				.isInstanceOf(MessageConversionException.class)
+				.hasMessageContaining("65536");
+		assertThat(PayloadCompression.decompress(message, 1024 * 1024))
+				.hasSize(1024 * 1024);
+	}
+
+	private static void assertRoundTrip(PayloadCompression compression) {
+		byte[] body = repeated(10000);
+		Message message = new Message("topic", body.clone());
+
+		compression.compress(message, 1024);
+
+		assertThat(message.getBody().length).isLessThan(body.length);
+		assertThat(message.getUserProperty(RocketMQBinderConstants.ROCKET_COMPRESSION))
+				.isEqualTo(compression.name().toLowerCase());
+		assertThat(PayloadCompression.decompress(message, LIMIT)).isEqualTo(body);
+	}
+
+	private static byte[] repeated(int length) {
+		byte[] body = new byte[length];
+		Arrays.fill(body, (byte) 'a');
+		return body;
+	}
+}
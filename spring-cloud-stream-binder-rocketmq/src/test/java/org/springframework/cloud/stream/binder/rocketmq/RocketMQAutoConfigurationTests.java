@@ -48,7 +48,9 @@ public class RocketMQAutoConfigurationTests {
 					"spring.cloud.stream.bindings.input2.content-type=application/json",
 					"spring.cloud.stream.bindings.input2.group=test-group2",
 					"spring.cloud.stream.rocketmq.bindings.input2.consumer.orderly=false",
-					"spring.cloud.stream.rocketmq.bindings.input2.consumer.tags=tag1");
+					"spring.cloud.stream.rocketmq.bindings.input2.consumer.tags=tag1",
+					"spring.cloud.stream.rocketmq.bindings.input2.consumer.batchMode=true",
+					"spring.cloud.stream.rocketmq.bindings.input2.consumer.consumeMessageBatchMaxSize=16");
 
 	@Test
 	public void testProperties() {
@@ -66,6 +68,12 @@ public class RocketMQAutoConfigurationTests {
 					.getOrderly()).isFalse();
 			assertThat(bindingProperties.getExtendedConsumerProperties("input1")
 					.getOrderly()).isTrue();
+			assertThat(bindingProperties.getExtendedConsumerProperties("input2")
+					.getBatchMode()).isTrue();
+			assertThat(bindingProperties.getExtendedConsumerProperties("input2")
+					.getConsumeMessageBatchMaxSize()).isEqualTo(16);
+			assertThat(bindingProperties.getExtendedConsumerProperties("input1")
+					.getBatchMode()).isFalse();
 		});
 	}
 
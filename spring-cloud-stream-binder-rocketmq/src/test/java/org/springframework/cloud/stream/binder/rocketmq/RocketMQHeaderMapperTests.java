@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.binder.rocketmq;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.junit.Test;
+import org.springframework.messaging.MessageHeaders;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQHeaderMapperTests {
+
+	@Test
+	public void mapsTypedHeadersBothWays() {
+		UUID uuid = UUID.randomUUID();
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("text", "value");
+		headers.put("count", 3);
+		headers.put("total", 4L);
+		headers.put("flag", true);
+		headers.put("uuid", uuid);
+		headers.put("object", new Object());
+		Message message = new Message("topic", new byte[0]);
+
+		RocketMQHeaderMapper.DEFAULT.fromHeaders(new MessageHeaders(headers), message);
+
+		assertThat(message.getUserProperty("count")).isEqualTo("3");
+		assertThat(message.getUserProperty("object")).isNull();
+		Map<String, Object> mapped = RocketMQHeaderMapper.DEFAULT.toHeaders(message);
+		assertThat(mapped).containsEntry("text", "value").containsEntry("count", 3)
+				.containsEntry("total", 4L).containsEntry("flag", true)
+				.containsEntry("uuid", uuid)
+				.doesNotContainKey(RocketMQBinderConstants.ROCKET_HEADER_TYPES);
+	}
+
+	@Test
+	public void sendsTypedHeadersAsStringsWhenUntyped() {
+		RocketMQHeaderMapper mapper = new RocketMQHeaderMapper(new String[] { "*" },
+				false);
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("text", "value");
+		headers.put("count", 3);
+		Message message = new Message("topic", new byte[0]);
+
+		mapper.fromHeaders(new MessageHeaders(headers), message);
+
+		assertThat(message.getUserProperty("text")).isEqualTo("value");
+		assertThat(message.getUserProperty("count")).isNull();
+		assertThat(message.getUserProperty(RocketMQBinderConstants.ROCKET_HEADER_TYPES))
+				.isNull();
+	}
+
+	@Test
+	public void firstMatchingPatternWins() {
+		RocketMQHeaderMapper mapper = new RocketMQHeaderMapper(
+				new String[] { "!internal*", "*-id", "trace*" }, true);
+		Map<String, Object> headers = new HashMap<>();
+		headers.put("internal-id", "1");
+		headers.put("order-id", "2");
+		headers.put("traceparent", "3");
+		headers.put("other", "4");
+		Message message = new Message("topic", new byte[0]);
+
+		mapper.fromHeaders(new MessageHeaders(headers), message);
+
+		assertThat(message.getUserProperty("internal-id")).isNull();
+		assertThat(message.getUserProperty("order-id")).isEqualTo("2");
+		assertThat(message.getUserProperty("traceparent")).isEqualTo("3");
+		assertThat(message.getUserProperty("other")).isNull();
+	}
+
+	@Test
+	public void neverMapsReplyRoutingProperties() {
+		Map<String, Object> headers = new HashMap<>();
+		headers.put(RocketMQBinderConstants.ROCKET_REPLY_TO, "replies:instance");
+		headers.put(RocketMQBinderConstants.ROCKET_CORRELATION_ID, "correlation");
+		headers.put("text", "value");
+		Message outbound = new Message("topic", new byte[0]);
+
+		RocketMQHeaderMapper.DEFAULT.fromHeaders(new MessageHeaders(headers),
+				outbound);
+
+		assertThat(outbound.getUserProperty(RocketMQBinderConstants.ROCKET_REPLY_TO))
+				.isNull();
+		assertThat(outbound
+				.getUserProperty(RocketMQBinderConstants.ROCKET_CORRELATION_ID))
+						.isNull();
+
+		Message inbound = new Message("topic", new byte[0]);
+		inbound.putUserProperty(RocketMQBinderConstants.ROCKET_REPLY_TO,
+				"replies:instance");
+		inbound.putUserProperty(RocketMQBinderConstants.ROCKET_CORRELATION_ID,
+				"correlation");
+		inbound.putUserProperty("text", "value");
+
+		assertThat(RocketMQHeaderMapper.DEFAULT.toHeaders(inbound))
+				.containsOnlyKeys("text");
+	}
+
+	@Test
+	public void neverMapsSystemProperties() {
+		Map<String, Object> headers = new HashMap<>();
+		headers.put(MessageConst.PROPERTY_KEYS, "key");
+		headers.put("text", "value");
+		Message message = new Message("topic", "tag", "key", new byte[0]);
+
+		RocketMQHeaderMapper.DEFAULT.fromHeaders(new MessageHeaders(headers), message);
+
+		assertThat(RocketMQHeaderMapper.DEFAULT.toHeaders(message))
+				.containsOnlyKeys("text");
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.actuator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.cloud.stream.binder.rocketmq.config.RocketMQBinderAutoConfiguration;
+import org.springframework.cloud.stream.binder.rocketmq.config.RocketMQBinderEndpointAutoConfiguration;
+import org.springframework.cloud.stream.binder.rocketmq.producing.ProducersManager;
+
+/**
+ * The endpoint is in the application context and the binder in a child context, as
+ * they are when the binder is loaded from {@code META-INF/spring.binders}.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQBinderEndpointTests {
+
+	private final ApplicationContextRunner applicationContextRunner = new ApplicationContextRunner()
+			.withConfiguration(
+					AutoConfigurations.of(RocketMQBinderEndpointAutoConfiguration.class));
+
+	@Test
+	public void showsTheStateOfTheBinderContext() {
+		applicationContextRunner.run(application -> new ApplicationContextRunner()
+				.withParent(application)
+				.withConfiguration(
+						AutoConfigurations.of(RocketMQBinderAutoConfiguration.class))
+				.withPropertyValues(
+						"spring.cloud.stream.rocketmq.binder.namesrv-addr=127.0.0.1:9876")
+				.run(binder -> {
+					assertThat(binder).hasSingleBean(ProducersManager.class);
+					assertThat(application).doesNotHaveBean(ProducersManager.class);
+
+					Map<String, Object> result = application
+							.getBean(RocketMQBinderEndpoint.class).invoke();
+
+					assertThat(result).containsKeys("sharedProducers", "spools",
+							"metrics", "runtime", "offsets");
+					assertThat(result).containsEntry("pendingRequests", 0)
+							.doesNotContainKey("warning");
+				}));
+	}
+
+	@Test
+	public void showsNoBinderStateWithoutABinderContext() {
+		applicationContextRunner.run(application -> assertThat(
+				application.getBean(RocketMQBinderEndpoint.class).invoke())
+						.containsKeys("metrics", "runtime", "offsets")
+						.doesNotContainKeys("sharedProducers", "spools",
+								"pendingRequests"));
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.consuming;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.impl.consumer.ConsumeMessageService;
+import org.apache.rocketmq.client.impl.consumer.DefaultMQPushConsumerImpl;
+import org.apache.rocketmq.client.impl.consumer.ProcessQueue;
+import org.apache.rocketmq.client.impl.consumer.RebalanceImpl;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQConsumerProperties;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class AdaptiveConcurrencyControllerTests {
+
+	private ConsumeMessageService consumeMessageService;
+
+	private AdaptiveConcurrencyController controller;
+
+	@Before
+	public void setUp() {
+		consumeMessageService = mock(ConsumeMessageService.class);
+		// pulled queue with nothing left in it
+		ConcurrentMap<MessageQueue, ProcessQueue> processQueues = new ConcurrentHashMap<>();
+		processQueues.put(new MessageQueue("topic", "broker", 0), new ProcessQueue());
+		RebalanceImpl rebalance = mock(RebalanceImpl.class);
+		when(rebalance.getProcessQueueTable()).thenReturn(processQueues);
+		DefaultMQPushConsumerImpl impl = mock(DefaultMQPushConsumerImpl.class);
+		when(impl.getRebalanceImpl()).thenReturn(rebalance);
+		when(impl.getConsumeMessageService()).thenReturn(consumeMessageService);
+		DefaultMQPushConsumer consumer = mock(DefaultMQPushConsumer.class);
+		when(consumer.getDefaultMQPushConsumerImpl()).thenReturn(impl);
+		controller = new AdaptiveConcurrencyController("group", consumer,
+				new RocketMQConsumerProperties(), 4);
+	}
+
+	@Test
+	public void growsWhileTheBrokerLags() {
+		controller.setBrokerLag(() -> 1000);
+		saturate();
+
+		controller.adjust();
+
+		assertThat(controller.getConcurrency()).isEqualTo(6);
+		verify(consumeMessageService).updateCorePoolSize(6);
+	}
+
+	@Test
+	public void keepsSaturatedPoolWithoutWaitingMessages() {
+		saturate();
+
+		controller.adjust();
+
+		assertThat(controller.getConcurrency()).isEqualTo(4);
+		verify(consumeMessageService, never()).updateCorePoolSize(anyInt());
+	}
+
+	@Test
+	public void shrinksIdlePoolDespiteTheLag() {
+		controller.setBrokerLag(() -> 1000);
+
+		controller.adjust();
+
+		assertThat(controller.getConcurrency()).isEqualTo(1);
+		verify(consumeMessageService).updateCorePoolSize(1);
+	}
+
+	private void saturate() {
+		// far more handler time than four threads can spend in one interval
+		controller.recordConsumed(100, TimeUnit.HOURS.toNanos(1));
+	}
+}
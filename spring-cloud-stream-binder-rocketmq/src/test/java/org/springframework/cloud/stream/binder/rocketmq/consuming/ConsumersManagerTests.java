@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.binder.rocketmq.consuming;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.impl.consumer.DefaultMQPushConsumerImpl;
+import org.apache.rocketmq.client.impl.consumer.ProcessQueue;
+import org.apache.rocketmq.client.impl.consumer.RebalanceImpl;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.springframework.cloud.stream.binder.rocketmq.metrics.ConsumerGroupInstrumentation;
+import org.springframework.cloud.stream.binder.rocketmq.metrics.InstrumentationManager;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQBinderConfigurationProperties;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQConsumerProperties;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ConsumersManagerTests {
+
+	private final RocketMQBinderConfigurationProperties binderProperties = new RocketMQBinderConfigurationProperties();
+
+	private final GenericApplicationContext context = new GenericApplicationContext();
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		context.close();
+	}
+
+	@Test
+	public void orderlyLanesGetAPullBatch() {
+		RocketMQConsumerProperties properties = new RocketMQConsumerProperties();
+		properties.setOrderly(true);
+		properties.setOrderlyLanes(4);
+
+		assertThat(ConsumersManager.consumeMessageBatchMaxSize(properties))
+				.isEqualTo(properties.getPullBatchSize());
+
+		properties.setConsumeMessageBatchMaxSize(64);
+		assertThat(ConsumersManager.consumeMessageBatchMaxSize(properties))
+				.isEqualTo(64);
+	}
+
+	@Test
+	public void keepsBatchSizeWithoutLanes() {
+		RocketMQConsumerProperties properties = new RocketMQConsumerProperties();
+		properties.setOrderly(true);
+		assertThat(ConsumersManager.consumeMessageBatchMaxSize(properties))
+				.isEqualTo(1);
+
+		properties.setOrderlyLanes(4);
+		properties.setBatchMode(true);
+		assertThat(ConsumersManager.consumeMessageBatchMaxSize(properties))
+				.isEqualTo(1);
+
+		properties.setOrderly(false);
+		properties.setBatchMode(false);
+		assertThat(ConsumersManager.consumeMessageBatchMaxSize(properties))
+				.isEqualTo(1);
+	}
+
+	@Test
+	public void failsTheRefreshForAFailedAndATimedOutGroup() throws Exception {
+		binderProperties.setAwaitReadyTimeoutMillis(200L);
+		ConsumersManager manager = parallelStartup();
+		DefaultMQPushConsumer ready = register(manager, "ready");
+		DefaultMQPushConsumer failing = register(manager, "failing");
+		doThrow(new MQClientException(-1, "no name server")).when(failing).start();
+		DefaultMQPushConsumer hanging = register(manager, "hanging");
+		doAnswer(invocation -> release.await(10, TimeUnit.SECONDS)).when(hanging)
+				.start();
+		manager.startConsumer("ready");
+		manager.startConsumer("failing");
+		manager.startConsumer("hanging");
+
+		assertThatThrownBy(context::refresh).isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("failing=")
+				.hasMessageContaining("no name server")
+				.hasMessageContaining("hanging=not started within 200ms")
+				.satisfies(e -> assertThat(e.getMessage()).doesNotContain("ready="));
+		verify(ready).start();
+	}
+
+	@Test
+	public void waitsForEveryGroupWithoutATimeout() throws Exception {
+		ConsumersManager manager = parallelStartup();
+		DefaultMQPushConsumer slow = register(manager, "slow");
+		doAnswer(invocation -> {
+			Thread.sleep(300);
+			return null;
+		}).when(slow).start();
+		DefaultMQPushConsumer failing = register(manager, "failing");
+		doThrow(new MQClientException(-1, "no name server")).when(failing).start();
+		manager.startConsumer("slow");
+		manager.startConsumer("failing");
+
+		long start = System.nanoTime();
+		assertThatThrownBy(context::refresh).isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("failing=")
+				.satisfies(e -> assertThat(e.getMessage()).doesNotContain("slow="));
+		assertThat(System.nanoTime() - start)
+				.isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(300));
+	}
+
+	@Test
+	public void startsTheGroupsOnceTheContextIsRefreshed() throws Exception {
+		ConsumersManager manager = parallelStartup();
+		DefaultMQPushConsumer first = register(manager, "first");
+		DefaultMQPushConsumer second = register(manager, "second");
+		manager.startConsumer("first");
+		manager.startConsumer("second");
+		verify(first, never()).start();
+
+		context.refresh();
+
+		verify(first).start();
+		verify(second).start();
+	}
+
+	@Test
+	public void drainsTheInFlightMessagesBeforeTheShutdown() throws Exception {
+		InstrumentationManager instrumentationManager = new InstrumentationManager();
+		ConsumersManager manager = new ConsumersManager(instrumentationManager,
+				binderProperties);
+		ProcessQueue processQueue = new ProcessQueue();
+		processQueue.getMsgCount().set(2);
+		DefaultMQPushConsumer consumer = draining(manager, "group", 5000, processQueue);
+		DeferredOffsetStore offsetStore = mock(DeferredOffsetStore.class);
+		when(offsetStore.getOutstanding()).thenReturn(1, 1, 0);
+		deferredOffsetStores(manager).put("group", offsetStore);
+		Thread handler = new Thread(() -> {
+			try {
+				Thread.sleep(200);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			processQueue.getMsgCount().set(0);
+		});
+		handler.start();
+
+		manager.stopConsumer("group");
+
+		handler.join();
+		InOrder inOrder = inOrder(consumer);
+		inOrder.verify(consumer).suspend();
+		inOrder.verify(consumer).shutdown();
+		ConsumerGroupInstrumentation instrumentation = instrumentationManager
+				.getConsumerGroupInstrumentation("group");
+		assertThat(instrumentation.getAbandonedMessages()).isEqualTo(0);
+		assertThat(instrumentation.getDrainDurationMillis()).isBetween(100L, 5000L);
+	}
+
+	@Test
+	public void abandonsWhatIsLeftAfterTheDrainTimeout() throws Exception {
+		InstrumentationManager instrumentationManager = new InstrumentationManager();
+		ConsumersManager manager = new ConsumersManager(instrumentationManager,
+				binderProperties);
+		ProcessQueue processQueue = new ProcessQueue();
+		processQueue.getMsgCount().set(3);
+		DefaultMQPushConsumer consumer = draining(manager, "group", 300, processQueue);
+
+		manager.stopConsumer("group");
+
+		InOrder inOrder = inOrder(consumer);
+		inOrder.verify(consumer).suspend();
+		inOrder.verify(consumer).shutdown();
+		ConsumerGroupInstrumentation instrumentation = instrumentationManager
+				.getConsumerGroupInstrumentation("group");
+		assertThat(instrumentation.getAbandonedMessages()).isEqualTo(3);
+		assertThat(instrumentation.getDrainDurationMillis())
+				.isGreaterThanOrEqualTo(300);
+	}
+
+	@Test
+	public void shutsDownRightAwayWithoutADrainTimeout() throws Exception {
+		ConsumersManager manager = new ConsumersManager(null, binderProperties);
+		ProcessQueue processQueue = new ProcessQueue();
+		processQueue.getMsgCount().set(3);
+		DefaultMQPushConsumer consumer = draining(manager, "group", 0, processQueue);
+
+		manager.stopConsumer("group");
+
+		verify(consumer, never()).suspend();
+		verify(consumer).shutdown();
+	}
+
+	private ConsumersManager parallelStartup() {
+		binderProperties.setParallelStartup(true);
+		ConsumersManager manager = new ConsumersManager(null, binderProperties);
+		manager.setApplicationContext(context);
+		return manager;
+	}
+
+	/**
+	 * Stands in for a started group whose messages of processQueue are in flight.
+	 */
+	@SuppressWarnings("unchecked")
+	private static DefaultMQPushConsumer draining(ConsumersManager manager,
+			String group, int drainTimeoutMillis, ProcessQueue processQueue) {
+		DefaultMQPushConsumer consumer = register(manager, group);
+		((Map<String, Boolean>) ReflectionTestUtils.getField(manager, "started"))
+				.put(group, true);
+		((Map<String, Integer>) ReflectionTestUtils.getField(manager, "drainTimeouts"))
+				.put(group, drainTimeoutMillis);
+		ConcurrentMap<MessageQueue, ProcessQueue> processQueues = new ConcurrentHashMap<>();
+		processQueues.put(new MessageQueue("topic", "broker", 0), processQueue);
+		RebalanceImpl rebalance = mock(RebalanceImpl.class);
+		when(rebalance.getProcessQueueTable()).thenReturn(processQueues);
+		DefaultMQPushConsumerImpl impl = mock(DefaultMQPushConsumerImpl.class);
+		when(impl.getRebalanceImpl()).thenReturn(rebalance);
+		when(consumer.getDefaultMQPushConsumerImpl()).thenReturn(impl);
+		return consumer;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, DeferredOffsetStore> deferredOffsetStores(
+			ConsumersManager manager) {
+		return (Map<String, DeferredOffsetStore>) ReflectionTestUtils.getField(manager,
+				"deferredOffsetStores");
+	}
+
+	/**
+	 * Stands in for a group created by getOrCreateConsumer.
+	 */
+	@SuppressWarnings("unchecked")
+	private static DefaultMQPushConsumer register(ConsumersManager manager,
+			String group) {
+		DefaultMQPushConsumer consumer = mock(DefaultMQPushConsumer.class);
+		((Map<String, DefaultMQPushConsumer>) ReflectionTestUtils.getField(manager,
+				"consumerGroups")).put(group, consumer);
+		((Map<String, Boolean>) ReflectionTestUtils.getField(manager, "started"))
+				.put(group, false);
+		return consumer;
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.consuming;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.rocketmq.common.message.MessageExt;
+import org.junit.Test;
+import org.springframework.cloud.stream.binder.rocketmq.consuming.DeduplicationStore.Claim;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQConsumerProperties.DeduplicationKey;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class DeduplicationStoreTests {
+
+	private static final long WINDOW = 60_000;
+
+	private final DeduplicationStore store = new DeduplicationStore(
+			DeduplicationKey.MSG_ID, 1000, WINDOW);
+
+	@Test
+	public void dropsRecordedMessages() {
+		MessageExt msg = message("id-1");
+
+		assertThat(store.claim(msg)).isEqualTo(Claim.ACQUIRED);
+		assertThat(store.claim(msg)).isEqualTo(Claim.IN_PROGRESS);
+		store.record(msg);
+
+		assertThat(store.claim(msg)).isEqualTo(Claim.DUPLICATE);
+		assertThat(store.claim(message("id-2"))).isEqualTo(Claim.ACQUIRED);
+		assertThat(store.getHits()).isEqualTo(2);
+		assertThat(store.getMisses()).isEqualTo(2);
+	}
+
+	@Test
+	public void acquiresReleasedMessagesAgain() {
+		MessageExt msg = message("id-1");
+		store.claim(msg);
+
+		store.release(msg);
+
+		assertThat(store.claim(msg)).isEqualTo(Claim.ACQUIRED);
+	}
+
+	@Test
+	public void keepsRecordedMessagesOnRelease() {
+		MessageExt msg = message("id-1");
+		store.claim(msg);
+		store.record(msg);
+
+		store.release(msg);
+		store.releaseClaims();
+
+		assertThat(store.claim(msg)).isEqualTo(Claim.DUPLICATE);
+	}
+
+	@Test
+	public void releasesAllClaims() {
+		store.claim(message("id-1"));
+		store.claim(message("id-2"));
+
+		store.releaseClaims();
+
+		assertThat(store.claim(message("id-1"))).isEqualTo(Claim.ACQUIRED);
+		assertThat(store.claim(message("id-2"))).isEqualTo(Claim.ACQUIRED);
+	}
+
+	@Test
+	public void forgetsMessagesAfterTheWindow() {
+		DeduplicationStore store = new DeduplicationStore(DeduplicationKey.MSG_ID, 1000,
+				0);
+		MessageExt msg = message("id-1");
+		store.claim(msg);
+		store.record(msg);
+
+		assertThat(store.claim(msg)).isEqualTo(Claim.ACQUIRED);
+	}
+
+	@Test
+	public void acquiresMessagesWithoutKey() {
+		DeduplicationStore store = new DeduplicationStore(DeduplicationKey.KEYS, 1000,
+				WINDOW);
+		MessageExt msg = message("id-1");
+		store.claim(msg);
+		store.record(msg);
+
+		assertThat(store.claim(msg)).isEqualTo(Claim.ACQUIRED);
+		assertThat(store.getMisses()).isZero();
+	}
+
+	@Test
+	public void evictsPastCapacity() {
+		for (int i = 0; i < 10000; i++) {
+			MessageExt msg = message("id-" + i);
+			store.claim(msg);
+			store.record(msg);
+		}
+
+		assertThat(store.getEvictions()).isPositive();
+		assertThat(store.claim(message("id-9999"))).isEqualTo(Claim.DUPLICATE);
+	}
+
+	@Test
+	public void acquiresConcurrentDeliveriesOnce() throws Exception {
+		int threads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (int round = 0; round < 100; round++) {
+				MessageExt msg = message("id-" + round);
+				CountDownLatch start = new CountDownLatch(1);
+				List<Future<Claim>> claims = new ArrayList<>();
+				for (int i = 0; i < threads; i++) {
+					claims.add(executor.submit(() -> {
+						start.await();
+						return store.claim(msg);
+					}));
+				}
+				start.countDown();
+				int acquired = 0;
+				for (Future<Claim> claim : claims) {
+					if (claim.get() == Claim.ACQUIRED) {
+						acquired++;
+					}
+				}
+				assertThat(acquired).isEqualTo(1);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static MessageExt message(String msgId) {
+		MessageExt msg = new MessageExt();
+		msg.setMsgId(msgId);
+		return msg;
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.binder.rocketmq.consuming;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.store.OffsetStore;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.impl.consumer.ConsumeMessageService;
+import org.apache.rocketmq.client.impl.consumer.DefaultMQPushConsumerImpl;
+import org.apache.rocketmq.client.impl.consumer.ProcessQueue;
+import org.apache.rocketmq.client.impl.consumer.RebalanceImpl;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class DeferredOffsetStoreTests {
+
+	private final MessageQueue mq = new MessageQueue("topic", "broker", 0);
+
+	private DefaultMQPushConsumer consumer;
+
+	private ScheduledExecutorService scheduler;
+
+	private OffsetStore delegate;
+
+	private ConsumeMessageService consumeMessageService;
+
+	private ProcessQueue processQueue;
+
+	private DeferredOffsetStore store;
+
+	@Before
+	public void setUp() {
+		consumer = mock(DefaultMQPushConsumer.class);
+		delegate = mock(OffsetStore.class);
+		consumeMessageService = mock(ConsumeMessageService.class);
+		processQueue = new ProcessQueue();
+		ConcurrentMap<MessageQueue, ProcessQueue> processQueues = new ConcurrentHashMap<>();
+		processQueues.put(mq, processQueue);
+		RebalanceImpl rebalance = mock(RebalanceImpl.class);
+		when(rebalance.getProcessQueueTable()).thenReturn(processQueues);
+		DefaultMQPushConsumerImpl impl = mock(DefaultMQPushConsumerImpl.class);
+		when(impl.getRebalanceImpl()).thenReturn(rebalance);
+		when(impl.getConsumeMessageService()).thenReturn(consumeMessageService);
+		when(consumer.getDefaultMQPushConsumerImpl()).thenReturn(impl);
+		// retries run right away
+		scheduler = mock(ScheduledExecutorService.class);
+		when(scheduler.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class)))
+				.thenAnswer(invocation -> {
+					((Runnable) invocation.getArgument(0)).run();
+					return null;
+				});
+		store = new DeferredOffsetStore(consumer, 16, scheduler, delegate);
+	}
+
+	@Test
+	public void holdsOffsetUntilCompleted() throws Exception {
+		Acknowledgement acknowledgement = new Acknowledgement().defer();
+		store.track(mq, message(10), acknowledgement);
+		store.updateOffset(mq, 11, true);
+		verify(delegate).updateOffset(mq, 10, true);
+		assertThat(store.getOutstanding()).isEqualTo(1);
+
+		acknowledgement.complete();
+
+		verify(delegate).updateOffset(mq, 11, true);
+		assertThat(store.getOutstanding()).isEqualTo(0);
+	}
+
+	@Test
+	public void releasesOffsetOnceSentBack() throws Exception {
+		Acknowledgement acknowledgement = new Acknowledgement().defer();
+		MessageExt msg = message(10);
+		store.track(mq, msg, acknowledgement);
+		store.updateOffset(mq, 11, true);
+
+		acknowledgement.fail();
+
+		verify(consumer).sendMessageBack(msg, 0, "broker");
+		verify(delegate).updateOffset(mq, 11, true);
+	}
+
+	@Test
+	public void retriesSendBackBeforeReleasingOffset() throws Exception {
+		Acknowledgement acknowledgement = new Acknowledgement().defer();
+		MessageExt msg = message(10);
+		doThrow(new MQClientException("broker unreachable", null))
+				.doThrow(new MQClientException("broker unreachable", null))
+				.doNothing().when(consumer).sendMessageBack(msg, 0, "broker");
+		store.track(mq, msg, acknowledgement);
+		store.updateOffset(mq, 11, true);
+
+		acknowledgement.fail();
+
+		InOrder order = inOrder(scheduler, delegate);
+		order.verify(scheduler).schedule(any(Runnable.class), eq(1000L),
+				eq(TimeUnit.MILLISECONDS));
+		order.verify(scheduler).schedule(any(Runnable.class), eq(2000L),
+				eq(TimeUnit.MILLISECONDS));
+		order.verify(delegate).updateOffset(mq, 11, true);
+		verify(consumer, times(3)).sendMessageBack(msg, 0, "broker");
+		verify(consumeMessageService, never()).submitConsumeRequest(any(), any(),
+				any(), anyBoolean());
+	}
+
+	@Test
+	public void consumesLocallyWhenSendBackKeepsFailing() throws Exception {
+		Acknowledgement acknowledgement = new Acknowledgement().defer();
+		MessageExt msg = message(10);
+		doThrow(new MQClientException("broker unreachable", null)).when(consumer)
+				.sendMessageBack(any(MessageExt.class), anyInt(), anyString());
+		store.track(mq, msg, acknowledgement);
+		store.updateOffset(mq, 11, true);
+
+		acknowledgement.fail();
+
+		verify(consumer, times(DeferredOffsetStore.SEND_BACK_ATTEMPTS))
+				.sendMessageBack(msg, 0, "broker");
+		verify(consumeMessageService).submitConsumeRequest(
+				Collections.singletonList(msg), processQueue, mq, true);
+		verify(delegate).updateOffset(mq, 11, true);
+	}
+
+	@Test
+	public void keepsOffsetOfQueuesConsumedElsewhere() throws Exception {
+		Acknowledgement acknowledgement = new Acknowledgement().defer();
+		MessageExt msg = message(10);
+		doThrow(new MQClientException("broker unreachable", null)).when(consumer)
+				.sendMessageBack(any(MessageExt.class), anyInt(), anyString());
+		store.track(mq, msg, acknowledgement);
+		store.updateOffset(mq, 11, true);
+		processQueue.setDropped(true);
+
+		acknowledgement.fail();
+
+		verify(consumeMessageService, never()).submitConsumeRequest(any(), any(),
+				any(), anyBoolean());
+		verify(delegate, never()).updateOffset(mq, 11, true);
+	}
+
+	private static MessageExt message(long queueOffset) {
+		MessageExt msg = new MessageExt();
+		msg.setTopic("topic");
+		msg.setQueueOffset(queueOffset);
+		msg.setMsgId("msg-" + queueOffset);
+		return msg;
+	}
+
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.binder.rocketmq.integration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.stream.Collectors;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyContext;
+import org.apache.rocketmq.client.consumer.listener.ConsumeOrderlyStatus;
+import org.apache.rocketmq.client.consumer.listener.MessageListener;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants;
+import org.springframework.cloud.stream.binder.rocketmq.consuming.Acknowledgement;
+import org.springframework.cloud.stream.binder.rocketmq.consuming.ConsumersManager;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQConsumerProperties;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.support.ErrorMessageUtils;
+import org.springframework.messaging.Message;
+import org.springframework.retry.RecoveryCallback;
+import org.springframework.retry.RetryContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQInboundChannelAdapterTests {
+
+	private static final String DESTINATION = "topic";
+
+	private static final String GROUP = "group";
+
+	private final MessageQueue mq = new MessageQueue(DESTINATION, "broker", 0);
+
+	private final DefaultMQPushConsumer consumer = mock(DefaultMQPushConsumer.class);
+
+	private final ConsumersManager consumersManager = mock(ConsumersManager.class);
+
+	private final ExtendedConsumerProperties<RocketMQConsumerProperties> consumerProperties = new ExtendedConsumerProperties<>(
+			new RocketMQConsumerProperties());
+
+	private final DirectChannel output = new DirectChannel();
+
+	private final List<Message<?>> received = new CopyOnWriteArrayList<>();
+
+	private final List<RetryContext> recovered = new CopyOnWriteArrayList<>();
+
+	private RecoveryCallback<Object> recoveryCallback = context -> {
+		recovered.add(context);
+		return null;
+	};
+
+	private RocketMQInboundChannelAdapter adapter;
+
+	@Before
+	public void setUp() throws Exception {
+		when(consumersManager.getOrCreateConsumer(eq(GROUP), eq(DESTINATION), any()))
+				.thenReturn(consumer);
+		when(consumer.getConsumeThreadMax()).thenReturn(2);
+		// what the binder configures for a non blocking retry
+		consumerProperties.setMaxAttempts(3);
+		consumerProperties.setBackOffInitialInterval(1000);
+		consumerProperties.setBackOffMultiplier(2.0);
+		consumerProperties.setBackOffMaxInterval(10000);
+		consumerProperties.getExtension().setNonBlockingRetry(true);
+	}
+
+	@After
+	public void tearDown() {
+		if (adapter != null) {
+			adapter.stop();
+		}
+	}
+
+	@Test
+	public void retriesTheFirstFailureAfterTheInitialInterval() {
+		failEveryMessage();
+		ConsumeConcurrentlyContext context = new ConsumeConcurrentlyContext(mq);
+
+		ConsumeConcurrentlyStatus status = startConcurrently()
+				.consumeMessage(Collections.singletonList(message(10, 0)), context);
+
+		assertThat(status).isEqualTo(ConsumeConcurrentlyStatus.RECONSUME_LATER);
+		assertThat(context.getDelayLevelWhenNextConsume()).isEqualTo(1);
+		assertThat(received).hasSize(1);
+		assertThat(recovered).isEmpty();
+	}
+
+	@Test
+	public void backsOffFromTheReconsumeTimesOfTheMessage() {
+		failEveryMessage();
+		ConsumeConcurrentlyContext context = new ConsumeConcurrentlyContext(mq);
+
+		ConsumeConcurrentlyStatus status = startConcurrently()
+				.consumeMessage(Collections.singletonList(message(10, 1)), context);
+
+		// second attempt, 2s rounded up to the 5s level
+		assertThat(status).isEqualTo(ConsumeConcurrentlyStatus.RECONSUME_LATER);
+		assertThat(context.getDelayLevelWhenNextConsume()).isEqualTo(2);
+		assertThat(recovered).isEmpty();
+	}
+
+	@Test
+	public void capsTheBackOffAtTheMaxInterval() {
+		failEveryMessage();
+		consumerProperties.setMaxAttempts(10);
+		ConsumeConcurrentlyContext context = new ConsumeConcurrentlyContext(mq);
+
+		startConcurrently().consumeMessage(Collections.singletonList(message(10, 8)),
+				context);
+
+		// 1s * 2^8 is capped at 10s
+		assertThat(context.getDelayLevelWhenNextConsume()).isEqualTo(3);
+	}
+
+	@Test
+	public void roundsDelaysUpToTheNextDelayLevel() {
+		assertThat(Acknowledgement.delayLevelFor(0)).isEqualTo(1);
+		assertThat(Acknowledgement.delayLevelFor(1000)).isEqualTo(1);
+		assertThat(Acknowledgement.delayLevelFor(1001)).isEqualTo(2);
+		assertThat(Acknowledgement.delayLevelFor(60000)).isEqualTo(5);
+		assertThat(Acknowledgement.delayLevelFor(7200000)).isEqualTo(18);
+		assertThat(Acknowledgement.delayLevelFor(Long.MAX_VALUE)).isEqualTo(18);
+	}
+
+	@Test
+	public void recoversOnceTheAttemptsAreExhausted() {
+		failEveryMessage();
+		ConsumeConcurrentlyContext context = new ConsumeConcurrentlyContext(mq);
+
+		ConsumeConcurrentlyStatus status = startConcurrently()
+				.consumeMessage(Collections.singletonList(message(10, 2)), context);
+
+		assertThat(status).isEqualTo(ConsumeConcurrentlyStatus.CONSUME_SUCCESS);
+		assertThat(recovered).hasSize(1);
+		RetryContext retryContext = recovered.get(0);
+		assertThat(retryContext.getLastThrowable()).hasRootCauseInstanceOf(
+				IllegalStateException.class);
+		Message<?> failed = (Message<?>) retryContext
+				.getAttribute(ErrorMessageUtils.INPUT_MESSAGE_CONTEXT_KEY);
+		assertThat(failed).isSameAs(received.get(0));
+	}
+
+	@Test
+	public void retriesTheMessageAgainWhenTheRecoveryFails() {
+		failEveryMessage();
+		recoveryCallback = retryContext -> {
+			throw new IllegalStateException("recovery failed");
+		};
+		ConsumeConcurrentlyContext context = new ConsumeConcurrentlyContext(mq);
+
+		ConsumeConcurrentlyStatus status = startConcurrently()
+				.consumeMessage(Collections.singletonList(message(10, 2)), context);
+
+		assertThat(status).isEqualTo(ConsumeConcurrentlyStatus.RECONSUME_LATER);
+	}
+
+	@Test
+	public void padsTheRetryOfABatchWithFailedAcknowledgements() {
+		failEveryMessage();
+		consumerProperties.getExtension().setBatchMode(true);
+		List<MessageExt> msgs = Arrays.asList(message(10, 0), message(11, 1),
+				message(12, 0));
+
+		List<Acknowledgement> acknowledgements = startConcurrently()
+				.consumeMessage(msgs);
+
+		// the batch is one delivery, its attempt is the one of its most retried message
+		assertThat(received).hasSize(1);
+		assertThat((List<?>) received.get(0).getPayload()).hasSize(3);
+		assertThat(acknowledgements).hasSize(3);
+		assertThat(acknowledgements)
+				.extracting(Acknowledgement::getConsumeConcurrentlyStatus)
+				.containsOnly(ConsumeConcurrentlyStatus.RECONSUME_LATER);
+		assertThat(acknowledgements)
+				.extracting(Acknowledgement::getConsumeConcurrentlyDelayLevel)
+				.containsExactly(2, 0, 0);
+		assertThat(recovered).isEmpty();
+	}
+
+	@Test
+	public void redeliversTheWholeBatchWithTheDelayOfTheRetry() {
+		failEveryMessage();
+		consumerProperties.getExtension().setBatchMode(true);
+		ConsumeConcurrentlyContext context = new ConsumeConcurrentlyContext(mq);
+
+		ConsumeConcurrentlyStatus status = startConcurrently().consumeMessage(
+				Arrays.asList(message(10, 0), message(11, 0)), context);
+
+		assertThat(status).isEqualTo(ConsumeConcurrentlyStatus.RECONSUME_LATER);
+		assertThat(context.getDelayLevelWhenNextConsume()).isEqualTo(1);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void commitsTheBatchUpToTheFirstFailedAcknowledgement() {
+		consumerProperties.getExtension().setBatchMode(true);
+		// the handler acknowledges the batch from its end, the third message failed
+		output.subscribe(message -> {
+			received.add(message);
+			List<Acknowledgement> acknowledgements = message.getHeaders()
+					.get(RocketMQBinderConstants.ACKNOWLEDGEMENTS_KEY, List.class);
+			for (int i = acknowledgements.size() - 1; i >= 0; i--) {
+				acknowledgements.get(i).setConsumeConcurrentlyStatus(i == 2
+						? ConsumeConcurrentlyStatus.RECONSUME_LATER
+						: ConsumeConcurrentlyStatus.CONSUME_SUCCESS);
+			}
+			acknowledgements.get(2).setConsumeConcurrentlyDelayLevel(3);
+		});
+		List<MessageExt> msgs = Arrays.asList(message(10, 0), message(11, 0),
+				message(12, 0), message(13, 0), message(14, 0));
+		ConsumeConcurrentlyContext context = new ConsumeConcurrentlyContext(mq);
+
+		ConsumeConcurrentlyStatus status = startConcurrently().consumeMessage(msgs,
+				context);
+
+		assertThat(status).isEqualTo(ConsumeConcurrentlyStatus.CONSUME_SUCCESS);
+		assertThat(context.getAckIndex()).isEqualTo(1);
+		assertThat(context.getDelayLevelWhenNextConsume()).isEqualTo(3);
+		assertThat(redelivered(msgs, status, context)).extracting(MessageExt::getMsgId)
+				.containsExactly("msg-12", "msg-13", "msg-14");
+	}
+
+	@Test
+	public void stopsDeliveringAtTheFirstFailedMessage() {
+		consumerProperties.getExtension().setNonBlockingRetry(false);
+		output.subscribe(message -> {
+			received.add(message);
+			if (Arrays.equals((byte[]) message.getPayload(),
+					"payload-12".getBytes(StandardCharsets.UTF_8))) {
+				throw new IllegalStateException("handler failed");
+			}
+		});
+		List<MessageExt> msgs = Arrays.asList(message(10, 0), message(11, 0),
+				message(12, 0), message(13, 0));
+		ConsumeConcurrentlyContext context = new ConsumeConcurrentlyContext(mq);
+
+		ConsumeConcurrentlyStatus status = startConcurrently().consumeMessage(msgs,
+				context);
+
+		assertThat(received).hasSize(3);
+		assertThat(status).isEqualTo(ConsumeConcurrentlyStatus.CONSUME_SUCCESS);
+		assertThat(context.getAckIndex()).isEqualTo(1);
+		assertThat(redelivered(msgs, status, context)).extracting(MessageExt::getMsgId)
+				.containsExactly("msg-12", "msg-13");
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void redeliversTheWholeBatchWhenTheFirstMessageFailed() {
+		consumerProperties.getExtension().setBatchMode(true);
+		output.subscribe(message -> {
+			List<Acknowledgement> acknowledgements = message.getHeaders()
+					.get(RocketMQBinderConstants.ACKNOWLEDGEMENTS_KEY, List.class);
+			acknowledgements.get(1).setConsumeConcurrentlyStatus(
+					ConsumeConcurrentlyStatus.RECONSUME_LATER);
+			acknowledgements.get(0).setConsumeConcurrentlyStatus(
+					ConsumeConcurrentlyStatus.RECONSUME_LATER);
+		});
+		List<MessageExt> msgs = Arrays.asList(message(10, 0), message(11, 0),
+				message(12, 0));
+		ConsumeConcurrentlyContext context = new ConsumeConcurrentlyContext(mq);
+
+		ConsumeConcurrentlyStatus status = startConcurrently().consumeMessage(msgs,
+				context);
+
+		assertThat(status).isEqualTo(ConsumeConcurrentlyStatus.RECONSUME_LATER);
+		assertThat(redelivered(msgs, status, context)).isEqualTo(msgs);
+	}
+
+	@Test
+	public void keepsTheOrderOfEachKeyAcrossTheLanes() {
+		consumerProperties.getExtension().setOrderly(true);
+		consumerProperties.getExtension().setOrderlyLanes(2);
+		String first = keyOfLane(0, 2);
+		String second = keyOfLane(1, 2);
+		List<String> threads = new CopyOnWriteArrayList<>();
+		output.subscribe(message -> {
+			received.add(message);
+			threads.add(message.getHeaders().get(MessageConst.PROPERTY_KEYS) + "@"
+					+ Thread.currentThread().getName());
+		});
+		List<MessageExt> msgs = Arrays.asList(message(10, 0, first),
+				message(11, 0, second), message(12, 0, first), message(13, 0, second),
+				message(14, 0, first), message(15, 0, second));
+		ConsumeOrderlyContext context = new ConsumeOrderlyContext(mq);
+
+		ConsumeOrderlyStatus status = startOrderly().consumeMessage(msgs, context);
+
+		assertThat(status).isEqualTo(ConsumeOrderlyStatus.SUCCESS);
+		assertThat(payloadsOf(first)).containsExactly("payload-10", "payload-12",
+				"payload-14");
+		assertThat(payloadsOf(second)).containsExactly("payload-11", "payload-13",
+				"payload-15");
+		// the consume thread takes the first lane, the second one runs next to it
+		assertThat(threads).filteredOn(thread -> thread.startsWith(second))
+				.allMatch(thread -> thread.contains("RocketMQOrderlyLane_" + GROUP));
+		assertThat(threads).filteredOn(thread -> thread.startsWith(first))
+				.noneMatch(thread -> thread.contains("RocketMQOrderlyLane_"));
+	}
+
+	@Test
+	public void suspendsTheQueueWhenOneLaneFailed() {
+		consumerProperties.getExtension().setOrderly(true);
+		consumerProperties.getExtension().setOrderlyLanes(2);
+		String first = keyOfLane(0, 2);
+		String second = keyOfLane(1, 2);
+		output.subscribe(message -> {
+			received.add(message);
+			if (second.equals(message.getHeaders().get(MessageConst.PROPERTY_KEYS))) {
+				throw new IllegalStateException("handler failed");
+			}
+		});
+		List<MessageExt> msgs = Arrays.asList(message(10, 0, first),
+				message(11, 0, second), message(12, 0, first), message(13, 0, second));
+		ConsumeOrderlyContext context = new ConsumeOrderlyContext(mq);
+
+		ConsumeOrderlyStatus status = startOrderly().consumeMessage(msgs, context);
+
+		// the lane that failed stops at its first message, the other one completes
+		assertThat(status).isEqualTo(ConsumeOrderlyStatus.SUSPEND_CURRENT_QUEUE_A_MOMENT);
+		assertThat(context.getSuspendCurrentQueueTimeMillis()).isEqualTo(1000);
+		assertThat(payloadsOf(first)).containsExactly("payload-10", "payload-12");
+		assertThat(payloadsOf(second)).containsExactly("payload-11");
+		assertThat(recovered).isEmpty();
+	}
+
+	@Test
+	public void sizesTheLanesForEveryConsumeThread() {
+		consumerProperties.getExtension().setOrderly(true);
+		consumerProperties.getExtension().setOrderlyLanes(3);
+
+		startOrderly();
+
+		ThreadPoolExecutor laneExecutor = (ThreadPoolExecutor) ReflectionTestUtils
+				.getField(adapter, "laneExecutor");
+		assertThat(laneExecutor.getMaximumPoolSize()).isEqualTo(2 * (3 - 1));
+	}
+
+	@Test
+	public void consumesABatchInOneLane() {
+		consumerProperties.getExtension().setOrderly(true);
+		consumerProperties.getExtension().setOrderlyLanes(3);
+		consumerProperties.getExtension().setBatchMode(true);
+
+		startOrderly();
+
+		assertThat(ReflectionTestUtils.getField(adapter, "laneExecutor")).isNull();
+	}
+
+	private void failEveryMessage() {
+		output.subscribe(message -> {
+			received.add(message);
+			throw new IllegalStateException("handler failed");
+		});
+	}
+
+	private RocketMQInboundChannelAdapter.CloudStreamMessageListenerConcurrently startConcurrently() {
+		return (RocketMQInboundChannelAdapter.CloudStreamMessageListenerConcurrently) start();
+	}
+
+	private RocketMQInboundChannelAdapter.CloudStreamMessageListenerOrderly startOrderly() {
+		return (RocketMQInboundChannelAdapter.CloudStreamMessageListenerOrderly) start();
+	}
+
+	private MessageListener start() {
+		adapter = new RocketMQInboundChannelAdapter(consumersManager,
+				consumerProperties, DESTINATION, GROUP, null);
+		adapter.setOutputChannel(output);
+		adapter.setRecoveryCallback(recoveryCallback);
+		adapter.start();
+		ArgumentCaptor<MessageListener> listener = ArgumentCaptor
+				.forClass(MessageListener.class);
+		verify(consumer).registerMessageListener(listener.capture());
+		return listener.getValue();
+	}
+
+	/**
+	 * @return the messages RocketMQ sends back to the retry topic for the outcome
+	 */
+	private List<MessageExt> redelivered(List<MessageExt> msgs,
+			ConsumeConcurrentlyStatus status, ConsumeConcurrentlyContext context) {
+		if (status == ConsumeConcurrentlyStatus.RECONSUME_LATER) {
+			return msgs;
+		}
+		return msgs.subList(Math.min(context.getAckIndex() + 1, msgs.size()),
+				msgs.size());
+	}
+
+	/**
+	 * @return a message key that falls into the given lane
+	 */
+	private String keyOfLane(int lane, int laneCount) {
+		for (int i = 0;; i++) {
+			String key = "key-" + i;
+			if (Math.floorMod(key.hashCode(), laneCount) == lane) {
+				return key;
+			}
+		}
+	}
+
+	private List<String> payloadsOf(String key) {
+		return received.stream()
+				.filter(message -> key
+						.equals(message.getHeaders().get(MessageConst.PROPERTY_KEYS)))
+				.map(message -> new String((byte[]) message.getPayload(),
+						StandardCharsets.UTF_8))
+				.collect(Collectors.toList());
+	}
+
+	private MessageExt message(long offset, int reconsumeTimes, String keys) {
+		MessageExt msg = message(offset, reconsumeTimes);
+		msg.setKeys(keys);
+		return msg;
+	}
+
+	private MessageExt message(long offset, int reconsumeTimes) {
+		MessageExt msg = new MessageExt();
+		msg.setTopic(DESTINATION);
+		msg.setQueueId(0);
+		msg.setQueueOffset(offset);
+		msg.setMsgId("msg-" + offset);
+		msg.setReconsumeTimes(reconsumeTimes);
+		msg.setStoreTimestamp(System.currentTimeMillis());
+		msg.setBody(("payload-" + offset).getBytes(StandardCharsets.UTF_8));
+		return msg;
+	}
+
+}
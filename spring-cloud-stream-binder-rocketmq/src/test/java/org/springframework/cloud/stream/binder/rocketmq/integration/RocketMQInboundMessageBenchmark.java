@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.integration;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.common.message.MessageExt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.stream.binder.rocketmq.PayloadCompression;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQHeaderMapper;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQMessageHeaderAccessor;
+import org.springframework.cloud.stream.binder.rocketmq.consuming.Acknowledgement;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * Cost per consumed message of building the Spring message: the copy of the payload
+ * and headers the adapter used to make, against the lazy view when the handler reads
+ * only the payload and when it reads the headers too.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RocketMQInboundMessageBenchmark {
+
+	private MessageExt msg;
+
+	@Setup
+	public void setUp() {
+		msg = new MessageExt();
+		msg.setTopic("topic");
+		msg.setTags("tag");
+		msg.setKeys("order-42");
+		msg.setMsgId("0A0A0A0A00002A9F0000000000000001");
+		msg.setBody(new byte[1024]);
+		msg.putUserProperty("contentType", "application/json");
+		msg.putUserProperty("traceId", "5c7d2e1f9a3b4c6d");
+	}
+
+	@Benchmark
+	public Object eagerCopy() {
+		Message<byte[]> message = MessageBuilder.withPayload(msg.getBody())
+				.setHeaders(new RocketMQMessageHeaderAccessor().withTags(msg.getTags())
+						.withKeys(msg.getKeys()).withFlag(msg.getFlag())
+						.withRocketMessage(msg)
+						.withAcknowledgment(new Acknowledgement()))
+				.copyHeadersIfAbsent(RocketMQHeaderMapper.DEFAULT.toHeaders(msg))
+				.build();
+		return message.getPayload();
+	}
+
+	@Benchmark
+	public Object lazyPayload() {
+		return view().getPayload();
+	}
+
+	@Benchmark
+	public Object lazyPayloadAndHeaders() {
+		Message<byte[]> message = view();
+		message.getPayload();
+		return message.getHeaders();
+	}
+
+	private Message<byte[]> view() {
+		return new RocketMQInboundMessage(msg, new Acknowledgement(), null,
+				PayloadCompression.DEFAULT_MAX_DECOMPRESSED_BYTES);
+	}
+}
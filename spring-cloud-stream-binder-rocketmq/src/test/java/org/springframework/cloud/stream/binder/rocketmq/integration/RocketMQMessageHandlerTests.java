@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.integration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.stream.binder.ExtendedProducerProperties;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQMessageHeaderAccessor;
+import org.springframework.cloud.stream.binder.rocketmq.producing.ProducersManager;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQBinderConfigurationProperties;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQProducerProperties;
+import org.springframework.integration.support.MutableMessageBuilder;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQMessageHandlerTests {
+
+	private static final String DESTINATION = "topic";
+
+	private final DefaultMQProducer producer = mock(DefaultMQProducer.class);
+
+	private final ProducersManager producersManager = mock(ProducersManager.class);
+
+	private final RocketMQProducerProperties extension = new RocketMQProducerProperties();
+
+	private RocketMQMessageHandler handler;
+
+	@Before
+	public void setUp() throws Exception {
+		when(producersManager.getOrCreateProducer(eq(DESTINATION), any()))
+				.thenReturn(producer);
+	}
+
+	@After
+	public void tearDown() {
+		if (handler != null) {
+			handler.stop();
+		}
+	}
+
+	@Test
+	public void putsTheResultOfASyncSendInTheMessage() throws Exception {
+		SendResult sendResult = new SendResult(SendStatus.SEND_OK, "id", "offsetId",
+				new MessageQueue(DESTINATION, "broker", 0), 10);
+		when(producer.send(any(Message.class))).thenReturn(sendResult);
+		start();
+		CompletableFuture<SendResult> callbackResult = new CompletableFuture<>();
+		org.springframework.messaging.Message<byte[]> message = message(callbackResult);
+
+		handler.handleMessage(message);
+
+		assertThat(new RocketMQMessageHeaderAccessor(message).getSendResult())
+				.isSameAs(sendResult);
+		assertThat(callbackResult.get(0, TimeUnit.SECONDS)).isSameAs(sendResult);
+	}
+
+	@Test
+	public void reportsTheResultOfABatchedSendToTheCallbackOnly() throws Exception {
+		extension.setBatching(true);
+		extension.setBatchLingerMillis(50);
+		when(producer.send(anyCollection())).thenReturn(new SendResult(
+				SendStatus.SEND_OK, "first,second", "offsetFirst,offsetSecond",
+				new MessageQueue(DESTINATION, "broker", 0), 10));
+		start();
+		CompletableFuture<SendResult> firstResult = new CompletableFuture<>();
+		CompletableFuture<SendResult> secondResult = new CompletableFuture<>();
+		org.springframework.messaging.Message<byte[]> first = message(firstResult);
+		org.springframework.messaging.Message<byte[]> second = message(secondResult);
+
+		handler.handleMessage(first);
+		handler.handleMessage(second);
+
+		assertThat(firstResult.get(5, TimeUnit.SECONDS).getMsgId()).isEqualTo("first");
+		assertThat(secondResult.get(5, TimeUnit.SECONDS).getQueueOffset())
+				.isEqualTo(11);
+		assertThat(first.getHeaders())
+				.doesNotContainKey(RocketMQBinderConstants.ROCKET_SEND_RESULT);
+		assertThat(second.getHeaders())
+				.doesNotContainKey(RocketMQBinderConstants.ROCKET_SEND_RESULT);
+	}
+
+	private void start() {
+		RocketMQBinderConfigurationProperties binderProperties = new RocketMQBinderConfigurationProperties();
+		binderProperties.setSharedProducers(true);
+		handler = new RocketMQMessageHandler(DESTINATION,
+				new ExtendedProducerProperties<>(extension), binderProperties, null);
+		handler.setProducersManager(producersManager);
+		handler.start();
+	}
+
+	private static org.springframework.messaging.Message<byte[]> message(
+			CompletableFuture<SendResult> result) {
+		return MutableMessageBuilder.withPayload("a".getBytes(StandardCharsets.UTF_8))
+				.setHeader(RocketMQBinderConstants.ROCKET_SEND_CALLBACK,
+						new SendCallback() {
+
+							@Override
+							public void onSuccess(SendResult sendResult) {
+								result.complete(sendResult);
+							}
+
+							@Override
+							public void onException(Throwable e) {
+								result.completeExceptionally(e);
+							}
+						})
+				.build();
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.integration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPullConsumer;
+import org.apache.rocketmq.client.consumer.PullResult;
+import org.apache.rocketmq.client.consumer.PullStatus;
+import org.apache.rocketmq.common.consumer.ConsumeFromWhere;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.springframework.cloud.stream.binder.ExtendedConsumerProperties;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants;
+import org.springframework.cloud.stream.binder.rocketmq.consuming.ConsumersManager;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQConsumerProperties;
+import org.springframework.integration.IntegrationMessageHeaderAccessor;
+import org.springframework.integration.support.AcknowledgmentCallback;
+import org.springframework.integration.support.AcknowledgmentCallback.Status;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MessageConversionException;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQMessageSourceTests {
+
+	private final MessageQueue mq = new MessageQueue("topic", "broker", 0);
+
+	private final RocketMQConsumerProperties extension = new RocketMQConsumerProperties();
+
+	private DefaultMQPullConsumer consumer;
+
+	private RocketMQMessageSource source;
+
+	@Before
+	public void setUp() throws Exception {
+		consumer = mock(DefaultMQPullConsumer.class);
+		when(consumer.fetchConsumeOffset(mq, true)).thenReturn(10L);
+		ConsumersManager consumersManager = mock(ConsumersManager.class);
+		when(consumersManager.getOrCreatePullConsumer(anyString(), anyString(), any()))
+				.thenReturn(consumer);
+		source = new RocketMQMessageSource(consumersManager,
+				new ExtendedConsumerProperties<>(extension), "topic", "group", null);
+	}
+
+	@Test
+	public void commitsUpToTheLowestUnacknowledgedMessage() throws Exception {
+		found(10, message(10), message(11), message(12));
+		start();
+		Message<?> first = receive();
+		Message<?> second = receive();
+		Message<?> third = receive();
+
+		acknowledge(second, Status.ACCEPT);
+		acknowledge(first, Status.REJECT);
+		acknowledge(third, Status.ACCEPT);
+
+		InOrder inOrder = inOrder(consumer);
+		inOrder.verify(consumer).updateConsumeOffset(mq, 10);
+		inOrder.verify(consumer).updateConsumeOffset(mq, 12);
+		inOrder.verify(consumer).updateConsumeOffset(mq, 13);
+	}
+
+	@Test
+	public void requeuesFromTheRequeuedMessage() throws Exception {
+		found(10, message(10), message(11), message(12));
+		start();
+		receive();
+		Message<?> second = receive();
+		receive();
+
+		acknowledge(second, Status.REQUEUE);
+		verify(consumer).updateConsumeOffset(mq, 10);
+
+		found(11, message(11), message(12));
+		assertThat(receive().getHeaders()
+				.get(RocketMQBinderConstants.ORIGINAL_ROCKET_MESSAGE, MessageExt.class)
+				.getQueueOffset()).isEqualTo(11);
+	}
+
+	@Test
+	public void startsAtConsumeFromWhereWithoutCommittedOffset() throws Exception {
+		when(consumer.fetchConsumeOffset(mq, true)).thenReturn(-1L);
+		when(consumer.minOffset(mq)).thenReturn(3L);
+		when(consumer.maxOffset(mq)).thenReturn(100L);
+		extension.setConsumeFromWhere(ConsumeFromWhere.CONSUME_FROM_FIRST_OFFSET);
+		found(3, message(3));
+		start();
+
+		assertThat(receive()).isNotNull();
+	}
+
+	@Test
+	public void startsAtTheLastOffsetByDefault() throws Exception {
+		when(consumer.fetchConsumeOffset(mq, true)).thenReturn(-1L);
+		when(consumer.maxOffset(mq)).thenReturn(100L);
+		found(100, message(100));
+		start();
+
+		assertThat(receive()).isNotNull();
+	}
+
+	@Test
+	public void startsAtTheConsumeTimestamp() throws Exception {
+		when(consumer.fetchConsumeOffset(mq, true)).thenReturn(-1L);
+		when(consumer.searchOffset(eq(mq), anyLong())).thenReturn(42L);
+		extension.setConsumeFromWhere(ConsumeFromWhere.CONSUME_FROM_TIMESTAMP);
+		extension.setConsumeTimestamp("20181121120000");
+		found(42, message(42));
+		start();
+
+		assertThat(receive()).isNotNull();
+		verify(consumer).searchOffset(mq,
+				ConsumersManager.consumeTimestampMillis(extension));
+	}
+
+	@Test
+	public void rejectsMalformedConsumeTimestamp() {
+		extension.setConsumeTimestamp("yesterday");
+
+		assertThatThrownBy(this::start).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void rejectsMessagesThatCantBeConverted() throws Exception {
+		MessageExt garbled = message(10);
+		garbled.putUserProperty(RocketMQBinderConstants.ROCKET_COMPRESSION, "zstd");
+		found(10, garbled, message(11));
+		start();
+
+		assertThatThrownBy(this::receive)
+				.isInstanceOf(MessageConversionException.class);
+		verify(consumer).updateConsumeOffset(mq, 11);
+		assertThat(receive()).isNotNull();
+	}
+
+	private void start() {
+		source.start();
+		Set<MessageQueue> mqs = Collections.singleton(mq);
+		source.messageQueueChanged("topic", mqs, mqs);
+	}
+
+	private Message<?> receive() {
+		return (Message<?>) source.doReceive();
+	}
+
+	private void found(long offset, MessageExt... msgs) throws Exception {
+		List<MessageExt> found = new ArrayList<>();
+		Collections.addAll(found, msgs);
+		long next = msgs[msgs.length - 1].getQueueOffset() + 1;
+		when(consumer.pull(eq(mq), eq("*"), eq(offset), anyInt())).thenReturn(
+				new PullResult(PullStatus.FOUND, next, 0, next, found));
+	}
+
+	private static void acknowledge(Message<?> message, Status status) {
+		message.getHeaders()
+				.get(IntegrationMessageHeaderAccessor.ACKNOWLEDGMENT_CALLBACK,
+						AcknowledgmentCallback.class)
+				.acknowledge(status);
+	}
+
+	private static MessageExt message(long offset) {
+		MessageExt msg = new MessageExt();
+		msg.setTopic("topic");
+		msg.setQueueOffset(offset);
+		msg.setBody(new byte[] { 1 });
+		return msg;
+	}
+}
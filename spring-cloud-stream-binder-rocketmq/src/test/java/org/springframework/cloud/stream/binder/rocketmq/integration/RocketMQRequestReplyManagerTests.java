@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.integration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants;
+import org.springframework.cloud.stream.binder.rocketmq.properties.RocketMQBinderConfigurationProperties;
+import org.springframework.messaging.Message;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQRequestReplyManagerTests {
+
+	private static final String REPLY_TO = "replies:instance";
+
+	private final DefaultMQPushConsumer replyConsumer = mock(
+			DefaultMQPushConsumer.class);
+
+	private RocketMQRequestReplyManager manager;
+
+	@Before
+	public void setUp() {
+		manager = new RocketMQRequestReplyManager(
+				new RocketMQBinderConfigurationProperties(), null, "instance");
+		// stands in for a started reply consumer, its replies are fed to onReplies
+		ReflectionTestUtils.setField(manager, "replyConsumer", replyConsumer);
+		ReflectionTestUtils.setField(manager, "scheduler",
+				Executors.newSingleThreadScheduledExecutor());
+		ReflectionTestUtils.setField(manager, "replyTo", REPLY_TO);
+		ReflectionTestUtils.setField(manager, "running", true);
+	}
+
+	@After
+	public void tearDown() {
+		manager.shutdown();
+	}
+
+	@Test
+	public void completesTheRequestOfTheCorrelationId() throws Exception {
+		CompletableFuture<Message<byte[]>> first = new CompletableFuture<>();
+		CompletableFuture<Message<byte[]>> second = new CompletableFuture<>();
+		AtomicLong latency = new AtomicLong(-1);
+		assertThat(manager.register("first", first, 10000, null)).isEqualTo(REPLY_TO);
+		manager.register("second", second, 10000, latency::set);
+
+		ConsumeConcurrentlyStatus status = manager
+				.onReplies(Collections.singletonList(reply("second", "pong")));
+
+		assertThat(status).isEqualTo(ConsumeConcurrentlyStatus.CONSUME_SUCCESS);
+		assertThat(new String(second.get(1, TimeUnit.SECONDS).getPayload(),
+				StandardCharsets.UTF_8)).isEqualTo("pong");
+		assertThat(latency.get()).isGreaterThanOrEqualTo(0);
+		assertThat(first).isNotDone();
+		assertThat(manager.getPendingRequests()).isEqualTo(1);
+	}
+
+	@Test
+	public void failsTheRequestOnceItTimedOut() throws Exception {
+		CompletableFuture<Message<byte[]>> future = new CompletableFuture<>();
+		manager.register("request", future, 100, null);
+
+		assertThatThrownBy(() -> future.get(5, TimeUnit.SECONDS))
+				.isInstanceOf(ExecutionException.class)
+				.hasCauseInstanceOf(TimeoutException.class)
+				.hasMessageContaining("request hasn't been replied within 100ms");
+		assertThat(manager.getPendingRequests()).isEqualTo(0);
+		assertThat(manager.getTimeouts()).isEqualTo(1);
+	}
+
+	@Test
+	public void dropsAReplyArrivingAfterTheTimeout() throws Exception {
+		CompletableFuture<Message<byte[]>> future = new CompletableFuture<>();
+		manager.register("request", future, 100, null);
+		assertThatThrownBy(() -> future.get(5, TimeUnit.SECONDS))
+				.hasCauseInstanceOf(TimeoutException.class);
+
+		ConsumeConcurrentlyStatus status = manager
+				.onReplies(Collections.singletonList(reply("request", "late")));
+
+		assertThat(status).isEqualTo(ConsumeConcurrentlyStatus.CONSUME_SUCCESS);
+		assertThat(future).isCompletedExceptionally();
+		assertThat(manager.getPendingRequests()).isEqualTo(0);
+		assertThat(manager.getTimeouts()).isEqualTo(1);
+	}
+
+	@Test
+	public void forgetsARequestCancelledByTheCaller() throws Exception {
+		CompletableFuture<Message<byte[]>> future = new CompletableFuture<>();
+		manager.register("request", future, 10000, null);
+
+		future.cancel(false);
+
+		assertThat(manager.getPendingRequests()).isEqualTo(0);
+	}
+
+	@Test
+	public void failsThePendingRequestsWhenStopped() throws Exception {
+		CompletableFuture<Message<byte[]>> first = new CompletableFuture<>();
+		CompletableFuture<Message<byte[]>> second = new CompletableFuture<>();
+		manager.register("first", first, 10000, null);
+		manager.register("second", second, 10000, null);
+
+		manager.stop();
+
+		assertThat(manager.isRunning()).isFalse();
+		assertThat(manager.getPendingRequests()).isEqualTo(0);
+		assertThatThrownBy(() -> first.get(1, TimeUnit.SECONDS))
+				.hasCauseInstanceOf(IllegalStateException.class);
+		assertThatThrownBy(() -> second.get(1, TimeUnit.SECONDS))
+				.hasCauseInstanceOf(IllegalStateException.class);
+		verify(replyConsumer).shutdown();
+		assertThatThrownBy(
+				() -> manager.register("third", new CompletableFuture<>(), 10000, null))
+						.isInstanceOf(MQClientException.class);
+	}
+
+	@Test
+	public void repliesOnlyToRequests() {
+		MessageExt request = reply("request", "ping");
+		request.putUserProperty(RocketMQBinderConstants.ROCKET_REPLY_TO, REPLY_TO);
+
+		assertThat(manager.getReplyChannel(request)).isNotNull();
+		assertThat(manager.getReplyChannel(reply("request", "ping"))).isNull();
+	}
+
+	private MessageExt reply(String correlationId, String payload) {
+		MessageExt msg = new MessageExt();
+		msg.setTopic("replies");
+		msg.setTags("instance");
+		msg.putUserProperty(RocketMQBinderConstants.ROCKET_CORRELATION_ID,
+				correlationId);
+		msg.setBody(payload.getBytes(StandardCharsets.UTF_8));
+		return msg;
+	}
+
+}
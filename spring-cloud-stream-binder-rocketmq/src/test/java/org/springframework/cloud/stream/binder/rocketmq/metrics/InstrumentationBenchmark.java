@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Per message cost of the consumer instrumentation, contended by four consume threads:
+ * the handles a binding resolves once at start against the lookup per message it used
+ * to do. Run with the gc profiler for the allocations per message.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class InstrumentationBenchmark {
+
+	private static final String DESTINATION = "topic";
+
+	private static final String GROUP = "group";
+
+	@Param({ "dropwizard", "micrometer" })
+	public String library;
+
+	private InstrumentationManager manager;
+
+	private ConsumerInstrumentation instrumentation;
+
+	private LongConsumer consumeDuration;
+
+	@Setup
+	public void setUp() {
+		manager = "dropwizard".equals(library) ? new InstrumentationManager()
+				: new MicrometerInstrumentationManager(new SimpleMeterRegistry());
+		instrumentation = manager.getConsumerInstrumentation(DESTINATION, GROUP);
+		consumeDuration = instrumentation.consumeDuration();
+	}
+
+	@Benchmark
+	public void resolvedHandles() {
+		instrumentation.markConsumed();
+		consumeDuration.accept(1000);
+	}
+
+	@Benchmark
+	public void lookupPerMessage() {
+		ConsumerInstrumentation instrumentation = manager
+				.getConsumerInstrumentation(DESTINATION, GROUP);
+		instrumentation.markConsumed();
+		instrumentation.consumeDuration().accept(1000);
+	}
+}
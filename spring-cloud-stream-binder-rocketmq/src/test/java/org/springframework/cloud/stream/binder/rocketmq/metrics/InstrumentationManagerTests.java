@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Counter;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class InstrumentationManagerTests {
+
+	private final InstrumentationManager manager = new InstrumentationManager();
+
+	@Test
+	public void keepsGroupsOfOneDestinationApart() {
+		ConsumerInstrumentation first = manager.getConsumerInstrumentation("topic",
+				"first");
+		ConsumerInstrumentation second = manager.getConsumerInstrumentation("topic",
+				"second");
+		manager.addHealthInstrumentation(first);
+		manager.addHealthInstrumentation(second);
+		first.markStartedSuccessfully();
+		second.markStartFailed(new IllegalStateException("down"));
+
+		first.markConsumed();
+
+		assertThat(manager.getHealthInstrumentations()).containsOnly(first, second);
+		Map<String, Object> metrics = manager.getMetrics();
+		assertThat(((Counter) metrics.get("scs-rocketmq.consumer.topic.first.totalConsumed"))
+				.getCount()).isEqualTo(1);
+		assertThat(((Counter) metrics.get("scs-rocketmq.consumer.topic.second.totalConsumed"))
+				.getCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void resolvesOneInstrumentationPerDestinationAndGroup() {
+		assertThat(manager.getProducerInstrumentation("topic", "group"))
+				.isSameAs(manager.getProducerInstrumentation("topic", "group"))
+				.isNotSameAs(manager.getProducerInstrumentation("topic", "other"));
+	}
+
+	@Test
+	public void keepsTheMetricsInItsRegistry() {
+		manager.getProducerInstrumentation("topic", "group").markSent();
+
+		assertThat(manager.getMetricRegistry()
+				.counter("scs-rocketmq.producer.topic.group.totalSent").getCount())
+						.isEqualTo(1);
+	}
+}
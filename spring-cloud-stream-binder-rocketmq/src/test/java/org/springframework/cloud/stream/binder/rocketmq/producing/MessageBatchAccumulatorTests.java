@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.binder.rocketmq.producing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class MessageBatchAccumulatorTests {
+
+	private final MessageQueue mq = new MessageQueue("topic", "broker", 1);
+
+	private DefaultMQProducer producer;
+
+	private MessageBatchAccumulator accumulator;
+
+	private final List<SendResult> results = new CopyOnWriteArrayList<>();
+
+	private final List<Throwable> failures = new CopyOnWriteArrayList<>();
+
+	private final SendCallback callback = new SendCallback() {
+
+		@Override
+		public void onSuccess(SendResult sendResult) {
+			results.add(sendResult);
+		}
+
+		@Override
+		public void onException(Throwable e) {
+			failures.add(e);
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception {
+		producer = mock(DefaultMQProducer.class);
+		when(producer.send(anyCollection())).thenReturn(new SendResult(
+				SendStatus.SEND_OK, "A,B,C", "OA,OB,OC", mq, 100));
+	}
+
+	@After
+	public void close() {
+		if (accumulator != null) {
+			accumulator.close();
+		}
+	}
+
+	@Test
+	public void sendsFullBatchWithOneResultPerMessage() throws Exception {
+		accumulator = new MessageBatchAccumulator("topic", producer, 3, 1024 * 1024,
+				60000);
+		accumulator.append(message("a"), callback);
+		accumulator.append(message("b"), callback);
+		verify(producer, never()).send(anyCollection());
+
+		accumulator.append(message("c"), callback);
+
+		verify(producer).send(anyCollection());
+		assertThat(results).extracting(SendResult::getMsgId).containsExactly("A", "B",
+				"C");
+		assertThat(results).extracting(SendResult::getOffsetMsgId)
+				.containsExactly("OA", "OB", "OC");
+		assertThat(results).extracting(SendResult::getQueueOffset)
+				.containsExactly(100L, 101L, 102L);
+		assertThat(results).extracting(SendResult::getMessageQueue).containsOnly(mq);
+	}
+
+	@Test
+	public void sendsBatchAfterLinger() throws Exception {
+		accumulator = new MessageBatchAccumulator("topic", producer, 32, 1024 * 1024,
+				50);
+		accumulator.append(message("a"), callback);
+		verify(producer, never()).send(anyCollection());
+
+		verify(producer, timeout(1000)).send(anyCollection());
+		assertThat(results).hasSize(1);
+	}
+
+	@Test
+	public void sendsRightAwayWithoutLinger() throws Exception {
+		accumulator = new MessageBatchAccumulator("topic", producer, 32, 1024 * 1024,
+				0);
+		accumulator.append(message("a"), callback);
+		accumulator.append(message("b"), callback);
+
+		verify(producer, times(2)).send(anyCollection());
+	}
+
+	@Test
+	public void sendsPreviousBatchBeforeOverflowing() throws Exception {
+		Message first = message("a");
+		int size = MessageBatchAccumulator.estimateSize(first);
+		accumulator = new MessageBatchAccumulator("topic", producer, 32,
+				size + size / 2, 60000);
+		accumulator.append(first, callback);
+		accumulator.append(message("b"), callback);
+
+		verify(producer).send(anyCollection());
+		assertThat(results).hasSize(1);
+
+		accumulator.flush();
+		verify(producer, times(2)).send(anyCollection());
+	}
+
+	@Test
+	public void failsEveryMessageOfAFailedBatch() throws Exception {
+		when(producer.send(anyCollection()))
+				.thenThrow(new MQClientException("unreachable", null));
+		accumulator = new MessageBatchAccumulator("topic", producer, 2, 1024 * 1024,
+				60000);
+		accumulator.append(message("a"), callback);
+		accumulator.append(message("b"), callback);
+
+		assertThat(failures).hasSize(2);
+		assertThat(results).isEmpty();
+	}
+
+	@Test
+	public void estimatesEncodedPropertyBytes() {
+		Message ascii = message("a");
+		ascii.putUserProperty("key", "e");
+		Message twoBytes = message("a");
+		twoBytes.putUserProperty("key", "\u00e9");
+		Message threeBytes = message("a");
+		threeBytes.putUserProperty("key", "\u4e2d");
+		Message fourBytes = message("a");
+		fourBytes.putUserProperty("key", "\ud83d\ude00");
+
+		int base = MessageBatchAccumulator.estimateSize(ascii);
+		assertThat(MessageBatchAccumulator.estimateSize(twoBytes)).isEqualTo(base + 1);
+		assertThat(MessageBatchAccumulator.estimateSize(threeBytes))
+				.isEqualTo(base + 2);
+		assertThat(MessageBatchAccumulator.estimateSize(fourBytes))
+				.isEqualTo(base + 3);
+	}
+
+	private static Message message(String body) {
+		return new Message("topic", body.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
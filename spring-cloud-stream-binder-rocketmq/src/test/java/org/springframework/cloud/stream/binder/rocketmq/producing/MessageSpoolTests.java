@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.binder.rocketmq.producing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.rocketmq.common.message.Message;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.cloud.stream.binder.rocketmq.producing.MessageSpool.SpooledMessage;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class MessageSpoolTests {
+
+	private static final int SEGMENT_BYTES = 512;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private MessageSpool spool;
+
+	@After
+	public void close() {
+		if (spool != null) {
+			spool.close();
+		}
+	}
+
+	@Test
+	public void replaysInOrderWithRoutes() throws IOException {
+		spool = open(SEGMENT_BYTES * 4);
+		Message keyed = message("b");
+		keyed.setKeys("key");
+		long first = spool.append(message("a"), 3);
+		long second = spool.append(keyed, "key");
+		long third = spool.append(message("c"), null);
+		assertThat(first).isEqualTo(0);
+		assertThat(second).isGreaterThan(first);
+		assertThat(third).isGreaterThan(second);
+		assertThat(spool.getDepth()).isEqualTo(3);
+
+		SpooledMessage spooled = spool.peek();
+		assertThat(spooled.getOffset()).isEqualTo(first);
+		assertThat(body(spooled)).isEqualTo("a");
+		assertThat(spooled.getRoute()).isEqualTo(3);
+		assertThat(spooled.getMessage().getTopic()).isEqualTo("topic");
+		spool.remove(spooled);
+
+		spooled = spool.peek();
+		assertThat(spooled.getOffset()).isEqualTo(second);
+		assertThat(spooled.getRoute()).isEqualTo("key");
+		spool.remove(spooled);
+
+		spooled = spool.peek();
+		assertThat(spooled.getOffset()).isEqualTo(third);
+		assertThat(spooled.getRoute()).isNull();
+		spool.remove(spooled);
+
+		assertThat(spool.peek()).isNull();
+		assertThat(spool.isEmpty()).isTrue();
+		assertThat(spool.getStats()).containsEntry("replayed", 3L);
+	}
+
+	@Test
+	public void rollsSegmentsAndDeletesReplayedOnes() throws IOException {
+		spool = open(SEGMENT_BYTES * 8);
+		for (int i = 0; i < 6; i++) {
+			assertThat(spool.append(message(pad(i)), null)).isNotNegative();
+		}
+		assertThat(segmentFiles()).hasSize(6);
+
+		for (int i = 0; i < 6; i++) {
+			SpooledMessage spooled = spool.peek();
+			assertThat(body(spooled)).isEqualTo(pad(i));
+			spool.remove(spooled);
+		}
+		assertThat(spool.peek()).isNull();
+		assertThat(segmentFiles()).hasSize(1);
+	}
+
+	@Test
+	public void refusesRecordsBeyondMaxBytes() throws IOException {
+		spool = open(SEGMENT_BYTES * 2);
+		assertThat(spool.append(message(pad(0)), null)).isNotNegative();
+		assertThat(spool.append(message(pad(1)), null)).isNotNegative();
+		assertThat(spool.append(message(pad(2)), null)).isEqualTo(-1);
+		assertThat(spool.append(message(new String(new char[SEGMENT_BYTES])), null))
+				.isEqualTo(-1);
+	}
+
+	@Test
+	public void waitsForTheReplayToMakeRoom() throws Exception {
+		spool = open(SEGMENT_BYTES * 2);
+		spool.append(message(pad(0)), null);
+		spool.append(message(pad(1)), null);
+		Thread replay = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+			spool.remove(spool.peek());
+			// moves past the end of the first segment and deletes it
+			spool.peek();
+		});
+		replay.start();
+
+		assertThat(spool.append(message(pad(2)), null, 10000)).isNotNegative();
+		replay.join();
+		assertThat(spool.getDepth()).isEqualTo(2);
+	}
+
+	@Test
+	public void givesUpWaitingAfterTheTimeout() throws Exception {
+		spool = open(SEGMENT_BYTES * 2);
+		spool.append(message(pad(0)), null);
+		spool.append(message(pad(1)), null);
+
+		long start = System.nanoTime();
+		assertThat(spool.append(message(pad(2)), null, 100)).isEqualTo(-1);
+		assertThat(System.nanoTime() - start)
+				.isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+
+		start = System.nanoTime();
+		assertThat(spool.append(message(new String(new char[SEGMENT_BYTES])), null,
+				10000)).isEqualTo(-1);
+		assertThat(System.nanoTime() - start)
+				.isLessThan(TimeUnit.MILLISECONDS.toNanos(1000));
+	}
+
+	@Test
+	public void recoversAfterReopening() throws IOException {
+		spool = open(SEGMENT_BYTES * 8);
+		for (int i = 0; i < 3; i++) {
+			spool.append(message(pad(i)), null);
+		}
+		spool.remove(spool.peek());
+		spool.close();
+
+		spool = open(SEGMENT_BYTES * 8);
+		assertThat(spool.getDepth()).isEqualTo(2);
+		assertThat(body(spool.peek())).isEqualTo(pad(1));
+	}
+
+	@Test
+	public void discardsRejectedRecords() throws IOException {
+		spool = open(SEGMENT_BYTES * 4);
+		spool.append(message("poison"), null);
+		spool.append(message("next"), null);
+
+		spool.discard(spool.peek());
+
+		assertThat(body(spool.peek())).isEqualTo("next");
+		assertThat(spool.getStats()).containsEntry("discarded", 1L)
+				.containsEntry("replayed", 0L);
+	}
+
+	@Test
+	public void ignoresRecordsAlreadyMovedPast() throws IOException {
+		spool = open(SEGMENT_BYTES * 4);
+		spool.append(message("a"), null);
+		spool.append(message("b"), null);
+		SpooledMessage spooled = spool.peek();
+
+		spool.remove(spooled);
+		spool.remove(spooled);
+
+		assertThat(spool.getDepth()).isEqualTo(1);
+		assertThat(body(spool.peek())).isEqualTo("b");
+	}
+
+	@Test
+	public void isUnusableOnceClosed() throws IOException {
+		spool = open(SEGMENT_BYTES * 4);
+		spool.append(message("a"), null);
+		spool.close();
+
+		assertThat(spool.peek()).isNull();
+		assertThat(spool.append(message("b"), null)).isEqualTo(-1);
+		spool.close();
+	}
+
+	private MessageSpool open(long maxBytes) throws IOException {
+		return new MessageSpool(new File(folder.getRoot(), "topic"), SEGMENT_BYTES,
+				maxBytes);
+	}
+
+	private File[] segmentFiles() {
+		return new File(folder.getRoot(), "topic")
+				.listFiles((dir, name) -> name.endsWith(".spool"));
+	}
+
+	private static Message message(String body) {
+		return new Message("topic", body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return a body large enough for a single record per segment
+	 */
+	private static String pad(int i) {
+		StringBuilder body = new StringBuilder().append(i);
+		while (body.length() < SEGMENT_BYTES / 2) {
+			body.append('-');
+		}
+		return body.toString();
+	}
+
+	private static String body(SpooledMessage spooled) {
+		return new String(spooled.getMessage().getBody(), StandardCharsets.UTF_8);
+	}
+
+}
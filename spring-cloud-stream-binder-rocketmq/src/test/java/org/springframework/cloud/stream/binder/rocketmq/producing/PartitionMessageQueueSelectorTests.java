@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.stream.binder.rocketmq.producing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class PartitionMessageQueueSelectorTests {
+
+	private final PartitionMessageQueueSelector selector = PartitionMessageQueueSelector.INSTANCE;
+
+	private final List<MessageQueue> mqs = queues(4);
+
+	private final Message msg = new Message("topic", new byte[0]);
+
+	@Test
+	public void selectsThePartitionQueue() {
+		for (int partition = 0; partition < mqs.size(); partition++) {
+			assertThat(selector.select(mqs, msg, partition)).isSameAs(mqs.get(partition));
+		}
+	}
+
+	@Test
+	public void wrapsPartitionsBeyondTheQueues() {
+		assertThat(selector.select(mqs, msg, 5)).isSameAs(mqs.get(1));
+		assertThat(selector.select(queues(3), msg, 7).getQueueId()).isEqualTo(1);
+	}
+
+	@Test
+	public void selectsTheSameQueueForTheSameKeys() {
+		MessageQueue selected = selector.select(mqs, msg, "order-42");
+
+		assertThat(selector.select(mqs, msg, new String("order-42"))).isSameAs(selected);
+		assertThat(selected).isSameAs(mqs.get(Math.floorMod("order-42".hashCode(), 4)));
+	}
+
+	@Test
+	public void selectsAQueueForNegativeHashes() {
+		// Integer.MIN_VALUE would stay negative with Math.abs
+		assertThat(selector.select(mqs, msg, Integer.MIN_VALUE)).isSameAs(mqs.get(0));
+		assertThat(selector.select(mqs, msg, -1)).isSameAs(mqs.get(3));
+	}
+
+	private static List<MessageQueue> queues(int count) {
+		List<MessageQueue> mqs = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			mqs.add(new MessageQueue("topic", "broker", i));
+		}
+		return mqs;
+	}
+}
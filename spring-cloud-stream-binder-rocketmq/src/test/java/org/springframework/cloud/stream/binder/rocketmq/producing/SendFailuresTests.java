@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.springframework.cloud.stream.binder.rocketmq.producing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.apache.rocketmq.client.common.ClientErrorCode;
+import org.apache.rocketmq.client.exception.MQBrokerException;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.remoting.exception.RemotingConnectException;
+import org.apache.rocketmq.remoting.exception.RemotingTimeoutException;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class SendFailuresTests {
+
+	@Test
+	public void unreachableBrokerIsTransient() {
+		assertThat(SendFailures.isTransient(
+				new RemotingConnectException("127.0.0.1:10911"), false)).isTrue();
+		assertThat(SendFailures.isTransient(
+				new RemotingTimeoutException("127.0.0.1:10911", 3000), false)).isTrue();
+		assertThat(SendFailures.isTransient(new MQClientException(
+				ClientErrorCode.CONNECT_BROKER_EXCEPTION, "unreachable"), false))
+						.isTrue();
+	}
+
+	@Test
+	public void retriedFailureIsClassifiedByItsCause() {
+		MQClientException retried = new MQClientException("Send [3] times",
+				new RemotingTimeoutException("timeout"));
+		assertThat(SendFailures.isTransient(retried, false)).isTrue();
+	}
+
+	@Test
+	public void busyBrokerIsTransient() {
+		assertThat(SendFailures.isTransient(
+				new MQBrokerException(ResponseCode.SYSTEM_BUSY, "busy"), false)).isTrue();
+		assertThat(SendFailures.isTransient(
+				new MQBrokerException(ResponseCode.SERVICE_NOT_AVAILABLE, "slave"),
+				false)).isTrue();
+	}
+
+	@Test
+	public void rejectedMessageIsPermanent() {
+		assertThat(SendFailures.isTransient(
+				new MQBrokerException(ResponseCode.NO_PERMISSION, "denied"), false))
+						.isFalse();
+		assertThat(SendFailures.isTransient(
+				new MQBrokerException(ResponseCode.MESSAGE_ILLEGAL, "illegal"), true))
+						.isFalse();
+		assertThat(SendFailures.isTransient(new MQClientException("Send [3] times",
+				new MQBrokerException(ResponseCode.TOPIC_NOT_EXIST, "missing")), true))
+						.isFalse();
+		assertThat(SendFailures.isTransient(
+				new MQClientException("window full", null), true)).isFalse();
+	}
+
+	@Test
+	public void missingRouteIsTransientOnlyForRoutedTopics() {
+		MQClientException noRoute = new MQClientException(
+				ClientErrorCode.NOT_FOUND_TOPIC_EXCEPTION, "No route info");
+		assertThat(SendFailures.isTransient(noRoute, false)).isFalse();
+		assertThat(SendFailures.isTransient(noRoute, true)).isTrue();
+	}
+
+}
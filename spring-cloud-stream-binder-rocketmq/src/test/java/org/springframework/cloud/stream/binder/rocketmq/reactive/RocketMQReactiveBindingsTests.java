@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.binder.rocketmq.reactive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.FilteredClassLoader;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.cloud.stream.binder.PollableMessageSource;
+import org.springframework.cloud.stream.binder.rocketmq.config.RocketMQReactiveAutoConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.messaging.MessageChannel;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQReactiveBindingsTests {
+
+	private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+			.withConfiguration(
+					AutoConfigurations.of(RocketMQReactiveAutoConfiguration.class))
+			.withUserConfiguration(Bindings.class);
+
+	@Test
+	public void createsTheReactiveConsumersAndProducersOfTheBindings() {
+		contextRunner.run(context -> {
+			RocketMQReactiveBindings bindings = context
+					.getBean(RocketMQReactiveBindings.class);
+			assertThat(bindings.consumer("input")).isNotNull();
+			assertThat(bindings.producer("output")).isNotNull();
+		});
+	}
+
+	@Test
+	public void isOnlyAutoConfiguredWithReactor() {
+		contextRunner.withClassLoader(new FilteredClassLoader(Flux.class))
+				.run(context -> assertThat(context)
+						.doesNotHaveBean(RocketMQReactiveBindings.class));
+	}
+
+	@Configuration
+	static class Bindings {
+
+		@Bean
+		public PollableMessageSource input() {
+			return mock(PollableMessageSource.class);
+		}
+
+		@Bean
+		public MessageChannel output() {
+			return new DirectChannel();
+		}
+
+	}
+}
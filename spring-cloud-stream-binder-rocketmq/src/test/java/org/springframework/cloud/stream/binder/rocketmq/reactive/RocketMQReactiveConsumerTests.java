@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.binder.rocketmq.reactive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.cloud.stream.binder.PollableMessageSource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQReactiveConsumerTests {
+
+	private final Scheduler scheduler = Schedulers.newSingle("poll");
+
+	private final PollableMessageSource source = mock(PollableMessageSource.class);
+
+	private final AtomicInteger polls = new AtomicInteger();
+
+	private final RocketMQReactiveConsumer consumer = new RocketMQReactiveConsumer(
+			source, scheduler, 10);
+
+	@After
+	public void tearDown() {
+		scheduler.dispose();
+	}
+
+	@Test
+	public void pollsOnlyForTheRequestedMessages() {
+		when(source.poll(any())).thenAnswer(invocation -> {
+			MessageHandler handler = invocation.getArgument(0);
+			handler.handleMessage(message(polls.incrementAndGet()));
+			return true;
+		});
+
+		StepVerifier.create(consumer.flux(), 0)
+				.expectSubscription()
+				.expectNoEvent(Duration.ofMillis(50))
+				.then(() -> assertThat(polls).hasValue(0))
+				.thenRequest(2)
+				.assertNext(message -> assertThat(payload(message)).isEqualTo("1"))
+				.assertNext(message -> assertThat(payload(message)).isEqualTo("2"))
+				.expectNoEvent(Duration.ofMillis(50))
+				.then(() -> assertThat(polls).hasValue(2))
+				.thenRequest(1)
+				.assertNext(message -> assertThat(payload(message)).isEqualTo("3"))
+				.thenCancel()
+				.verify(Duration.ofSeconds(5));
+		assertThat(polls).hasValue(3);
+	}
+
+	@Test
+	public void pollsAgainAfterAnEmptyPoll() {
+		when(source.poll(any())).thenAnswer(invocation -> {
+			if (polls.incrementAndGet() < 3) {
+				return false;
+			}
+			MessageHandler handler = invocation.getArgument(0);
+			handler.handleMessage(message(polls.get()));
+			return true;
+		});
+
+		StepVerifier.create(consumer.flux().take(1))
+				.assertNext(message -> assertThat(payload(message)).isEqualTo("3"))
+				.expectComplete()
+				.verify(Duration.ofSeconds(5));
+	}
+
+	@Test
+	public void stopsPollingOnceCancelled() {
+		when(source.poll(any())).thenAnswer(invocation -> {
+			MessageHandler handler = invocation.getArgument(0);
+			handler.handleMessage(message(polls.incrementAndGet()));
+			return true;
+		});
+
+		StepVerifier.create(consumer.flux().take(5))
+				.expectNextCount(5)
+				.expectComplete()
+				.verify(Duration.ofSeconds(5));
+		StepVerifier.create(consumer.flux(), 0).thenCancel().verify();
+		assertThat(polls).hasValue(5);
+	}
+
+	@Test
+	public void propagatesPollFailures() {
+		when(source.poll(any()))
+				.thenThrow(new MessagingException("RocketMQ pull failed"));
+
+		StepVerifier.create(consumer.flux())
+				.expectErrorSatisfies(e -> assertThat(e)
+						.isInstanceOf(MessagingException.class)
+						.hasMessage("RocketMQ pull failed"))
+				.verify(Duration.ofSeconds(5));
+	}
+
+	private static Message<byte[]> message(int i) {
+		return MessageBuilder.withPayload(
+				String.valueOf(i).getBytes(StandardCharsets.UTF_8)).build();
+	}
+
+	private static String payload(Message<byte[]> message) {
+		return new String(message.getPayload(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.stream.binder.rocketmq.reactive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.junit.Test;
+import org.springframework.cloud.stream.binder.rocketmq.RocketMQBinderConstants;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.MessageBuilder;
+
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class RocketMQReactiveProducerTests {
+
+	private final List<SendCallback> callbacks = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Holds the send callbacks like an async binding waiting for the broker ack.
+	 */
+	private final MessageChannel asyncOutput = (message, timeout) -> {
+		callbacks.add((SendCallback) message.getHeaders()
+				.get(RocketMQBinderConstants.ROCKET_SEND_CALLBACK));
+		return true;
+	};
+
+	@Test
+	public void boundsTheSendsWaitingForTheirAck() {
+		RocketMQReactiveProducer producer = new RocketMQReactiveProducer(asyncOutput);
+		SendResult first = result("first");
+		SendResult second = result("second");
+		SendResult third = result("third");
+
+		StepVerifier.create(producer.send(Flux.just(message(), message(), message()), 2))
+				.then(() -> assertThat(callbacks).hasSize(2))
+				.then(() -> callbacks.get(1).onSuccess(second))
+				.expectNext(second)
+				.then(() -> assertThat(callbacks).hasSize(3))
+				.then(() -> callbacks.get(2).onSuccess(third))
+				.expectNext(third)
+				.then(() -> callbacks.get(0).onSuccess(first))
+				.expectNext(first)
+				.expectComplete()
+				.verify(Duration.ofSeconds(5));
+	}
+
+	@Test
+	public void completesWithTheMessages() {
+		RocketMQReactiveProducer producer = new RocketMQReactiveProducer(
+				(message, timeout) -> {
+					((SendCallback) message.getHeaders()
+							.get(RocketMQBinderConstants.ROCKET_SEND_CALLBACK))
+									.onSuccess(result("sync"));
+					return true;
+				});
+
+		StepVerifier.create(producer.send(Flux.just(message(), message()), 1))
+				.expectNextCount(2)
+				.expectComplete()
+				.verify(Duration.ofSeconds(5));
+		StepVerifier.create(producer.send(Flux.empty(), 1))
+				.expectComplete()
+				.verify(Duration.ofSeconds(5));
+	}
+
+	@Test
+	public void propagatesAFailedAck() {
+		RocketMQReactiveProducer producer = new RocketMQReactiveProducer(asyncOutput);
+		MessagingException failure = new MessagingException("broker unreachable");
+
+		StepVerifier.create(producer.send(Flux.just(message(), message()), 2))
+				.then(() -> callbacks.get(0).onException(failure))
+				.expectErrorSatisfies(e -> assertThat(e).isSameAs(failure))
+				.verify(Duration.ofSeconds(5));
+	}
+
+	@Test
+	public void propagatesAThrowingSendOnce() {
+		MessagingException failure = new MessagingException("message hasn't been sent");
+		RocketMQReactiveProducer producer = new RocketMQReactiveProducer(
+				(message, timeout) -> {
+					// a failed sync send reports to the callback and throws
+					((SendCallback) message.getHeaders()
+							.get(RocketMQBinderConstants.ROCKET_SEND_CALLBACK))
+									.onException(failure);
+					throw failure;
+				});
+
+		StepVerifier.create(producer.send(message()))
+				.expectErrorSatisfies(e -> assertThat(e).isSameAs(failure))
+				.verify(Duration.ofSeconds(5));
+	}
+
+	private static Message<byte[]> message() {
+		return MessageBuilder.withPayload(new byte[0]).build();
+	}
+
+	private static SendResult result(String msgId) {
+		SendResult result = new SendResult();
+		result.setSendStatus(SendStatus.SEND_OK);
+		result.setMsgId(msgId);
+		return result;
+	}
+}